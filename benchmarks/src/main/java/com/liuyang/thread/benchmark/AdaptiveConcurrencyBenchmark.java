@@ -0,0 +1,107 @@
+package com.liuyang.thread.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.liuyang.thread.FixedThreadPool;
+
+/**
+ * 自适应并发的收敛: 最多 {@value #MAX_THREADS} 个线程的 FixedThreadPool, 分别以固定的最大线程数量(fixed)与自适应并发(adaptive)
+ * 执行 CPU 密集(cpu)或阻塞 {@value #BLOCK_MILLIS} 毫秒(blocking)的命令。每次迭代的 threads 计数为迭代结束时控制器给出的线程数量,
+ * 逐次迭代即可看出收敛过程: cpu 应收敛于 CPU 数量附近, blocking 应逐步增加至吞吐量不再上升。
+ * @author liuyang
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class AdaptiveConcurrencyBenchmark {
+    private final static int MAX_THREADS = 64;
+    private final static int TASKS = 2000;
+    private final static long BLOCK_MILLIS = 2;
+    private final static int CPU_ROUNDS = 20000;
+
+    @Param({ "cpu", "blocking" })
+    public String workload;
+
+    @Param({ "fixed", "adaptive" })
+    public String mode;
+
+    private FixedThreadPool<Long> pool;
+
+    /**
+     * 迭代结束时的线程数量上限
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Limit {
+        public long threads;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pool = new FixedThreadPool<Long>(MAX_THREADS);
+        if ("adaptive".equals(mode)) pool.adaptiveConcurrency(1, 200, TimeUnit.MILLISECONDS);
+        pool.wait(true);
+        pool.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void run(Limit limit) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(TASKS);
+        final boolean blocking = "blocking".equals(workload);
+        for (int i = 0; i < TASKS; i++) {
+            pool.submit(() -> {
+                long result = blocking ? block() : spin();
+                done.countDown();
+                return result;
+            });
+        }
+        pool.commit();
+        done.await();
+        limit.threads = pool.getConcurrencyLimit();
+    }
+
+    private static long block() {
+        try {
+            Thread.sleep(BLOCK_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
+    }
+
+    private static long spin() {
+        long x = System.nanoTime();
+        for (int i = 0; i < CPU_ROUNDS; i++) {
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+        }
+        return x;
+    }
+}
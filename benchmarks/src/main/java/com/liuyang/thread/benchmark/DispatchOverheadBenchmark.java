@@ -0,0 +1,72 @@
+package com.liuyang.thread.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 空命令的调度开销: 单个提交线程连续提交空命令, 以每个命令分摊的时间计。命令本身不做任何事,
+ * 测得的时间全部是入队、出队、唤醒与回调的开销。
+ * @author liuyang
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchOverheadBenchmark {
+    private final static int TASKS = 10000;
+
+    @Param({ "FixedThreadPool", "SimpleThreadPool", "ThreadPoolExecutor", "ForkJoinPool" })
+    public String pool;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    private PoolAdapter adapter;
+    private final AtomicInteger remaining = new AtomicInteger();
+    private volatile Thread waiter;
+    private final Runnable onDone = () -> {
+        if (remaining.decrementAndGet() == 0) LockSupport.unpark(waiter);
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        adapter = PoolAdapter.create(pool, threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        adapter.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void emptyTasks() {
+        waiter = Thread.currentThread();
+        remaining.set(TASKS);
+        for (int i = 0; i < TASKS; i++) {
+            adapter.submit(onDone);
+        }
+        adapter.flush();
+        while (remaining.get() > 0) {
+            LockSupport.park(this);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.liuyang.thread.benchmark;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.liuyang.thread.FixedThreadPool;
+
+/**
+ * 多租户下小租户的延迟: 后台线程以批量租户的命令使线程池始终积压约 {@value #BULK_BACKLOG} 个命令,
+ * 测量小租户提交一个命令到其执行完毕的延迟分布。fifo 为全局先进先出, grouped 为两个租户分组按权重轮转,
+ * 后者的延迟不应随批量租户的积压增长。
+ * @author liuyang
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FairQueuingBenchmark {
+    private final static int THREADS = 4;
+    private final static int BULK_BACKLOG = 2000;
+    private final static int BULK_ROUNDS = 2000;
+
+    @Param({ "fifo", "grouped" })
+    public String mode;
+
+    private FixedThreadPool<Long> pool;
+    private Thread feeder;
+    private volatile boolean feeding;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pool = new FixedThreadPool<Long>(THREADS);
+        pool.wait(true);
+        pool.start();
+        final boolean grouped = "grouped".equals(mode);
+        final Callable<Long> bulk = FairQueuingBenchmark::spin;
+        feeding = true;
+        feeder = new Thread(() -> {
+            while (feeding) {
+                if (pool.getRemain() < BULK_BACKLOG) {
+                    for (int i = 0; i < BULK_BACKLOG / 4; i++) {
+                        if (grouped) {
+                            pool.submitGrouped("bulk", bulk);
+                        } else {
+                            pool.submit(bulk);
+                        }
+                    }
+                    pool.commit();
+                } else {
+                    Thread.yield();
+                }
+            }
+        });
+        feeder.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        feeding = false;
+        feeder.join();
+        pool.close();
+    }
+
+    @Benchmark
+    public void smallTenant() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        Callable<Long> command = () -> {
+            done.countDown();
+            return 0L;
+        };
+        if ("grouped".equals(mode)) {
+            pool.submitGrouped("small", command);
+        } else {
+            pool.submit(command);
+        }
+        pool.commit();
+        done.await();
+    }
+
+    private static long spin() {
+        long x = System.nanoTime();
+        for (int i = 0; i < BULK_ROUNDS; i++) {
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+        }
+        return x;
+    }
+}
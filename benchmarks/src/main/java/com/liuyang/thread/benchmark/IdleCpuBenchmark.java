@@ -0,0 +1,90 @@
+package com.liuyang.thread.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 空闲时的 CPU 开销: 线程池已启动且在等待命令时, 进程每秒消耗的 CPU 时间(微秒, 见 cpuMicros 计数)。
+ * pool 为 None 时不创建线程池, 作为 JVM 与 JMH 自身开销的基线。
+ * @author liuyang
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdleCpuBenchmark {
+    private final static long IDLE_MILLIS = 100;
+
+    @Param({ "None", "FixedThreadPool", "SimpleThreadPool", "ThreadPoolExecutor", "ForkJoinPool" })
+    public String pool;
+
+    @Param({ "16" })
+    public int threads;
+
+    private PoolAdapter adapter;
+
+    /**
+     * 每次迭代(1 秒)内消耗的 CPU 时间
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class CpuCounter {
+        public long cpuMicros;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            cpuMicros = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        if ("None".equals(pool) == false) {
+            adapter = PoolAdapter.create(pool, threads);
+            // 让所有线程启动并进入等待
+            for (int i = 0; i < threads; i++) {
+                adapter.submit(() -> { });
+            }
+            adapter.flush();
+            Thread.sleep(IDLE_MILLIS);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (adapter != null) adapter.shutdown();
+    }
+
+    @Benchmark
+    public void idle(CpuCounter counter) throws InterruptedException {
+        long before = processCpuNanos();
+        Thread.sleep(IDLE_MILLIS);
+        counter.cpuMicros += (processCpuNanos() - before) / 1000;
+    }
+
+    private static long processCpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return 0;
+    }
+}
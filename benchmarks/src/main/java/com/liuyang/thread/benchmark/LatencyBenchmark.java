@@ -0,0 +1,56 @@
+package com.liuyang.thread.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 端到端延迟: 提交一个命令并等待其回调, 以采样方式给出延迟分布。线程池空闲时测得的主要是唤醒线程的开销。
+ * @author liuyang
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LatencyBenchmark {
+    @Param({ "FixedThreadPool", "SimpleThreadPool", "ThreadPoolExecutor", "ForkJoinPool" })
+    public String pool;
+
+    @Param({ "4" })
+    public int threads;
+
+    private PoolAdapter adapter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        adapter = PoolAdapter.create(pool, threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        adapter.shutdown();
+    }
+
+    @Benchmark
+    public void submitToCallback() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        adapter.submit(done::countDown);
+        adapter.flush();
+        done.await();
+    }
+}
@@ -0,0 +1,155 @@
+package com.liuyang.thread.benchmark;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.liuyang.thread.FixedThreadPool;
+import com.liuyang.thread.ShardedThreadPool;
+import com.liuyang.thread.SimpleThreadPool;
+import com.liuyang.thread.ThreadResultCallBack;
+
+/**
+ * 以统一的方式向各种线程池提交命令, 便于在同一基准测试中比较
+ * <p>
+ * 本项目的线程池以命令的返回值回调 onDone, 因此测得的是 提交 → 回调 的完整路径;
+ * JDK 线程池直接执行 onDone。
+ * @author liuyang
+ */
+interface PoolAdapter {
+    /**
+     * 提交一个命令, 命令执行完毕后在线程池的线程中调用 onDone
+     * @param onDone
+     */
+    void submit(Runnable onDone);
+
+    /**
+     * 使已提交的命令可以执行, 只有 FixedThreadPool 需要 commit()
+     */
+    void flush();
+
+    void shutdown();
+
+    /**
+     * @param kind FixedThreadPool、FixedThreadPool-virtual、ShardedThreadPool、SimpleThreadPool、ThreadPoolExecutor 或 ForkJoinPool
+     * @param threads 线程数量; 虚拟线程模式下为并发数量; 分片线程池每个线程一个分片
+     * @return
+     */
+    static PoolAdapter create(String kind, int threads) {
+        switch (kind) {
+        case "FixedThreadPool":
+            return new Fixed(threads, 0);
+        case "FixedThreadPool-virtual":
+            return new Fixed(1, threads);
+        case "ShardedThreadPool":
+            return new Sharded(threads);
+        case "SimpleThreadPool":
+            return new Simple(threads);
+        case "ThreadPoolExecutor":
+            return new Jdk(new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>()));
+        case "ForkJoinPool":
+            return new Jdk(new ForkJoinPool(threads));
+        default:
+            throw new IllegalArgumentException("unknown pool: " + kind);
+        }
+    }
+
+    final static class Fixed implements PoolAdapter {
+        private final FixedThreadPool<Runnable> pool;
+
+        Fixed(int threads, int virtualConcurrency) {
+            pool = new FixedThreadPool<Runnable>(threads, (ThreadResultCallBack<Runnable>) (id, onDone) -> onDone.run());
+            if (virtualConcurrency > 0) pool.virtualThreads(virtualConcurrency);
+            pool.wait(true);
+            pool.start();
+        }
+
+        @Override
+        public void submit(Runnable onDone) {
+            pool.submit(() -> onDone);
+        }
+
+        @Override
+        public void flush() {
+            pool.commit();
+        }
+
+        @Override
+        public void shutdown() {
+            pool.close();
+        }
+    }
+
+    final static class Sharded implements PoolAdapter {
+        private final ShardedThreadPool<Runnable> pool;
+
+        Sharded(int threads) {
+            pool = new ShardedThreadPool<Runnable>(threads, 1, (id, onDone) -> onDone.run());
+            pool.wait(true);
+            pool.start();
+        }
+
+        @Override
+        public void submit(Runnable onDone) {
+            pool.submit(() -> onDone);
+        }
+
+        @Override
+        public void flush() {
+            pool.commit();
+        }
+
+        @Override
+        public void shutdown() {
+            pool.close();
+        }
+    }
+
+    final static class Simple implements PoolAdapter {
+        private final SimpleThreadPool<Runnable> pool;
+
+        Simple(int threads) {
+            pool = new SimpleThreadPool<Runnable>(threads, (id, onDone) -> onDone.run());
+            pool.waitFroCommand(true);
+            pool.start();
+        }
+
+        @Override
+        public void submit(Runnable onDone) {
+            pool.submit(() -> onDone);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void shutdown() {
+            pool.stop();
+        }
+    }
+
+    final static class Jdk implements PoolAdapter {
+        private final ExecutorService pool;
+
+        Jdk(ExecutorService pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public void submit(Runnable onDone) {
+            pool.execute(onDone);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void shutdown() {
+            pool.shutdownNow();
+        }
+    }
+}
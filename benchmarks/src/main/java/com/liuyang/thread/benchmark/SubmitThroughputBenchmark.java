@@ -0,0 +1,91 @@
+package com.liuyang.thread.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 提交吞吐量: producers 个线程同时提交空命令, 直至全部执行完毕, 以每秒执行的命令数量计
+ * <p>
+ * FixedThreadPool 每提交 {@value #FLUSH_EVERY} 个命令 commit() 一次。
+ * @author liuyang
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubmitThroughputBenchmark {
+    /**
+     * 每次调用提交的命令数量, 可被 1 至 8 个提交线程整除
+     */
+    private final static int TASKS = 100800;
+    private final static int FLUSH_EVERY = 64;
+
+    @Param({ "FixedThreadPool", "ShardedThreadPool", "SimpleThreadPool", "ThreadPoolExecutor", "ForkJoinPool" })
+    public String pool;
+
+    @Param({ "1", "2", "4", "8" })
+    public int producers;
+
+    @Param({ "4" })
+    public int threads;
+
+    private PoolAdapter adapter;
+    private ExecutorService producerThreads;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (producers < 1 || TASKS % producers != 0) throw new IllegalArgumentException("producers must divide " + TASKS);
+        adapter = PoolAdapter.create(pool, threads);
+        producerThreads = Executors.newFixedThreadPool(producers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        producerThreads.shutdownNow();
+        adapter.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void submit() throws Exception {
+        final CountDownLatch done = new CountDownLatch(TASKS);
+        final Runnable onDone = done::countDown;
+        final int perProducer = TASKS / producers;
+        List<Future<?>> submitted = new ArrayList<Future<?>>(producers);
+        for (int p = 0; p < producers; p++) {
+            submitted.add(producerThreads.submit(() -> {
+                for (int i = 1; i <= perProducer; i++) {
+                    adapter.submit(onDone);
+                    if (i % FLUSH_EVERY == 0) adapter.flush();
+                }
+                adapter.flush();
+            }));
+        }
+        for (Future<?> future : submitted) {
+            future.get();
+        }
+        done.await();
+    }
+}
@@ -0,0 +1,72 @@
+package com.liuyang.thread.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 阻塞型命令的吞吐量: 每个命令阻塞 {@value #BLOCK_MILLIS} 毫秒(模拟 JDBC、文件 I/O),
+ * 比较 concurrency 个平台线程与并发数量同为 concurrency 的虚拟线程模式。
+ * 虚拟线程需要 JDK 21, 低版本 JDK 上虚拟线程模式退化为每个命令一个平台线程。
+ * @author liuyang
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VirtualThreadBenchmark {
+    private final static int TASKS = 2000;
+    private final static long BLOCK_MILLIS = 1;
+
+    @Param({ "FixedThreadPool", "FixedThreadPool-virtual" })
+    public String pool;
+
+    @Param({ "64", "1024" })
+    public int concurrency;
+
+    private PoolAdapter adapter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        adapter = PoolAdapter.create(pool, concurrency);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        adapter.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void blockingTasks() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(TASKS);
+        for (int i = 0; i < TASKS; i++) {
+            adapter.submit(() -> {
+                try {
+                    Thread.sleep(BLOCK_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+        }
+        adapter.flush();
+        done.await();
+    }
+}
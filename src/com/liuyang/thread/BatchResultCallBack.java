@@ -0,0 +1,17 @@
+package com.liuyang.thread;
+
+import java.util.List;
+
+/**
+ * 批量处理命令返回值的回调程序, 由独立的投递线程调用, 不占用线程池的线程
+ * @author liuyang
+ * @param <T>
+ */
+public interface BatchResultCallBack<T> {
+	/**
+	 * Handle results
+	 * @param results 按执行完毕的顺序排列, 回调返回后不再使用, 可以保留
+	 */
+    public abstract void callback(List<ThreadResult<T>> results);
+
+}
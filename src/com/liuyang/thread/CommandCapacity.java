@@ -0,0 +1,165 @@
+package com.liuyang.thread;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 待执行命令的容量限制
+ * <p>
+ * 命令入队前占用一个位置, 被线程取走时释放。位置用尽时按 {@link OverflowPolicy} 处理, 并分别计数。
+ * @author liuyang
+ */
+class CommandCapacity {
+    /**
+     * 占用位置的结果
+     */
+    enum Outcome {
+        /**
+         * 已占用位置, 命令可以入队
+         */
+        ACCEPT,
+        /**
+         * 未占用位置, 命令应由提交线程执行
+         */
+        CALLER_RUNS,
+        /**
+         * 未占用位置, 调用方应丢弃最早排队的命令并沿用其位置
+         */
+        DROP_OLDEST
+    }
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final long blockTimeoutNanos;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    /**
+     * 按 OverflowPolicy 序号记录的各处理结果次数
+     */
+    private final AtomicLongArray overflowCounts = new AtomicLongArray(OverflowPolicy.values().length);
+
+    /**
+     * @param capacity 容量
+     * @param policy 位置用尽时的处理策略
+     * @param blockTimeoutNanos BLOCK 策略的最长等待时间(纳秒), 不大于 0 时不限时
+     */
+    CommandCapacity(int capacity, OverflowPolicy policy, long blockTimeoutNanos) {
+        this.capacity = capacity > 0 ? capacity : 1;
+        this.policy = policy != null ? policy : OverflowPolicy.BLOCK;
+        this.blockTimeoutNanos = blockTimeoutNanos;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * 某种处理结果发生的次数。BLOCK 为提交线程被阻塞的次数, 等待超时或被中断计入 REJECT。
+     * @param outcome
+     * @return
+     */
+    long getOverflowCount(OverflowPolicy outcome) {
+        return overflowCounts.get(outcome.ordinal());
+    }
+
+    private boolean tryAcquire() {
+        int n = 0;
+        while ((n = pending.get()) < capacity) {
+            if (pending.compareAndSet(n, n + 1)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 占用一个位置, 位置用尽时按策略处理
+     * @param onFull 需要阻塞时, 阻塞前执行一次, 可以为 null
+     * @return
+     * @throws RejectedExecutionException 策略为 REJECT, 或阻塞超时、被中断
+     */
+    Outcome acquire(Runnable onFull) {
+        if (tryAcquire()) return Outcome.ACCEPT;
+        switch (policy) {
+        case CALLER_RUNS:
+            overflowCounts.incrementAndGet(OverflowPolicy.CALLER_RUNS.ordinal());
+            return Outcome.CALLER_RUNS;
+        case DROP_OLDEST:
+            overflowCounts.incrementAndGet(OverflowPolicy.DROP_OLDEST.ordinal());
+            return Outcome.DROP_OLDEST;
+        case REJECT:
+            overflowCounts.incrementAndGet(OverflowPolicy.REJECT.ordinal());
+            throw new RejectedExecutionException("command queue is full, capacity " + capacity);
+        default:
+            break;
+        }
+        overflowCounts.incrementAndGet(OverflowPolicy.BLOCK.ordinal());
+        if (onFull != null) onFull.run();
+        lock.lock();
+        // 先登记等待再复查, 保证与 release() 之间不会丢失唤醒
+        waiters.incrementAndGet();
+        try {
+            long nanos = blockTimeoutNanos;
+            while (tryAcquire() == false) {
+                if (blockTimeoutNanos <= 0) {
+                    notFull.await();
+                } else if (nanos > 0) {
+                    nanos = notFull.awaitNanos(nanos);
+                } else {
+                    overflowCounts.incrementAndGet(OverflowPolicy.REJECT.ordinal());
+                    throw new RejectedExecutionException("command queue is still full after waiting, capacity " + capacity);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            overflowCounts.incrementAndGet(OverflowPolicy.REJECT.ordinal());
+            throw new RejectedExecutionException("interrupted while waiting for queue space", e);
+        } finally {
+            waiters.decrementAndGet();
+            lock.unlock();
+        }
+        return Outcome.ACCEPT;
+    }
+
+    /**
+     * 不受容量限制地占用一个位置
+     */
+    void forceAcquire() {
+        pending.incrementAndGet();
+    }
+
+    /**
+     * 释放一个位置, 并唤醒一个被阻塞的提交线程
+     */
+    void release() {
+        pending.decrementAndGet();
+        if (waiters.get() > 0) {
+            lock.lock();
+            try {
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 释放全部位置, 用于清空命令队列之后
+     */
+    void clear() {
+        pending.set(0);
+        lock.lock();
+        try {
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
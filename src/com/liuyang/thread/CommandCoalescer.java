@@ -0,0 +1,67 @@
+package com.liuyang.thread;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 合并同一线程标识的命令
+ * <p>
+ * 以同一标识提交的命令在排队或执行期间只执行一次, 其后的提交共享第一个命令的 future。
+ * 启用结果缓存时, 成功完成的结果在存活时间内直接返回, 不再执行; 异常或被取消的结果不缓存。
+ * @author liuyang
+ * @param <T>
+ */
+class CommandCoalescer<T> {
+    /**
+     * 排队或执行中的命令的 future
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<T>> inflight = new ConcurrentHashMap<String, CompletableFuture<T>>();
+    /**
+     * 结果缓存, 不缓存时为 null
+     */
+    private final ResultCache<T> cache;
+
+    CommandCoalescer(ResultCache<T> cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * 登记即将入队的命令
+     * @param id 线程标识
+     * @param future 新命令的 future
+     * @return 同一标识的命令正在排队、执行或已缓存结果时返回其 future, 新命令不应入队; 否则返回 null
+     */
+    CompletableFuture<T> join(String id, CompletableFuture<T> future) {
+        CompletableFuture<T> cached = cache != null ? cache.get(id) : null;
+        if (cached != null) return cached;
+        CompletableFuture<T> exists = inflight.putIfAbsent(id, future);
+        if (exists != null) return exists;
+        cached = cache != null ? cache.get(id) : null;
+        if (cached != null) {
+            // 登记之前同一标识的命令刚好执行完毕
+            inflight.remove(id, future);
+            cached.whenComplete((result, e) -> future.complete(result));
+            return cached;
+        }
+        // 先缓存结果再撤销登记, 其间的提交总能取得其中之一
+        future.whenComplete((result, e) -> {
+            if (e == null && cache != null) cache.put(id, future);
+            inflight.remove(id, future);
+        });
+        return null;
+    }
+
+    /**
+     * 同一标识的命令是否正在排队或执行
+     * @param id
+     * @return
+     */
+    boolean isInflight(String id) {
+        return inflight.containsKey(id);
+    }
+
+    void clear() {
+        inflight.clear();
+        if (cache != null) cache.clear();
+    }
+}
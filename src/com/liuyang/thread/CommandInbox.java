@@ -0,0 +1,76 @@
+package com.liuyang.thread;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 等待 commit() 的命令队列
+ * <p>
+ * 以命令自身的 {@link ThreadTask#next} 串接, 入队不分配节点: 提交线程以 CAS 压入栈顶, 取出时一次摘下整个栈并反转为
+ * 提交顺序, 此后逐个取出, 取空后再摘下一次。入队无锁, 取出需互斥, 取出一方通常只有持有线程池锁的 commit()。
+ * @author liuyang
+ * @param <T>
+ */
+class CommandInbox<T> {
+    /**
+     * 新提交的命令, 栈顶为最后提交的命令
+     */
+    private final AtomicReference<ThreadTask<T>> pushed = new AtomicReference<ThreadTask<T>>();
+    /**
+     * 已摘下并按提交顺序排列的命令, 只在取出时访问
+     */
+    private volatile ThreadTask<T> drained = null;
+
+    void offer(ThreadTask<T> task) {
+        ThreadTask<T> top = null;
+        do {
+            top = pushed.get();
+            task.next = top;
+        } while (pushed.compareAndSet(top, task) == false);
+    }
+
+    /**
+     * 整批命令只需一次 CAS
+     * @param tasks
+     */
+    void offerAll(List<ThreadTask<T>> tasks) {
+        int n = tasks.size();
+        if (n == 0) return;
+        ThreadTask<T> first = tasks.get(0);
+        for (int i = 1; i < n; i++) {
+            tasks.get(i).next = tasks.get(i - 1);
+        }
+        ThreadTask<T> last = tasks.get(n - 1);
+        ThreadTask<T> top = null;
+        do {
+            top = pushed.get();
+            first.next = top;
+        } while (pushed.compareAndSet(top, last) == false);
+    }
+
+    /**
+     * 取出最早提交的命令
+     * @return 队列为空时返回 null
+     */
+    synchronized ThreadTask<T> poll() {
+        ThreadTask<T> task = drained;
+        if (task == null) {
+            // 摘下整个栈并反转
+            ThreadTask<T> top = pushed.getAndSet(null);
+            while (top != null) {
+                ThreadTask<T> below = top.next;
+                top.next = task;
+                task = top;
+                top = below;
+            }
+            if (task == null) return null;
+        }
+        drained = task.next;
+        task.next = null;
+        return task;
+    }
+
+    boolean isEmpty() {
+        return drained == null && pushed.get() == null;
+    }
+}
@@ -0,0 +1,410 @@
+package com.liuyang.thread;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * 命令的预写日志
+ * <p>
+ * 日志由若干固定大小的段文件组成, 以内存映射的方式顺序追加记录: 命令提交时追加 SUBMIT 记录(序号、线程标识、分组与序列化的命令),
+ * 执行完毕、被丢弃或被替换时追加 COMPLETE 记录(序号)。序列化与校验和在锁外完成, 锁内只复制字节, 提交的代价接近内存队列。
+ * 写入映射内存即不怕 JVM 崩溃; 同步线程每个同步周期将有新写入的段刷入磁盘(组提交), 操作系统崩溃时至多丢失最近一个周期的记录。
+ * <p>
+ * 每段记录其中尚未完成的 SUBMIT 数量。最早的段不再写入且全部完成时即被删除; COMPLETE 记录总在其 SUBMIT 之后,
+ * 只按从旧到新的顺序删除段, 因此不会留下失去 COMPLETE 的 SUBMIT。
+ * 打开日志时按顺序读取所有段, 校验和不符处视为该段的结尾(写入中途崩溃), 得到尚未完成的命令, 随后在新的段中继续追加。
+ * @author liuyang
+ */
+class CommandJournal {
+    /**
+     * 默认的段大小
+     */
+    public final static int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    private final static int MAGIC = 0x4C594A31;
+    private final static byte SUBMIT = 1;
+    private final static byte COMPLETE = 2;
+    /**
+     * 记录头: 长度与校验和
+     */
+    private final static int RECORD_HEADER = 8;
+    private final static String SEGMENT_PREFIX = "journal-";
+    private final static String SEGMENT_SUFFIX = ".log";
+
+    private final File directory;
+    private final int segmentSize;
+    private final long syncNanos;
+    private final AtomicLong sequence = new AtomicLong();
+    /**
+     * 尚未删除的段, 从旧到新, 最后一段为正在写入的段。以本对象加锁访问。
+     */
+    private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+    private final List<Recovered> recovered = new ArrayList<Recovered>();
+    private final Thread syncer;
+    private Segment active = null;
+    private volatile boolean closed = false;
+
+    /**
+     * 打开日志目录, 读取其中尚未完成的命令
+     * @param directory
+     * @param segmentSize 段大小
+     * @param syncNanos 同步周期
+     * @throws IOException
+     */
+    CommandJournal(File directory, int segmentSize, long syncNanos) throws IOException {
+        if (segmentSize < 4096) throw new IllegalArgumentException("segmentSize too small");
+        if (directory.isDirectory() == false && directory.mkdirs() == false) throw new IOException("cannot create " + directory);
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncNanos = Math.max(1, syncNanos);
+        recover();
+        roll();
+        this.syncer = new Thread(this::sync, "FixedThreadPool-journal");
+        this.syncer.setDaemon(true);
+        this.syncer.start();
+    }
+
+    /**
+     * 取出打开日志时尚未完成的命令, 按提交顺序排列, 只能取一次
+     * @return
+     */
+    synchronized List<Recovered> takeRecovered() {
+        List<Recovered> commands = new ArrayList<Recovered>(recovered);
+        recovered.clear();
+        return commands;
+    }
+
+    /**
+     * 追加 SUBMIT 记录
+     * @param threadId 匿名命令为 null
+     * @param group 不分组时为 null
+     * @param command 可序列化的命令
+     * @return 日志中的登记, 命令完成时交给 {@link #complete(Entry)}
+     * @throws RejectedExecutionException 命令无法序列化或日志无法写入
+     */
+    Entry submit(String threadId, String group, Callable<?> command) {
+        long seq = sequence.incrementAndGet();
+        byte[] record = null;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(SUBMIT);
+            out.writeLong(seq);
+            writeString(out, threadId);
+            writeString(out, group);
+            ObjectOutputStream object = new ObjectOutputStream(out);
+            object.writeObject(command);
+            object.flush();
+            record = bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RejectedExecutionException("cannot serialize command", e);
+        }
+        return new Entry(seq, append(record, true));
+    }
+
+    /**
+     * 追加 COMPLETE 记录。日志已关闭时忽略, 命令将在下次打开时重新执行。
+     * @param entry
+     */
+    void complete(Entry entry) {
+        byte[] record = new byte[9];
+        record[0] = COMPLETE;
+        long seq = entry.seq;
+        for (int i = 8; i > 0; i--) {
+            record[i] = (byte) seq;
+            seq >>>= 8;
+        }
+        try {
+            append(record, false);
+        } catch (RejectedExecutionException e) {
+            if (closed == false) throw e;
+            return;
+        }
+        if (entry.segment.pending.decrementAndGet() == 0) compact();
+    }
+
+    /**
+     * 刷入磁盘并停止同步线程, 此后不再追加记录
+     */
+    synchronized void close() {
+        if (closed) return;
+        closed = true;
+        syncer.interrupt();
+        active.force();
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+
+    /**
+     * 追加一条记录: 校验和在锁外计算, 锁内只复制字节, 当前段放不下时换新段
+     * @param record
+     * @param submit 是否为 SUBMIT 记录, 是则在锁内计入所在段, 以免该段在计入之前被删除
+     * @return 记录所在的段
+     */
+    private Segment append(byte[] record, boolean submit) {
+        int length = RECORD_HEADER + record.length;
+        if (length > segmentSize - Segment.HEADER) throw new RejectedExecutionException("command too large for journal segment");
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        int checksum = (int) crc.getValue();
+        synchronized (this) {
+            if (closed) throw new RejectedExecutionException("journal has been closed");
+            try {
+                if (active.buffer.remaining() < length) roll();
+            } catch (IOException e) {
+                throw new RejectedExecutionException("cannot roll journal segment", e);
+            }
+            MappedByteBuffer buffer = active.buffer;
+            buffer.putInt(record.length);
+            buffer.putInt(checksum);
+            buffer.put(record);
+            active.dirty = true;
+            if (submit) active.pending.incrementAndGet();
+            return active;
+        }
+    }
+
+    // 开始写入新的段, 原有的段刷入磁盘后不再写入
+    private synchronized void roll() throws IOException {
+        if (active != null) {
+            active.force();
+            active.sealed = true;
+        }
+        long index = active != null ? active.index + 1 : (segments.isEmpty() ? 0 : segments.peekLast().index + 1);
+        Segment segment = new Segment(index, new File(directory, String.format("%s%016d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX)), segmentSize);
+        segments.offerLast(segment);
+        active = segment;
+        compact();
+    }
+
+    // 删除最早的已全部完成的段
+    private synchronized void compact() {
+        while (segments.isEmpty() == false) {
+            Segment oldest = segments.peekFirst();
+            if (oldest.sealed == false || oldest.pending.get() > 0) break;
+            segments.pollFirst();
+            oldest.close();
+            if (oldest.file.delete() == false) oldest.file.deleteOnExit();
+        }
+    }
+
+    // 按顺序读取所有段, 得到尚未完成的命令
+    private void recover() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) return;
+        Arrays.sort(files);
+        Map<Long, Recovered> unfinished = new LinkedHashMap<Long, Recovered>();
+        long maxSeq = 0;
+        for (File file : files) {
+            long index = Long.parseLong(file.getName().substring(SEGMENT_PREFIX.length(), file.getName().length() - SEGMENT_SUFFIX.length()));
+            Segment segment = new Segment(index, file);
+            segment.sealed = true;
+            segments.offerLast(segment);
+            MappedByteBuffer buffer = segment.buffer;
+            while (buffer.remaining() >= RECORD_HEADER) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) break;
+                byte[] record = new byte[length];
+                buffer.get(record);
+                CRC32 crc = new CRC32();
+                crc.update(record, 0, length);
+                // 写入中途崩溃留下的残缺记录
+                if ((int) crc.getValue() != checksum) break;
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+                byte type = in.readByte();
+                long seq = in.readLong();
+                maxSeq = Math.max(maxSeq, seq);
+                if (type == SUBMIT) {
+                    unfinished.put(seq, new Recovered(new Entry(seq, segment), in));
+                    segment.pending.incrementAndGet();
+                } else if (type == COMPLETE) {
+                    Recovered done = unfinished.remove(seq);
+                    if (done != null) done.entry.segment.pending.decrementAndGet();
+                }
+            }
+        }
+        sequence.set(maxSeq);
+        recovered.addAll(unfinished.values());
+    }
+
+    // 同步线程: 每个同步周期将有新写入的段刷入磁盘
+    private void sync() {
+        while (closed == false) {
+            LockSupport.parkNanos(this, syncNanos);
+            List<Segment> dirty = new ArrayList<Segment>();
+            synchronized (this) {
+                if (closed) break;
+                for (Segment segment : segments) {
+                    if (segment.dirty) {
+                        segment.dirty = false;
+                        dirty.add(segment);
+                    }
+                }
+            }
+            // force() 不持有锁, 以免阻塞提交
+            for (Segment segment : dirty) {
+                try {
+                    segment.force();
+                } catch (RuntimeException e) {
+                    // 段已被删除或关闭
+                }
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * 命令在日志中的登记
+     */
+    final static class Entry {
+        private final long seq;
+        private final Segment segment;
+
+        private Entry(long seq, Segment segment) {
+            this.seq = seq;
+            this.segment = segment;
+        }
+    }
+
+    /**
+     * 打开日志时尚未完成的命令
+     */
+    final static class Recovered {
+        final Entry entry;
+        final String threadId;
+        final String group;
+        private final byte[] command;
+
+        private Recovered(Entry entry, DataInputStream in) throws IOException {
+            this.entry = entry;
+            this.threadId = readString(in);
+            this.group = readString(in);
+            ByteArrayOutputStream rest = new ByteArrayOutputStream();
+            byte[] chunk = new byte[1024];
+            int n = 0;
+            while ((n = in.read(chunk)) > 0) rest.write(chunk, 0, n);
+            this.command = rest.toByteArray();
+        }
+
+        /**
+         * 反序列化命令
+         * @return
+         * @throws IOException 命令的类已不存在或已不兼容
+         */
+        Callable<?> getCommand() throws IOException {
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(command))) {
+                return (Callable<?>) in.readObject();
+            } catch (ClassNotFoundException | ClassCastException e) {
+                throw new IOException("cannot restore command " + entry.seq, e);
+            }
+        }
+    }
+
+    /**
+     * 一个段文件, 以文件头(标记与保留字)开始, 其后为连续的记录, 未写入的部分为 0
+     */
+    private final static class Segment {
+        private final static int HEADER = 8;
+
+        private final long index;
+        private final File file;
+        private final RandomAccessFile access;
+        private final MappedByteBuffer buffer;
+        /**
+         * 尚未完成的 SUBMIT 数量
+         */
+        private final AtomicInteger pending = new AtomicInteger();
+        /**
+         * 不再写入; 以外层对象加锁访问
+         */
+        private boolean sealed = false;
+        /**
+         * 上次同步后是否有新写入; 以外层对象加锁访问
+         */
+        private boolean dirty = false;
+
+        /**
+         * 新建段文件并写入文件头
+         * @param index
+         * @param file
+         * @param size
+         * @throws IOException
+         */
+        Segment(long index, File file, int size) throws IOException {
+            this.index = index;
+            this.file = file;
+            this.access = new RandomAccessFile(file, "rw");
+            access.setLength(size);
+            this.buffer = access.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC);
+            buffer.putInt(0);
+        }
+
+        /**
+         * 打开已有的段文件, 定位到第一条记录。文件头为 0 的段(新建后未及写入文件头)视为空段。
+         * @param index
+         * @param file
+         * @throws IOException 不是日志的段文件
+         */
+        Segment(long index, File file) throws IOException {
+            this.index = index;
+            this.file = file;
+            this.access = new RandomAccessFile(file, "r");
+            long size = Math.min(access.length(), Integer.MAX_VALUE);
+            this.buffer = access.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int magic = size >= HEADER ? buffer.getInt() : 0;
+            if (magic != MAGIC && magic != 0) {
+                access.close();
+                throw new IOException("not a journal segment: " + file);
+            }
+            if (magic == 0) {
+                buffer.position(buffer.limit());
+            } else {
+                buffer.position(HEADER);
+            }
+        }
+
+        void force() {
+            buffer.force();
+        }
+
+        void close() {
+            try {
+                access.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.liuyang.thread;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * 可执行命令队列
+ * <p>
+ * 命令存放在无锁的 {@link MpmcRingQueue} 中, 环形队列已满时暂存于溢出队列, 不会丢失命令。
+ * 线程在无命令可取时阻塞于 Condition 上, 仅当存在空闲线程时入队方才加锁唤醒。
+ * 优先级调度模式下命令改存于按紧急程度排序的堆中, 入队与出队均为 O(log n)。
+ * @author liuyang
+ * @param <T>
+ */
+class CommandQueue<T> {
+    /**
+     * 环形队列默认容量
+     */
+    public final static int DEFAULT_CAPACITY = 1 << 12;
+
+    private final MpmcRingQueue<ThreadTask<T>> ring;
+    private final ConcurrentLinkedQueue<ThreadTask<T>> overflow = new ConcurrentLinkedQueue<ThreadTask<T>>();
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicInteger idleWorkers = new AtomicInteger();
+    private final ReentrantLock takeLock = new ReentrantLock();
+    private final Condition notEmpty = takeLock.newCondition();
+    private final Supplier<ThreadTask<T>> poller = this::poll;
+    /**
+     * 优先级调度模式下的命令堆, 非优先级调度模式时为 null
+     */
+    private volatile PriorityBlockingQueue<ThreadTask<T>> heap = null;
+
+    CommandQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    CommandQueue(int capacity) {
+        ring = new MpmcRingQueue<ThreadTask<T>>(capacity);
+    }
+
+    /**
+     * 命令入队, 并唤醒一个等待中的线程
+     * @param task
+     */
+    void offer(ThreadTask<T> task) {
+        count.incrementAndGet();
+        PriorityBlockingQueue<ThreadTask<T>> heap = this.heap;
+        if (heap != null) {
+            heap.offer(task);
+        } else if (overflow.isEmpty() == false || ring.offer(task) == false) {
+            // 溢出队列中尚有命令时继续追加到溢出队列, 尽量保持先进先出
+            overflow.offer(task);
+        }
+        signal();
+    }
+
+    /**
+     * 批量入队: 计数只更新一次, 环形队列以一次 CAS 接收整段命令, 随后唤醒所有等待中的线程
+     * @param tasks
+     */
+    void offerAll(List<ThreadTask<T>> tasks) {
+        int size = tasks.size();
+        if (size == 0) return;
+        count.addAndGet(size);
+        int offered = 0;
+        PriorityBlockingQueue<ThreadTask<T>> heap = this.heap;
+        if (heap != null) {
+            heap.addAll(tasks);
+            offered = size;
+        } else if (overflow.isEmpty()) {
+            int n = 0;
+            while (offered < size && (n = ring.offerAll(tasks, offered, size - offered)) > 0) {
+                offered += n;
+            }
+        }
+        if (offered < size) overflow.addAll(tasks.subList(offered, size));
+        if (idleWorkers.get() > 0) {
+            if (size == 1) {
+                signal();
+            } else {
+                wakeup();
+            }
+        }
+    }
+
+    /**
+     * 切换为优先级调度模式: 命令按 {@link ThreadTask#urgency} 出队。已在队列中的命令一并转入。
+     * 应在线程开始取命令之前调用。
+     */
+    synchronized void prioritize() {
+        if (heap != null) return;
+        PriorityBlockingQueue<ThreadTask<T>> created = new PriorityBlockingQueue<ThreadTask<T>>(64, ThreadTask.URGENCY_ORDER);
+        ThreadTask<T> task = null;
+        while ((task = ring.poll()) != null) created.offer(task);
+        while ((task = overflow.poll()) != null) created.offer(task);
+        heap = created;
+    }
+
+    /**
+     * 存在空闲线程时唤醒其中一个。命令放入本队列之外的地方(例如线程的本地队列)后也应调用。
+     */
+    void signal() {
+        if (idleWorkers.get() > 0) {
+            takeLock.lock();
+            try {
+                notEmpty.signal();
+            } finally {
+                takeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 取出命令, 无命令时立即返回 null
+     * @return
+     */
+    ThreadTask<T> poll() {
+        PriorityBlockingQueue<ThreadTask<T>> heap = this.heap;
+        ThreadTask<T> task = heap != null ? heap.poll() : ring.poll();
+        if (task == null) task = overflow.poll();
+        if (task != null) count.decrementAndGet();
+        return task;
+    }
+
+    /**
+     * 取出容量已满时应丢弃的命令: 先进先出时为最早入队的命令, 优先级调度模式下为最不紧急的命令。
+     * 堆中的最不紧急的命令需要遍历查找, 为 O(n), 只在丢弃命令时使用。
+     * @return 无命令时返回 null
+     */
+    ThreadTask<T> evict() {
+        PriorityBlockingQueue<ThreadTask<T>> heap = this.heap;
+        if (heap == null) return poll();
+        for (;;) {
+            ThreadTask<T> last = null;
+            for (ThreadTask<T> task : heap) {
+                if (last == null || ThreadTask.URGENCY_ORDER.compare(task, last) > 0) last = task;
+            }
+            if (last == null) return poll();
+            // 查找期间可能已被线程取走, 此时重新查找
+            if (heap.remove(last)) {
+                count.decrementAndGet();
+                return last;
+            }
+        }
+    }
+
+    /**
+     * 批量取出命令, 不阻塞
+     * @param sink 接收命令的集合
+     * @param max 最多取出的数量
+     * @return 实际取出的数量
+     */
+    int drainTo(Collection<? super ThreadTask<T>> sink, int max) {
+        PriorityBlockingQueue<ThreadTask<T>> heap = this.heap;
+        int n = heap != null ? heap.drainTo(sink, max) : ring.drainTo(sink, max);
+        ThreadTask<T> task = null;
+        while (n < max && (task = overflow.poll()) != null) {
+            sink.add(task);
+            n++;
+        }
+        if (n > 0) count.addAndGet(-n);
+        return n;
+    }
+
+    /**
+     * 取出命令。无命令且 waiting 为真时阻塞, 直至有命令入队或被 {@link #wakeup()} 唤醒后 waiting 为假。
+     * @param waiting 是否继续等待
+     * @return 不再等待且无命令时返回 null
+     */
+    ThreadTask<T> take(BooleanSupplier waiting) {
+        return take(waiting, poller);
+    }
+
+    /**
+     * 以指定的方式取出命令, 阻塞与唤醒的规则同 {@link #take(BooleanSupplier)}。
+     * 命令来源不止本队列时, poller 应依次检查所有来源, 且其他来源入队后须调用 {@link #signal()}。
+     * @param waiting 是否继续等待
+     * @param poller 取命令的方式
+     * @return
+     */
+    ThreadTask<T> take(BooleanSupplier waiting, Supplier<ThreadTask<T>> poller) {
+        return take(waiting, poller, 0);
+    }
+
+    /**
+     * 限时取出命令, 规则同 {@link #take(BooleanSupplier, Supplier)}, 等待超时也返回 null
+     * @param waiting 是否继续等待
+     * @param poller 取命令的方式
+     * @param timeoutNanos 最长等待时间(纳秒), 不大于 0 时不限时
+     * @return
+     */
+    ThreadTask<T> take(BooleanSupplier waiting, Supplier<ThreadTask<T>> poller, long timeoutNanos) {
+        ThreadTask<T> task = poller.get();
+        if (task != null || waiting.getAsBoolean() == false) return task;
+        takeLock.lock();
+        // 先登记为空闲再复查队列, 保证与入队线程之间不会丢失唤醒
+        idleWorkers.incrementAndGet();
+        try {
+            long nanos = timeoutNanos;
+            while ((task = poller.get()) == null && waiting.getAsBoolean()) {
+                if (timeoutNanos <= 0) {
+                    notEmpty.await();
+                } else if (nanos > 0) {
+                    nanos = notEmpty.awaitNanos(nanos);
+                } else {
+                    break; // 超时
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            idleWorkers.decrementAndGet();
+            takeLock.unlock();
+        }
+        return task;
+    }
+
+    /**
+     * 唤醒所有等待中的线程
+     */
+    void wakeup() {
+        takeLock.lock();
+        try {
+            notEmpty.signalAll();
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    /**
+     * 正在等待命令的线程数量
+     * @return
+     */
+    int getIdleWorkers() {
+        return idleWorkers.get();
+    }
+
+    int size() {
+        return count.get();
+    }
+
+    boolean isEmpty() {
+        return count.get() == 0;
+    }
+
+    /**
+     * 清空队列, 并取消被丢弃命令的 future
+     */
+    void clear() {
+        ThreadTask<T> task = null;
+        while ((task = poll()) != null) task.cancel();
+    }
+}
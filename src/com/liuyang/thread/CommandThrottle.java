@@ -0,0 +1,345 @@
+package com.liuyang.thread;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 按线程标识前缀的限流
+ * <p>
+ * 每条规则以令牌桶限制每秒开始执行的命令数量, 并限制同时执行的命令数量。线程取出命令时检查其规则, 不能执行的命令移入规则的等待队列,
+ * 线程接着取下一个命令, 因此下游受限的命令不会占用线程, 线程池继续执行其他命令。
+ * 同一规则的命令按取出的顺序执行: 等待队列不为空时后来的命令同样排队。有命令执行完毕或令牌恢复时,
+ * 等待队列队首的命令预先取得许可, 移入就绪队列并唤醒空闲线程; 令牌不足时以线程池的时间轮在下一个令牌恢复时再检查。
+ * 没有规则或命令匿名时只读取一次规则数组。
+ * @author liuyang
+ * @param <T>
+ */
+class CommandThrottle<T> {
+    /**
+     * 按前缀长度降序排列, 取最长匹配
+     */
+    private volatile Rule[] rules = newRules(0);
+    /**
+     * 已取得许可、等待线程执行的命令
+     */
+    private final ConcurrentLinkedQueue<ThreadTask<T>> ready = new ConcurrentLinkedQueue<ThreadTask<T>>();
+    private final AtomicInteger readyCount = new AtomicInteger();
+    /**
+     * 各规则等待队列中的命令总数
+     */
+    private final AtomicInteger deferredCount = new AtomicInteger();
+    /**
+     * 有命令就绪时唤醒空闲线程
+     */
+    private final Runnable signal;
+    /**
+     * 登记令牌恢复检查的时间轮, 属于线程池
+     */
+    private final Supplier<TimerWheel> timer;
+    private volatile boolean stopped = false;
+
+    /**
+     * @param signal 有命令就绪时唤醒空闲线程的方式
+     * @param timer 取得时间轮的方式, 时间轮停止时未到期的检查({@link Rule})应由其所有者执行
+     */
+    CommandThrottle(Runnable signal, Supplier<TimerWheel> timer) {
+        this.signal = signal;
+        this.timer = timer;
+    }
+
+    /**
+     * 内部类的泛型数组只能以原始类型创建
+     * @param length
+     * @return
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static <T> CommandThrottle<T>.Rule[] newRules(int length) {
+        return (CommandThrottle<T>.Rule[]) new CommandThrottle.Rule[length];
+    }
+
+    /**
+     * 设置规则, 已有同一前缀的规则时只更新其限制
+     * @param prefix 线程标识的前缀
+     * @param permitsPerSecond 每秒开始执行的命令数量, 不大于 0 时不限制
+     * @param burst 令牌桶的容量, 即空闲之后可以连续开始执行的命令数量, 至少为 1
+     * @param maxInFlight 同时执行的命令数量上限, 不大于 0 时不限制
+     */
+    synchronized void configure(String prefix, double permitsPerSecond, int burst, int maxInFlight) {
+        if (prefix == null) throw new NullPointerException("prefix");
+        for (Rule rule : rules) {
+            if (rule.prefix.equals(prefix)) {
+                synchronized (rule) {
+                    rule.configure(permitsPerSecond, burst, maxInFlight);
+                }
+                // 放宽限制后等待的命令可能已可以执行
+                release(rule, false);
+                return;
+            }
+        }
+        Rule rule = new Rule(prefix);
+        rule.configure(permitsPerSecond, burst, maxInFlight);
+        // 新规则以满桶开始
+        rule.tokens = rule.burst;
+        Rule[] next = Arrays.copyOf(rules, rules.length + 1);
+        next[rules.length] = rule;
+        Arrays.sort(next, (a, b) -> b.prefix.length() - a.prefix.length());
+        rules = next;
+    }
+
+    /**
+     * 从 poller 取命令, 跳过受限的命令
+     * @param poller
+     * @return 没有可执行的命令时返回 null
+     */
+    ThreadTask<T> poll(Supplier<ThreadTask<T>> poller) {
+        if (readyCount.get() > 0) {
+            ThreadTask<T> task = ready.poll();
+            if (task != null) {
+                readyCount.decrementAndGet();
+                return task;
+            }
+        }
+        ThreadTask<T> task = null;
+        while ((task = poller.get()) != null) {
+            if (acquire(task)) return task;
+        }
+        return null;
+    }
+
+    /**
+     * 为命令取得许可, 不能执行时移入其规则的等待队列
+     * @param task
+     * @return 可以执行时返回 true
+     */
+    private boolean acquire(ThreadTask<T> task) {
+        Rule[] rules = this.rules;
+        // 排队时已被取消的命令不取许可, 由调用者丢弃
+        if (rules.length == 0 || task.isAnonymous() || task.isCancelled()) return true;
+        Rule rule = match(rules, task.getId());
+        if (rule == null) return true;
+        synchronized (rule) {
+            if (rule.waiting.isEmpty() && rule.tryAcquire(System.nanoTime())) {
+                task.throttle = rule;
+                return true;
+            }
+            rule.waiting.offer(task);
+            deferredCount.incrementAndGet();
+        }
+        release(rule, false);
+        return false;
+    }
+
+    private Rule match(Rule[] rules, String id) {
+        for (Rule rule : rules) {
+            if (id.startsWith(rule.prefix)) return rule;
+        }
+        return null;
+    }
+
+    /**
+     * 已取得许可而未能执行的命令放回就绪队列, 保留其许可
+     * @param task
+     */
+    void requeue(ThreadTask<T> task) {
+        ready.offer(task);
+        readyCount.incrementAndGet();
+        signal.run();
+    }
+
+    /**
+     * 命令执行完毕, 交还许可
+     * @param task
+     */
+    void complete(ThreadTask<T> task) {
+        Rule rule = task.throttle;
+        if (rule == null) return;
+        task.throttle = null;
+        synchronized (rule) {
+            rule.inFlight--;
+        }
+        release(rule, false);
+    }
+
+    /**
+     * 等待队列队首可以执行的命令移入就绪队列, 仍有命令因令牌不足而等待时登记定时检查
+     * @param rule
+     * @param timed 由定时任务调用
+     */
+    private void release(Rule rule, boolean timed) {
+        int released = 0;
+        long delay = 0;
+        synchronized (rule) {
+            if (timed) rule.wakeupScheduled = false;
+            if (rule.waiting.isEmpty()) return;
+            long now = System.nanoTime();
+            ThreadTask<T> task = null;
+            while ((task = rule.waiting.peek()) != null) {
+                // 已被取消的命令不取许可, 移入就绪队列后由调用者丢弃
+                if (task.isCancelled() == false) {
+                    if (rule.tryAcquire(now) == false) break;
+                    task.throttle = rule;
+                }
+                rule.waiting.poll();
+                ready.offer(task);
+                released++;
+            }
+            deferredCount.addAndGet(-released);
+            readyCount.addAndGet(released);
+            if (rule.waiting.isEmpty() == false) delay = rule.scheduleWakeup();
+        }
+        if (delay > 0) schedule(rule, delay);
+        for (int i = 0; i < released; i++) signal.run();
+    }
+
+    private void schedule(Rule rule, long delayNanos) {
+        // 时间轮可能刚被线程池取下并停止, 此时再取一次
+        for (int attempt = 0; attempt < 2 && stopped == false; attempt++) {
+            TimerWheel timer = this.timer.get();
+            if (timer == null) break;
+            try {
+                timer.newTimeout(rule, delayNanos);
+                return;
+            } catch (RejectedExecutionException e) {
+                // 已停止
+            }
+        }
+        synchronized (rule) {
+            rule.wakeupScheduled = false;
+        }
+    }
+
+    /**
+     * 不再登记令牌恢复的定时检查, 之后令牌不足而等待的命令不再自动就绪。时间轮属于线程池, 不在此停止。
+     */
+    void stop() {
+        stopped = true;
+    }
+
+    /**
+     * 已取得许可、等待线程执行的命令数量
+     * @return
+     */
+    int readySize() {
+        return readyCount.get();
+    }
+
+    /**
+     * 受限而等待的命令数量
+     * @return
+     */
+    int deferredSize() {
+        return deferredCount.get();
+    }
+
+    /**
+     * 受限而等待的以及已就绪的命令数量
+     * @return
+     */
+    int size() {
+        return deferredCount.get() + readyCount.get();
+    }
+
+    /**
+     * 取出所有受限的与已就绪的命令而不取消, 其许可不再交还
+     * @param sink
+     * @return 取出的命令数量
+     */
+    int drainTo(Collection<? super ThreadTask<T>> sink) {
+        int n = 0;
+        ThreadTask<T> task = null;
+        while ((task = ready.poll()) != null) {
+            readyCount.decrementAndGet();
+            task.throttle = null;
+            sink.add(task);
+            n++;
+        }
+        for (Rule rule : rules) {
+            synchronized (rule) {
+                while ((task = rule.waiting.poll()) != null) {
+                    deferredCount.decrementAndGet();
+                    sink.add(task);
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * 取出所有受限的与已就绪的命令并取消
+     */
+    void clear() {
+        ArrayDeque<ThreadTask<T>> drained = new ArrayDeque<ThreadTask<T>>();
+        drainTo(drained);
+        for (ThreadTask<T> task : drained) task.cancel();
+    }
+
+    /**
+     * 一条规则, 以自身加锁。作为登记在时间轮上的令牌恢复检查执行
+     */
+    final class Rule implements Runnable {
+        private final String prefix;
+        private final ArrayDeque<ThreadTask<T>> waiting = new ArrayDeque<ThreadTask<T>>();
+        /**
+         * 每纳秒恢复的令牌数量, 0 表示不限速
+         */
+        private double permitsPerNano = 0;
+        private double burst = 1;
+        private int maxInFlight = Integer.MAX_VALUE;
+        private double tokens = 0;
+        private long refillTime = System.nanoTime();
+        private int inFlight = 0;
+        private boolean wakeupScheduled = false;
+
+        private Rule(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public void run() {
+            release(this, true);
+        }
+
+        private void configure(double permitsPerSecond, int burst, int maxInFlight) {
+            refill(System.nanoTime());
+            this.permitsPerNano = permitsPerSecond > 0 ? permitsPerSecond / 1e9 : 0;
+            this.burst = Math.max(1, burst);
+            this.maxInFlight = maxInFlight > 0 ? maxInFlight : Integer.MAX_VALUE;
+            // 更新限制时保留已有的令牌, 桶变小时截去多余的令牌
+            this.tokens = Math.min(this.tokens, this.burst);
+        }
+
+        private void refill(long now) {
+            if (permitsPerNano > 0) tokens = Math.min(burst, tokens + (now - refillTime) * permitsPerNano);
+            refillTime = now;
+        }
+
+        private boolean tryAcquire(long now) {
+            if (inFlight >= maxInFlight) return false;
+            if (permitsPerNano > 0) {
+                refill(now);
+                if (tokens < 1) return false;
+                tokens -= 1;
+            }
+            inFlight++;
+            return true;
+        }
+
+        /**
+         * 因令牌不足而等待时, 计算下一个令牌恢复的时间。因并发上限而等待的命令在有命令执行完毕时就绪, 无需定时。
+         * @return 需要登记定时任务时返回延迟的纳秒数, 否则返回 0
+         */
+        private long scheduleWakeup() {
+            if (wakeupScheduled || permitsPerNano == 0 || inFlight >= maxInFlight) return 0;
+            refill(System.nanoTime());
+            if (tokens >= 1) return 0;
+            wakeupScheduled = true;
+            return Math.max(1, (long) Math.ceil((1 - tokens) / permitsPerNano));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.liuyang.thread;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 未完成命令的计数
+ * <p>
+ * 命令进入线程池时计入, 执行完毕或被丢弃时扣除, 不论其处于等待队列、可执行队列、本地队列、串行队列还是正在执行。
+ * 计数归零时唤醒等待线程池静止的线程, 等待期间不占用 CPU; 只有归零的一方需要加锁。
+ * @author liuyang
+ */
+class CompletionTracker {
+    private final AtomicInteger unfinished = new AtomicInteger();
+
+    void begin() {
+        unfinished.incrementAndGet();
+    }
+
+    void begin(int n) {
+        if (n > 0) unfinished.addAndGet(n);
+    }
+
+    /**
+     * @return 计数归零时返回 true
+     */
+    boolean finish() {
+        return finish(1);
+    }
+
+    /**
+     * @param n
+     * @return 计数归零时返回 true
+     */
+    boolean finish(int n) {
+        if (n <= 0) return false;
+        if (unfinished.addAndGet(-n) != 0) return false;
+        synchronized (this) {
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * 丢弃所有命令后清零
+     */
+    void reset() {
+        unfinished.set(0);
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    int get() {
+        return unfinished.get();
+    }
+
+    /**
+     * 等待计数归零
+     * @param timeoutNanos
+     * @return 超时返回 false
+     * @throws InterruptedException
+     */
+    boolean await(long timeoutNanos) throws InterruptedException {
+        if (unfinished.get() == 0) return true;
+        long deadline = System.nanoTime() + timeoutNanos;
+        synchronized (this) {
+            while (unfinished.get() != 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return false;
+                // wait 的精度为毫秒, 不足一毫秒按一毫秒等待
+                wait(Math.max(1, remaining / 1000000));
+            }
+        }
+        return true;
+    }
+}
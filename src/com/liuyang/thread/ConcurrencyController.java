@@ -0,0 +1,155 @@
+package com.liuyang.thread;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+
+/**
+ * 自适应并发控制器
+ * <p>
+ * 以爬山法调整同时执行命令的线程数量: 每个采样周期计算吞吐量(完成的命令数量)与平均执行时间, 吞吐量上升则沿原方向继续调整,
+ * 下降则反向; 变化在噪声范围内时减少线程, 以更少的线程取得同样的吞吐量。平均执行时间超过历史最低值的 latencyTolerance 倍
+ * 而吞吐量并未上升时, 说明线程已在争用 CPU 或其他资源, 同样减少线程。
+ * CPU 密集的命令因此收敛于 CPU 数量附近, 阻塞型命令则增加线程直至吞吐量不再上升。
+ * 调整后的第一个周期用于线程的启动与退出, 不计; 没有命令排队时线程数量不是瓶颈, 不做调整。采样在时间轮的走时线程中进行, 只读取几个计数。
+ * @author liuyang
+ */
+class ConcurrencyController implements Runnable {
+    /**
+     * 吞吐量与执行时间的变化在该比例之内视为噪声
+     */
+    private final static double NOISE = 0.05;
+    /**
+     * 平均执行时间超过历史最低值的倍数时减少线程
+     */
+    private final static double LATENCY_TOLERANCE = 2.0;
+    /**
+     * 历史最低执行时间每个周期上浮的比例, 以便命令本身变慢后重新确定基准
+     */
+    private final static double BASELINE_DRIFT = 0.02;
+
+    private final PoolMetrics metrics;
+    private final IntSupplier backlog;
+    private final IntConsumer resize;
+    private final TimerWheel timer;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long intervalNanos;
+    private volatile boolean stopped = false;
+
+    // 以下只由走时线程访问
+    private int limit;
+    private int direction = 1;
+    private long lastTime;
+    private long lastCompleted;
+    private long lastExecutionNanos;
+    private double lastThroughput = -1;
+    private double minLatency = -1;
+    private boolean lastSaturated = false;
+    /**
+     * 刚调整过线程数量, 线程的启动与退出尚未完成, 下一个周期不计
+     */
+    private boolean settling = false;
+
+    /**
+     * @param metrics 线程池的运行指标
+     * @param backlog 排队等待执行的命令数量
+     * @param resize 设置同时执行命令的线程数量上限
+     * @param timer 采样所用的时间轮
+     * @param minLimit
+     * @param maxLimit
+     * @param intervalNanos 采样周期
+     */
+    ConcurrencyController(PoolMetrics metrics, IntSupplier backlog, IntConsumer resize, TimerWheel timer,
+            int minLimit, int maxLimit, long intervalNanos) {
+        this.metrics = metrics;
+        this.backlog = backlog;
+        this.resize = resize;
+        this.timer = timer;
+        this.minLimit = Math.max(1, Math.min(minLimit, maxLimit));
+        this.maxLimit = maxLimit;
+        this.intervalNanos = intervalNanos;
+        // 自 CPU 数量开始试探
+        this.limit = Math.max(this.minLimit, Math.min(maxLimit, Runtime.getRuntime().availableProcessors()));
+    }
+
+    void start() {
+        lastTime = System.nanoTime();
+        lastCompleted = metrics.getFinished();
+        lastExecutionNanos = metrics.getExecutionNanos();
+        lastSaturated = backlog.getAsInt() > 0;
+        resize.accept(limit);
+        timer.newTimeout(this, intervalNanos);
+    }
+
+    void stop() {
+        stopped = true;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public void run() {
+        if (stopped) return;
+        sample();
+        try {
+            timer.newTimeout(this, intervalNanos);
+        } catch (RejectedExecutionException e) {
+            // 线程池已关闭
+        }
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        long completed = metrics.getFinished();
+        long executionNanos = metrics.getExecutionNanos();
+        long count = completed - lastCompleted;
+        double throughput = count * 1e9 / Math.max(1, now - lastTime);
+        double latency = count > 0 ? (double) (executionNanos - lastExecutionNanos) / count : 0;
+        lastTime = now;
+        lastCompleted = completed;
+        lastExecutionNanos = executionNanos;
+        boolean saturated = backlog.getAsInt() > 0;
+        boolean measurable = saturated && lastSaturated && count > 0;
+        lastSaturated = saturated;
+        if (measurable == false) {
+            // 周期的起止有一处没有命令排队, 线程未必一直被占满, 本周期的吞吐量不能说明线程数量是否合适
+            lastThroughput = -1;
+            return;
+        }
+        if (settling) {
+            // 过渡周期不计, lastThroughput 仍是调整前的吞吐量
+            settling = false;
+            return;
+        }
+        minLatency = minLatency < 0 || latency < minLatency ? latency : minLatency * (1 + BASELINE_DRIFT);
+        if (lastThroughput < 0) {
+            // 恢复采样后的第一个周期只作为比较的基准
+            lastThroughput = throughput;
+            return;
+        }
+        boolean gained = throughput > lastThroughput * (1 + NOISE);
+        boolean lost = throughput < lastThroughput * (1 - NOISE);
+        if (latency > minLatency * LATENCY_TOLERANCE && gained == false) {
+            direction = -1;
+        } else if (lost) {
+            direction = -direction;
+        } else if (gained == false) {
+            direction = -1;
+        }
+        lastThroughput = throughput;
+        int step = Math.max(1, limit / 4);
+        int next = Math.max(minLimit, Math.min(maxLimit, limit + direction * step));
+        if (next == limit) {
+            // 已在边界上, 反向试探
+            direction = -direction;
+            next = Math.max(minLimit, Math.min(maxLimit, limit + direction * step));
+            if (next == limit) return;
+        }
+        limit = next;
+        settling = true;
+        resize.accept(limit);
+    }
+}
@@ -0,0 +1,196 @@
+package com.liuyang.thread;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 正在执行的命令的登记处, 用于执行超时与取消
+ * <p>
+ * 每个执行命令的线程有一个登记位, 开始执行时写入命令与截止时间, 执行完毕时清除, 每个命令只需几次 volatile 写入,
+ * 不为每个命令登记定时任务。启用超时后, 一个小时间轮每个刻度扫描一遍所有登记位, 中断超过截止时间的命令所在的线程,
+ * 因此超时的精度为一个刻度({@value #CHECK_MILLIS} 毫秒)。
+ * <p>
+ * 中断是协作式的: 阻塞于 sleep、wait、可中断 I/O 等的命令会抛出异常而结束, 不响应中断的命令仍会占用线程直至自行返回,
+ * 但其 future 已以超时或取消结束。中止后一个刻度仍未返回的命令视为卡死, 通知线程池另启线程接替, 卡死的线程在命令返回后退出,
+ * 因此少数卡死的命令不会逐渐耗尽线程池的线程。中断只会落在被中止的命令上, 命令结束后线程的中断状态被清除, 不影响下一个命令。
+ * @author liuyang
+ * @param <T>
+ */
+class ExecutionWatchdog<T> implements Runnable {
+    /**
+     * 检查超时的间隔(毫秒)
+     */
+    public final static int CHECK_MILLIS = 10;
+
+    private final Set<Slot> slots = ConcurrentHashMap.newKeySet();
+    private TimerWheel timer = null;
+    private volatile boolean stopped = false;
+
+    /**
+     * 登记执行命令的线程, 线程不再执行命令时应调用 {@link #deregister(Slot)}
+     * @param thread
+     * @param onStuck 该线程上被中止的命令卡死时调用, 至多一次, 可以为 null
+     * @return
+     */
+    Slot register(Thread thread, Runnable onStuck) {
+        Slot slot = new Slot(thread, onStuck);
+        slots.add(slot);
+        return slot;
+    }
+
+    void deregister(Slot slot) {
+        slots.remove(slot);
+    }
+
+    /**
+     * 开始检查超时, 重复调用无副作用
+     */
+    synchronized void start() {
+        if (timer != null || stopped) return;
+        timer = new TimerWheel(CHECK_MILLIS, TimeUnit.MILLISECONDS, 2, "FixedThreadPool-watchdog");
+        timer.newTimeout(this, TimeUnit.MILLISECONDS.toNanos(CHECK_MILLIS));
+    }
+
+    /**
+     * 停止检查超时。检查线程在下一个刻度自行退出, 调用方无需等待, 因此可以在持有线程池的锁时调用。
+     */
+    void stop() {
+        stopped = true;
+    }
+
+    /**
+     * 取消正在执行的命令
+     * @param threadId
+     * @return 找到该标识的命令并中断其线程时返回 true
+     */
+    boolean cancel(String threadId) {
+        boolean found = false;
+        for (Slot slot : slots) {
+            ThreadTask<T> task = slot.task;
+            if (task != null && task.isAnonymous() == false && task.getId().equals(threadId)) {
+                found |= slot.abort(task, null);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void run() {
+        if (stopped) {
+            timer.stop();
+            return;
+        }
+        long now = System.nanoTime();
+        for (Slot slot : slots) {
+            ThreadTask<T> task = slot.task;
+            if (task == null) continue;
+            if (task.isAborted()) {
+                slot.release(task, now);
+            } else {
+                long deadline = slot.deadline;
+                if (deadline != 0 && now - deadline >= 0) {
+                    slot.abort(task, new TimeoutException("command " + task.getId() + " timed out"));
+                }
+            }
+        }
+        try {
+            timer.newTimeout(this, TimeUnit.MILLISECONDS.toNanos(CHECK_MILLIS));
+        } catch (RejectedExecutionException e) {
+            // 已停止
+        }
+    }
+
+    /**
+     * 一个线程的登记位。task 只由该线程写入, 中断与清除中断状态以登记位加锁,
+     * 配合 aborting 标记保证中断不会落到下一个命令上。
+     */
+    final class Slot {
+        private final Thread thread;
+        private final Runnable onStuck;
+        private volatile ThreadTask<T> task = null;
+        /**
+         * 截止时间, 0 表示不限时
+         */
+        private volatile long deadline = 0;
+        /**
+         * 是否有中止正在进行或已经发生, 执行线程据此清除中断状态
+         */
+        private volatile boolean aborting = false;
+        /**
+         * 最近一次中止的时间, 以锁保护
+         */
+        private long abortTime = 0;
+        /**
+         * 是否已因命令卡死通知过线程池, 以锁保护
+         */
+        private boolean released = false;
+
+        private Slot(Thread thread, Runnable onStuck) {
+            this.thread = thread;
+            this.onStuck = onStuck;
+        }
+
+        /**
+         * 开始执行命令
+         * @param task
+         * @param timeoutNanos 执行时限, 不大于 0 时不限时
+         */
+        void begin(ThreadTask<T> task, long timeoutNanos) {
+            // 末位置 1, 以免截止时间恰好算得 0
+            this.deadline = timeoutNanos > 0 ? (System.nanoTime() + timeoutNanos) | 1 : 0;
+            this.task = task;
+        }
+
+        /**
+         * 命令执行完毕。先清除命令再检查标记: 中止方先设标记再检查命令, 二者至少有一方看到对方的写入,
+         * 因此未看到标记时中止方必定看到命令已清除而不会中断。
+         */
+        void end() {
+            task = null;
+            if (aborting) {
+                synchronized (this) {
+                    // 中止方未找到命令时会撤回标记, 此时中断状态并非由它设置, 不能清除
+                    if (aborting) {
+                        aborting = false;
+                        Thread.interrupted();
+                    }
+                }
+            }
+        }
+
+        /**
+         * 中止正在执行的命令
+         * @param expected 要中止的命令, 线程已转而执行其他命令时不中断
+         * @param cause 以该异常完成 future, 为 null 时取消 future
+         * @return 已中断线程时返回 true
+         */
+        synchronized boolean abort(ThreadTask<T> expected, Throwable cause) {
+            boolean previous = aborting;
+            aborting = true;
+            // 同一命令只中止一次。命令已执行完毕(与超时或取消竞争)时撤回标记, 
+            // 否则线程会在之后无关的命令结束时清除别处设置的中断状态; 先前的中止尚未清除时保留标记
+            if (task != expected || expected.abort(cause) == false) {
+                aborting = previous;
+                return false;
+            }
+            abortTime = System.nanoTime();
+            thread.interrupt();
+            return true;
+        }
+
+        /**
+         * 被中止的命令一个刻度后仍未返回时通知线程池。在锁内调用, 执行线程随后在 {@link #end()} 中必定看到线程池所做的标记。
+         * @param expected
+         * @param now
+         */
+        synchronized void release(ThreadTask<T> expected, long now) {
+            if (released || onStuck == null || task != expected) return;
+            if (now - abortTime < TimeUnit.MILLISECONDS.toNanos(CHECK_MILLIS)) return;
+            released = true;
+            onStuck.run();
+        }
+    }
+}
@@ -1,17 +1,38 @@
 package com.liuyang.thread;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.RandomAccess;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * 线程池
@@ -22,75 +43,245 @@ import java.util.concurrent.Callable;
  * @param <T>
  */
 public class FixedThreadPool<T> {
+    /**
+     * commit() 每次批量转入可执行队列的命令数量
+     */
+    private final static int COMMIT_BATCH_SIZE = 256;
+    /**
+     * 并行处理元素时, 每个线程最多分到的段数, 决定最小粒度
+     */
+    private final static int PARALLEL_PIECES_PER_THREAD = 32;
+    /**
+     * 优先级折算为提前量(纳秒)的上限, 约 73 年
+     */
+    private final static long MAX_URGENCY_OFFSET = Long.MAX_VALUE / 4;
+    /**
+     * 并行作业的段没有返回值, 不交给线程池的回调程序
+     */
+    private final ThreadResultCallBack<T> ignoreResult = (threadId, result) -> { };
+    /**
+     * commit() 转入可执行队列时使用的缓冲, 只在 commit() 内访问
+     */
+    private final List<ThreadTask<T>> commitBatch = new ArrayList<ThreadTask<T>>(COMMIT_BATCH_SIZE);
+    /**
+     * commit() 转入分组队列时使用的缓冲, 只在 commit() 内访问
+     */
+    private final List<ThreadTask<T>> commitGrouped = new ArrayList<ThreadTask<T>>();
     /**
      * 待执行的命令
      */
-    private Map<String, Callable<T>> commandCollectionWait = null;
+    private CommandInbox<T> commandCollectionWait = null;
     /**
      * 可执行的命令
      */
-    private Map<String, Callable<T>> commandCollectionExecute = null;
+    private CommandQueue<T> commandCollectionExecute = null;
+    /**
+     * 尚未被线程取走的命令, 按线程标识索引。用于 has() 以及同一标识命令的替换
+     */
+    private ConcurrentHashMap<String, ThreadTask<T>> commandIndex = null;
     /**
      * 线程返回值处理回调程序
      */
     private ThreadResultCallBack<T> resultCallBack = null;
+    /**
+     * 异步批量投递返回值, 启用时取代 resultCallBack, 未启用时为 null
+     */
+    private volatile ResultDelivery<T> resultDelivery = null;
     /**
      * 多线程列表
      */
     private List<Thread> executeThreadList = null;
+    /**
+     * 正在运行的命令处理程序, 工作窃取模式下从中选取被窃取的线程
+     */
+    private final List<ThreadPoolProcHandler> executeHandlerList = new CopyOnWriteArrayList<ThreadPoolProcHandler>();
+    /**
+     * executeHandlerList 的快照, 供窃取时遍历, 线程启动与退出时更新, 以免每次窃取都复制列表
+     */
+    private volatile Object[] stealTargets = new Object[0];
+    /**
+     * 当前线程所运行的命令处理程序, 用于识别在命令内部提交的子命令
+     */
+    private final ThreadLocal<ThreadPoolProcHandler> currentHandler = new ThreadLocal<ThreadPoolProcHandler>();
+    /**
+     * 各线程本地队列中的命令总数
+     */
+    private final AtomicInteger localCommandCount = new AtomicInteger();
     /**
      * 用于判断线程是否等待新命令的执行
      */
-    private boolean bWaitForNewCommand = true;
+    private volatile boolean bWaitForNewCommand = true;
     /**
      * 用于终止所有线程过程
      */
-    private boolean bAllThreadTerminal = false;
-    private boolean bThreadAlreadyStart = false;
+    private volatile boolean bAllThreadTerminal = false;
+    /**
+     * 工作窃取模式: 命令内部提交的子命令放入当前线程的本地队列, 空闲线程从其他线程的本地队列尾部窃取
+     */
+    private volatile boolean bWorkStealing = false;
+    /**
+     * 线程每次从可执行队列中批量取出的命令数量
+     */
+    private volatile int dispatchBatchSize = 1;
+    /**
+     * 虚拟线程模式下的调度程序及其线程, 非虚拟线程模式时为 null
+     */
+    private VirtualThreadDispatcher<T> virtualDispatcher = null;
+    private Thread virtualDispatchThread = null;
+    /**
+     * 优先级调度模式: 线程总是取紧急程度最高的命令
+     */
+    private volatile boolean bPriorityScheduling = false;
+    /**
+     * 优先级调度模式下, 每一级优先级相当于多等待的时间(纳秒)。等待足够久的低优先级命令会被优先执行, 不会一直饿死。
+     */
+    private long agingNanos = 0;
+    /**
+     * 待执行命令的容量限制, 为 null 时不限制
+     */
+    private volatile CommandCapacity commandCapacity = null;
+    /**
+     * 定时命令的时间轮, 首次登记定时命令时创建
+     */
+    private TimerWheel timerWheel = null;
+    /**
+     * 按键串行执行的命令
+     */
+    private final SerialCommandQueues<T> serialCommands = new SerialCommandQueues<T>();
+    /**
+     * 按提交者分组的命令, 各组之间按权重轮转分配线程
+     */
+    private final GroupCommandQueues<T> groupCommands = new GroupCommandQueues<T>();
+    /**
+     * 按线程标识前缀的限流, 受限的命令在其中等待而不占用线程
+     */
+    private final CommandThrottle<T> throttle = new CommandThrottle<T>(() -> commandCollectionExecute.signal(), this::timer);
+    /**
+     * 合并同一标识的命令, 未启用时为 null
+     */
+    private volatile CommandCoalescer<T> coalescer = null;
+    /**
+     * 运行指标, 未启用时为 null
+     */
+    private volatile PoolMetrics metrics = null;
+    /**
+     * 已注册的 JMX 名称
+     */
+    private ObjectName metricsName = null;
+    private volatile boolean bThreadAlreadyStart = false;
+    /**
+     * 是否已 shutdown(), 此后不再接受新命令
+     */
+    private volatile boolean bShutdown = false;
+    /**
+     * 未完成命令的计数, 用于等待线程池静止
+     */
+    private final CompletionTracker completion = new CompletionTracker();
+    /**
+     * 同时执行命令的线程数量上限, 由自适应并发控制器调整, 未启用时不限制
+     */
+    private volatile int activeThreadLimit = Integer.MAX_VALUE;
+    /**
+     * 自适应并发控制器, 未启用时为 null
+     */
+    private ConcurrencyController concurrencyController = null;
+    /**
+     * 正在执行的命令的登记处, 用于执行超时与取消
+     */
+    private final ExecutionWatchdog<T> watchdog = new ExecutionWatchdog<T>();
+    /**
+     * 命令默认的执行时限(纳秒), 0 表示不限时
+     */
+    private volatile long executionTimeoutNanos = 0;
+    /**
+     * 因命令卡死而被接替, 或已被回收但尚未退出的线程, 其位置可以启动新线程; 位置被接替时移除
+     */
+    private final Set<Thread> abandonedThreads = ConcurrentHashMap.newKeySet();
+    /**
+     * 持久模式下的预写日志, 未启用时为 null
+     */
+    private volatile CommandJournal journal = null;
+    /**
+     * 核心线程数量, 核心线程空闲时不会被回收
+     */
+    private int coreThreadLimit = 0;
+    /**
+     * 超出核心数量的线程空闲多久(纳秒)后被回收, 0 表示不回收
+     */
+    private long keepAliveNanos = 0;
+    /**
+     * 存活的线程数量
+     */
+    private final AtomicInteger liveThreadCount = new AtomicInteger();
     
     private int thread_running_number = 0;
+    /**
+     * 线程在无命令可执行时是否继续等待
+     */
+    private final BooleanSupplier waitingForCommand = () -> bWaitForNewCommand && bAllThreadTerminal == false;
     /**
      * 线程池初始化, 指定多线程数量
      * @param maxThreadLimit
      */
     public FixedThreadPool(int maxThreadLimit) {
-        // LinkedHashMap 可以按顺序读取
-        commandCollectionWait = Collections.synchronizedMap(new LinkedHashMap<String, Callable<T>>());
-        commandCollectionExecute  = Collections.synchronizedMap(new LinkedHashMap<String, Callable<T>>());
+        // 命令队列均为无锁队列, 按提交顺序读取
+        commandCollectionWait = new CommandInbox<T>();
+        commandCollectionExecute = new CommandQueue<T>();
+        commandIndex = new ConcurrentHashMap<String, ThreadTask<T>>();
         if (maxThreadLimit > 0 ) {
             // 初始线线程池中的线程
             executeThreadList = new ArrayList<Thread>();
             for(int i = 0; i < maxThreadLimit; i++) {
                 executeThreadList.add( null );
             }
-            
+            coreThreadLimit = maxThreadLimit;
         }
 
     }
     public FixedThreadPool(int maxThreadLimit, ThreadResultCallBack callback) {
-        // LinkedHashMap 可以按顺序读取
-        commandCollectionWait = Collections.synchronizedMap(new LinkedHashMap<String, Callable<T>>());
-        commandCollectionExecute  = Collections.synchronizedMap(new LinkedHashMap<String, Callable<T>>());
+        // 命令队列均为无锁队列, 按提交顺序读取
+        commandCollectionWait = new CommandInbox<T>();
+        commandCollectionExecute = new CommandQueue<T>();
+        commandIndex = new ConcurrentHashMap<String, ThreadTask<T>>();
         if (maxThreadLimit > 0 ) {
             // 初始线线程池中的线程
             executeThreadList = new ArrayList<Thread>();
             for(int i = 0; i < maxThreadLimit; i++) {
                 executeThreadList.add( null );
             }
+            coreThreadLimit = maxThreadLimit;
             resultCallBack = callback;
         }
 
     }
+    /**
+     * 线程池初始化, 指定核心线程数量与最大线程数量。可执行的命令多于空闲线程时逐步增加线程, 直至最大线程数量; 
+     * 超出核心数量的线程空闲 keepAliveTime 后被回收。线程按需启动, 无需调用 restart()。
+     * @param coreThreadLimit
+     * @param maxThreadLimit
+     * @param keepAliveTime
+     * @param unit
+     * @param callback
+     */
+    public FixedThreadPool(int coreThreadLimit, int maxThreadLimit, long keepAliveTime, TimeUnit unit, ThreadResultCallBack<T> callback) {
+        this(maxThreadLimit, callback);
+        this.coreThreadLimit = Math.max(0, Math.min(coreThreadLimit, maxThreadLimit));
+        this.keepAliveNanos = unit.toNanos(keepAliveTime);
+    }
+    public FixedThreadPool(int coreThreadLimit, int maxThreadLimit, long keepAliveTime, TimeUnit unit) {
+        this(coreThreadLimit, maxThreadLimit, keepAliveTime, unit, null);
+    }
     /**
      * 线程销毁时，清理内存
      */
     protected synchronized void finalize() throws IOException {
         this.stop();
-        commandCollectionWait.clear();
         commandCollectionExecute.clear();
+        commandIndex.clear();
         executeThreadList.clear();
         commandCollectionWait = null;
         commandCollectionExecute = null;
+        commandIndex = null;
         executeThreadList = null;
         resultCallBack = null;
         //System.gc();
@@ -103,32 +294,23 @@ public class FixedThreadPool<T> {
     }
     
     /**
-     * 提交线程命令, 但需要指定线程标识。提交的线程命令将处理等待状态。可以指定处理返回值的接口实例。
+     * 提交线程命令, 但需要指定线程标识。提交的线程命令将处理等待状态。可以指定处理返回值的接口实例, 
+     * 该实例只用于本命令, 不影响线程池的回调程序。
      * @param <T>
      * @param threadId
      * @param command
      */
-    public synchronized FixedThreadPool<T> submit(String threadId, Callable<T> command, ThreadResultCallBack callBack) {
-        synchronized(commandCollectionWait) {
-            commandCollectionWait.put(threadId, command);
-        }
-        //synchronized(resultCallBack) {
-        resultCallBack = callBack;
-        //}
+    public FixedThreadPool<T> submit(String threadId, Callable<T> command, ThreadResultCallBack<T> callBack) {
+        enqueue(threadId, command, callBack, false);
         return this;
     }
     /**
-     * 提交线程命令, 但需要指定线程标识。提交的线程命令将处理等待状态。
+     * 提交匿名线程命令。匿名命令不会被替换, 也不参与 has() 判断, 返回值以提交顺序号为线程标识交给回调程序。
      * @param <T>
-     * @param threadId
      * @param command
      */
-    public synchronized FixedThreadPool<T> submit(Callable<T> command) {
-        long timeMillis = System.currentTimeMillis();
-        long timeNanos = System.nanoTime();
-        synchronized(commandCollectionWait) {
-            commandCollectionWait.put(timeMillis + "_" + timeNanos, command);
-        }
+    public FixedThreadPool<T> submit(Callable<T> command) {
+        enqueue(null, command, null, false);
         return this;
     }
     /**
@@ -137,199 +319,1636 @@ public class FixedThreadPool<T> {
      * @param threadId
      * @param command
      */
-    public synchronized FixedThreadPool<T> submit(String threadId, Callable<T> command) {
-        synchronized(commandCollectionWait) {
-            commandCollectionWait.put(threadId, command);
-        }
+    public FixedThreadPool<T> submit(String threadId, Callable<T> command) {
+        enqueue(threadId, command, null, false);
         return this;
     }
     /**
-     * 将处理等待状态的线程推入可执行线程列表
+     * 提交线程命令, 返回代表其执行结果的 future。命令执行完毕后以返回值或异常完成 future, 
+     * 线程池的回调程序照常调用。与 submit 相同, 需要 commit() 之后才会执行。
+     * @param command
+     * @return
      */
-    public synchronized FixedThreadPool<T> commit() {
-        synchronized (commandCollectionWait) { // 同步锁定
-            synchronized(commandCollectionExecute) { // 同步锁定
-                for(Iterator<Entry<String, Callable<T>>> itor = commandCollectionWait.entrySet().iterator(); itor.hasNext(); ) {
-                    Entry<String, Callable<T>> next = itor.next();
-                    if (commandCollectionExecute.containsKey(next.getKey()) == false) {
-                        commandCollectionExecute.put(next.getKey(), next.getValue());
-                    }
-                    itor.remove();
-                }
-            }
-            commandCollectionWait.clear();
-        }
+    public CompletableFuture<T> submitAsync(Callable<T> command) {
+        return enqueue(null, command, null, true).getFuture();
+    }
+    /**
+     * 提交线程命令, 返回代表其执行结果的 future。同一标识的命令尚未执行时, 替换其命令并返回同一个 future。
+     * @param threadId
+     * @param command
+     * @return
+     */
+    public CompletableFuture<T> submitAsync(String threadId, Callable<T> command) {
+        return enqueue(threadId, command, null, true).getFuture();
+    }
+    /**
+     * 以指定优先级提交线程命令, 优先级越高越先执行。仅在优先级调度模式下有效, 否则按提交顺序执行。
+     * 优先级 × agingTime 限制在约 73 年以内, 超出的优先级按上限处理。
+     * @param threadId
+     * @param command
+     * @param priority
+     * @return
+     */
+    public FixedThreadPool<T> submit(String threadId, Callable<T> command, int priority) {
+        enqueue(threadId, command, null, false, priorityToUrgency(priority));
         return this;
     }
-    public synchronized boolean has(String threadId) {
-        return commandCollectionExecute.containsKey(threadId) || commandCollectionWait.containsKey(threadId);
+    /**
+     * 以指定优先级提交线程命令, 返回代表其执行结果的 future
+     * @param threadId
+     * @param command
+     * @param priority
+     * @return
+     */
+    public CompletableFuture<T> submitAsync(String threadId, Callable<T> command, int priority) {
+        return enqueue(threadId, command, null, true, priorityToUrgency(priority)).getFuture();
     }
     /**
-     * 是否等待将命令的注入
-     * @param flag
+     * 提交应在截止时间之前执行的线程命令, 截止时间越早越先执行。仅在优先级调度模式下有效。
+     * @param threadId
+     * @param command
+     * @param deadline 截止时间, 与 System.currentTimeMillis() 同一刻度
      * @return
      */
-    public synchronized boolean wait(boolean flag) {
-        bWaitForNewCommand = flag;
-        return bWaitForNewCommand;
+    public FixedThreadPool<T> submitBefore(String threadId, Callable<T> command, long deadline) {
+        enqueue(threadId, command, null, false, deadlineToUrgency(deadline));
+        return this;
     }
     /**
-     * 获知还剩余多少命令未执行
+     * 提交应在截止时间之前执行的线程命令, 返回代表其执行结果的 future
+     * @param threadId
+     * @param command
+     * @param deadline 截止时间, 与 System.currentTimeMillis() 同一刻度
      * @return
      */
-    public synchronized int getRemain() {
-        int remains = 0;
-        synchronized (commandCollectionExecute) {
-            remains = commandCollectionExecute.size();
-        }
-        return remains;
+    public CompletableFuture<T> submitAsyncBefore(String threadId, Callable<T> command, long deadline) {
+        return enqueue(threadId, command, null, true, deadlineToUrgency(deadline)).getFuture();
     }
     /**
-     * 获知还有多少线程还在执行。正在执行的线程数据不会超过初始设定的线程最大限数。
+     * 提交限时执行的线程命令: 执行超过 timeout 时中断其线程, future 以 TimeoutException 结束。
+     * timeout 不大于 0 时该命令不限时, 不受线程池默认时限的约束。
+     * @param threadId
+     * @param command
+     * @param timeout
+     * @param unit
      * @return
      */
-    public int getRunning() {
-        int runnings = 0;
-        for(int i = 0; i < executeThreadList.size(); i++) {
-            runnings += executeThreadList.get(i).isAlive() ? 1 : 0;
+    public FixedThreadPool<T> submit(String threadId, Callable<T> command, long timeout, TimeUnit unit) {
+        enqueueTimed(threadId, command, false, timeout, unit);
+        return this;
+    }
+    /**
+     * 提交限时执行的线程命令, 返回代表其执行结果的 future
+     * @param threadId
+     * @param command
+     * @param timeout
+     * @param unit
+     * @return
+     */
+    public CompletableFuture<T> submitAsync(String threadId, Callable<T> command, long timeout, TimeUnit unit) {
+        return enqueueTimed(threadId, command, true, timeout, unit).getFuture();
+    }
+    private ThreadTask<T> enqueueTimed(String threadId, Callable<T> command, boolean withFuture, long timeout, TimeUnit unit) {
+        long timeoutNanos = timeout > 0 ? unit.toNanos(timeout) : -1;
+        if (timeoutNanos > 0) watchdog.start();
+        return enqueue(threadId, command, null, withFuture, bPriorityScheduling ? System.nanoTime() : 0, null, timeoutNanos);
+    }
+    // 将截止时间换算到 System.nanoTime() 刻度
+    /**
+     * 按提交时间减去 优先级 × agingTime 计算紧急程度。紧急程度以差值比较, 乘积限制在 ±{@link #MAX_URGENCY_OFFSET} 以内以免溢出
+     * @param priority
+     * @return
+     */
+    private long priorityToUrgency(int priority) {
+        if (agingNanos <= 0) return System.nanoTime();
+        long limit = MAX_URGENCY_OFFSET / agingNanos;
+        return System.nanoTime() - Math.max(-limit, Math.min(limit, priority)) * agingNanos;
+    }
+    private long deadlineToUrgency(long deadline) {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadline - System.currentTimeMillis());
+    }
+    /**
+     * 延迟 delay 后执行线程命令。命令登记在时间轮上, 到期时直接放入可执行队列, 无需 commit(), 等待期间不占用线程。
+     * 精度为时间轮的一个刻度({@value TimerWheel#DEFAULT_TICK_MILLIS} 毫秒)。
+     * @param command
+     * @param delay
+     * @param unit
+     * @return
+     */
+    public ScheduledFuture<T> schedule(Callable<T> command, long delay, TimeUnit unit) {
+        return schedule(null, command, unit.toNanos(delay), 0);
+    }
+    /**
+     * 延迟 delay 后执行线程命令, 返回值以 threadId 交给回调程序
+     * @param threadId
+     * @param command
+     * @param delay
+     * @param unit
+     * @return
+     */
+    public ScheduledFuture<T> schedule(String threadId, Callable<T> command, long delay, TimeUnit unit) {
+        return schedule(threadId, command, unit.toNanos(delay), 0);
+    }
+    /**
+     * 以固定频率周期执行线程命令: 第 n 次在 initialDelay + n × period 时执行。执行时间超过周期时, 下一次紧接着执行, 
+     * 同一命令不会并发执行。命令抛出异常或 future 被取消后不再执行, 每次的返回值交给回调程序。
+     * @param threadId
+     * @param command
+     * @param initialDelay
+     * @param period
+     * @param unit
+     * @return
+     */
+    public ScheduledFuture<T> scheduleAtFixedRate(String threadId, Callable<T> command, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) throw new IllegalArgumentException("period must be positive");
+        return schedule(threadId, command, unit.toNanos(initialDelay), unit.toNanos(period));
+    }
+    /**
+     * 以固定间隔周期执行线程命令: 每次执行完毕后再等待 delay 执行下一次。其余规则同 scheduleAtFixedRate。
+     * @param threadId
+     * @param command
+     * @param initialDelay
+     * @param delay
+     * @param unit
+     * @return
+     */
+    public ScheduledFuture<T> scheduleWithFixedDelay(String threadId, Callable<T> command, long initialDelay, long delay, TimeUnit unit) {
+        if (delay <= 0) throw new IllegalArgumentException("delay must be positive");
+        return schedule(threadId, command, unit.toNanos(initialDelay), -unit.toNanos(delay));
+    }
+    private ScheduledFuture<T> schedule(String threadId, Callable<T> command, long delayNanos, long period) {
+        checkAccepting();
+        ScheduledCommand<T> scheduled = new ScheduledCommand<T>(threadId, command, delayNanos, period, timer(), this::dispatch);
+        scheduled.schedule();
+        return scheduled;
+    }
+    private synchronized TimerWheel timer() {
+        if (timerWheel == null) timerWheel = new TimerWheel("FixedThreadPool-timer");
+        return timerWheel;
+    }
+    /**
+     * 到期的定时命令直接放入可执行队列, 并按需启动线程
+     * @param task
+     */
+    private void dispatch(ThreadTask<T> task) {
+        completion.begin();
+        // 先计入未完成的命令再检查: shutdown() 之后、时间轮停止之前到期的命令不再执行, 以免线程已因全部完成而退出
+        if (bShutdown) {
+            task.cancel();
+            finished(1);
+            return;
         }
-        return runnings;
+        if (bPriorityScheduling) task.urgency = System.nanoTime();
+        commandCollectionExecute.offer(task);
+        ensureThreads();
     }
     /**
-     * 停止所有线程
+     * 按键串行提交线程命令: 同一 key 的命令严格按提交顺序逐个执行, 不同 key 的命令并行执行。
+     * 每个 key 的第一个命令需要 commit() 之后才会执行, 其后的命令在前一个执行完毕时直接进入可执行队列。
+     * 同一 key 的命令不会相互替换, 返回值以 key 为线程标识交给回调程序。按键串行的命令不受容量限制。
+     * @param key
+     * @param command
+     * @return
      */
-	public synchronized void stop() {
-        bWaitForNewCommand = false; // 停止等持新的指令
-        bAllThreadTerminal = true; // 终止所有线程过程
-        /*for(int i = 0; i < executeThreadList.size(); i++) {
-        }*/
+    public FixedThreadPool<T> submitSerial(String key, Callable<T> command) {
+        enqueueSerial(key, command, false);
+        return this;
     }
-    
-	public synchronized void close() {
-        this.stop();
-        commandCollectionWait.clear();
-        commandCollectionExecute.clear();
-        executeThreadList.clear();
-	}
-	
-	/**
-     * 所有线程开启
+    /**
+     * 按键串行提交线程命令, 返回代表其执行结果的 future
+     * @param key
+     * @param command
+     * @return
      */
-    public synchronized void start() {
-    	synchronized(this) {
-            bAllThreadTerminal = false; // 所有线程过程可以启动
-            if (bThreadAlreadyStart == false) {
-                bThreadAlreadyStart = true;
-                for(int i = 0; i < executeThreadList.size(); i++) {
-                    Thread whichThread = null;
-                    if (executeThreadList.get(i) == null) {
-                        whichThread = new Thread(new Thread(new ThreadPoolProcHandler()));
-                        executeThreadList.set(i, whichThread);
-                        //System.out.println("添加新线程：" + whichThread);
-                        whichThread.start();
-                    }
-                    whichThread = null;
-                }
+    public CompletableFuture<T> submitSerialAsync(String key, Callable<T> command) {
+        return enqueueSerial(key, command, true).getFuture();
+    }
+    private ThreadTask<T> enqueueSerial(String key, Callable<T> command, boolean withFuture) {
+        checkAccepting();
+        ThreadTask<T> task = new ThreadTask<T>(key, command, null, withFuture);
+        task.serialKey = key;
+        if (bPriorityScheduling) task.urgency = System.nanoTime();
+        completion.begin();
+        if (serialCommands.offer(task) != null) {
+            ThreadPoolProcHandler handler = bWorkStealing ? currentHandler.get() : null;
+            if (handler != null) {
+                handler.push(task);
             } else {
-                restart();
+                commandCollectionWait.offer(task);
+                if (bShutdown) commit();
             }
-    	}
+        }
+        return task;
     }
-    
     /**
-     * 重启停止的线程
+     * 按键串行的命令执行完毕或被丢弃, 放出同一键的下一个命令
+     * @param task
      */
-    public synchronized void restart() {
-    	synchronized(this) {
-            if (bThreadAlreadyStart == true) {
-            	for(int i = 0; i < executeThreadList.size(); i++) {
-                    Thread whichThread = null;
-                    if (executeThreadList.get(i) == null) {
-                        whichThread = new Thread(new Thread(new ThreadPoolProcHandler()));
-                        executeThreadList.set(i, whichThread);
-                        //System.out.println("添加新线程：" + whichThread);
-                        whichThread.start();
-                    } else if (executeThreadList.get(i).isAlive() == false) {
-                    	//System.out.println(executeThreadList.get(i) + " is dead");
-                    	whichThread = new Thread(new Thread(new ThreadPoolProcHandler()));
-                    	executeThreadList.set(i, whichThread);
-                    	whichThread.start();
-                    }
-                }
-            } else {
-            	//System.out.println("线程池还未开启，请运行start");
-            }
-    	}
+    private void serialCompleted(ThreadTask<T> task) {
+        ThreadTask<T> next = serialCommands.complete(task);
+        if (next == null) return;
+        ThreadPoolProcHandler handler = bWorkStealing ? currentHandler.get() : null;
+        if (handler != null) {
+            handler.push(next);
+        } else {
+            commandCollectionExecute.offer(next);
+            ensureThreads();
+        }
     }
     /**
-     * 处理多线程命令, 从线程缓冲池中获取命令并执行, 直至缓冲池再无新的命令注入; 
-     * @author liuyang
-     * @version 1.0.0
-     * @date 2017-07-16
+     * 设置提交者分组的权重与并发上限。各组的命令分别排队, 线程按权重轮流从各组取命令(加权赤字轮转): 
+     * 权重为 w 的组每轮最多取 w 个命令, 积压大量命令的组不会使其他组的命令长时间等待。未分组的命令合为一组, 权重为 1。
+     * 未设置的组权重为 1、不限并发。
+     * @param group 组名
+     * @param weight 权重, 至少为 1
+     * @param maxConcurrency 该组同时执行的命令数量上限, 不大于 0 时不限制
+     * @return
      */
-    private class ThreadPoolProcHandler implements Runnable {
-    	private Map<String, Callable<T>> nextCommand = null;
-        private boolean bContiune = true;
-        private Thread tread;
-
-        
-        // 调取下一个命令
-        private synchronized Map<String, Callable<T>> getNextCommand() {
-            String executeCommandId = null;
-            Map<String, Callable<T>> executeCommand = null;
-            //if (commandCollectionExecute != null) {
-                synchronized (commandCollectionExecute) {
-                	Iterator<Entry<String, Callable<T>>> itor = null;
-                    for(itor = commandCollectionExecute.entrySet().iterator(); itor.hasNext(); ) {
-                        Entry<String, Callable<T>> executeCommandMap = itor.next();
-                        executeCommandId = executeCommandMap.getKey();
-                        executeCommand = new HashMap<String, Callable<T>> ();
-                        executeCommand.put(executeCommandId, executeCommandMap.getValue());
-                        itor.remove();
-                        break;
-                    }
-                }
-            //}
-            return executeCommand;
+    public FixedThreadPool<T> group(String group, int weight, int maxConcurrency) {
+        groupCommands.configure(group, weight, maxConcurrency);
+        commandCollectionExecute.signal();
+        return this;
+    }
+    /**
+     * 以提交者分组提交匿名线程命令, 同样需要 commit() 之后才会执行
+     * @param group 组名
+     * @param command
+     * @return
+     */
+    public FixedThreadPool<T> submitGrouped(String group, Callable<T> command) {
+        enqueue(null, command, null, false, bPriorityScheduling ? System.nanoTime() : 0, group);
+        return this;
+    }
+    /**
+     * 以提交者分组提交线程命令。同一标识的命令尚未执行时只替换其命令, 保持原有的分组与排队位置。
+     * @param group 组名
+     * @param threadId
+     * @param command
+     * @return
+     */
+    public FixedThreadPool<T> submitGrouped(String group, String threadId, Callable<T> command) {
+        enqueue(threadId, command, null, false, bPriorityScheduling ? System.nanoTime() : 0, group);
+        return this;
+    }
+    /**
+     * 以提交者分组提交线程命令, 返回代表其执行结果的 future
+     * @param group 组名
+     * @param command
+     * @return
+     */
+    public CompletableFuture<T> submitGroupedAsync(String group, Callable<T> command) {
+        return enqueue(null, command, null, true, bPriorityScheduling ? System.nanoTime() : 0, group).getFuture();
+    }
+    /**
+     * 各提交者分组的运行指标, 按组名排列: 排队与执行耗时的分布, 完成与失败的命令数量, 排队的命令数量以及正在执行的命令数量。
+     * 不论是否启用线程池的运行指标都会记录; 线程的忙闲时间与被拒绝的命令不分组, 均为 0。
+     * @return
+     */
+    public Map<String, PoolMetricsSnapshot> getGroupMetrics() {
+        return groupCommands.snapshot();
+    }
+    /**
+     * 设置线程标识以 keyPrefix 开头的命令的限流: 以令牌桶限制每秒开始执行的命令数量, 并限制同时执行的命令数量。
+     * 线程取到受限的命令时将其移入等待队列, 转而执行其他命令, 不会为等待下游恢复而阻塞; 令牌恢复或有命令执行完毕时,
+     * 等待的命令按原有顺序交给空闲线程。命令同时匹配多个前缀时取最长的。匿名命令与以 CALLER_RUNS 策略在提交线程中执行的命令不受限。
+     * 对已有的前缀再次调用时更新其限制。
+     * @param keyPrefix 线程标识的前缀, 空字符串匹配所有命名的命令
+     * @param permitsPerSecond 每秒开始执行的命令数量, 不大于 0 时不限速
+     * @param burst 空闲之后可以连续开始执行的命令数量, 至少为 1
+     * @param maxInFlight 同时执行的命令数量上限, 不大于 0 时不限制
+     * @return
+     */
+    public FixedThreadPool<T> throttle(String keyPrefix, double permitsPerSecond, int burst, int maxInFlight) {
+        throttle.configure(keyPrefix, permitsPerSecond, burst, maxInFlight);
+        return this;
+    }
+    /**
+     * 因限流而等待的命令数量
+     * @return
+     */
+    public int getThrottled() {
+        return throttle.deferredSize();
+    }
+    /**
+     * 批量提交线程命令。整批命令只需一次入队操作, 同样需要 commit() 之后才会执行。
+     * @param commands
+     * @return
+     */
+    public FixedThreadPool<T> submitAll(Collection<? extends Callable<T>> commands) {
+        List<ThreadTask<T>> tasks = new ArrayList<ThreadTask<T>>(commands.size());
+        long urgency = bPriorityScheduling ? System.nanoTime() : 0;
+        for (Callable<T> command : commands) {
+            // 匿名命令不会重复, 无需登记
+            ThreadTask<T> task = new ThreadTask<T>(null, command, null, false);
+            task.urgency = urgency;
+            journal(task, command, null);
+            tasks.add(task);
         }
-        @Override
-        public synchronized void run() {
+        route(tasks);
+        return this;
+    }
+    /**
+     * 批量提交线程命令, 以 Map 的键作为线程标识
+     * @param commands
+     * @return
+     */
+    public FixedThreadPool<T> submitAll(Map<String, ? extends Callable<T>> commands) {
+        if (coalescer != null) {
+            // 合并模式下逐个登记
+            for (Entry<String, ? extends Callable<T>> entry : commands.entrySet()) {
+                enqueue(entry.getKey(), entry.getValue(), null, false);
+            }
+            return this;
+        }
+        List<ThreadTask<T>> tasks = new ArrayList<ThreadTask<T>>(commands.size());
+        long urgency = bPriorityScheduling ? System.nanoTime() : 0;
+        for (Entry<String, ? extends Callable<T>> entry : commands.entrySet()) {
+            ThreadTask<T> task = new ThreadTask<T>(entry.getKey(), entry.getValue(), null, false);
+            task.urgency = urgency;
+            journal(task, entry.getValue(), null);
+            if (index(task) == task) tasks.add(task);
+        }
+        route(tasks);
+        return this;
+    }
+    /**
+     * 以 action 并行处理每个元素, 全部处理完毕后返回。元素按 fork/join 的方式自适应切分成段, 每段作为一个命令执行, 
+     * 调用线程也参与处理, 无需 commit()。线程池的回调程序不会被调用。任何元素抛出异常时, 尚未开始的段不再处理, 异常在此重新抛出。
+     * @param items
+     * @param action
+     */
+    public <E> void parallelForEach(Collection<? extends E> items, Consumer<? super E> action) {
+        invoke(items, (list, from, to) -> {
+            for (int i = from; i < to; i++) action.accept(list.get(i));
+        });
+    }
+    /**
+     * 以 mapper 并行转换每个元素, 结果与元素一一对应且顺序相同。切分与异常的规则同 parallelForEach。
+     * @param items
+     * @param mapper
+     * @return
+     */
+    public <E, R> List<R> parallelMap(Collection<? extends E> items, Function<? super E, ? extends R> mapper) {
+        Object[] results = new Object[items.size()];
+        invoke(items, (list, from, to) -> {
+            for (int i = from; i < to; i++) results[i] = mapper.apply(list.get(i));
+        });
+        @SuppressWarnings("unchecked")
+        List<R> mapped = (List<R>) Arrays.asList(results);
+        return mapped;
+    }
+    /**
+     * 并行归约: 每个线程以 identity 创建自己的部分结果, 以 accumulator 累加其处理的元素, 各段之间不争用; 
+     * 全部处理完毕后以 combiner 合并各线程的部分结果。部分结果的合并顺序不定, combiner 须满足结合律与交换律。
+     * 切分与异常的规则同 parallelForEach。
+     * @param items
+     * @param identity 创建空的部分结果
+     * @param accumulator 将一个元素累加到部分结果中, 可以直接修改并返回原有的部分结果
+     * @param combiner 合并两个部分结果
+     * @return 没有元素时返回 identity 创建的结果
+     */
+    public <E, A> A parallelReduce(Collection<? extends E> items, Supplier<A> identity,
+            BiFunction<A, ? super E, A> accumulator, BinaryOperator<A> combiner) {
+        ConcurrentHashMap<Thread, Object[]> partials = new ConcurrentHashMap<Thread, Object[]>();
+        invoke(items, (list, from, to) -> {
+            // 每个线程只访问自己的部分结果
+            Object[] partial = partials.get(Thread.currentThread());
+            if (partial == null) {
+                partial = new Object[] { identity.get() };
+                partials.put(Thread.currentThread(), partial);
+            }
+            @SuppressWarnings("unchecked")
+            A result = (A) partial[0];
+            for (int i = from; i < to; i++) result = accumulator.apply(result, list.get(i));
+            partial[0] = result;
+        });
+        if (partials.isEmpty()) return identity.get();
+        A result = null;
+        boolean first = true;
+        for (Object[] partial : partials.values()) {
+            @SuppressWarnings("unchecked")
+            A each = (A) partial[0];
+            result = first ? each : combiner.apply(result, each);
+            first = false;
+        }
+        return result;
+    }
+    private <E> void invoke(Collection<? extends E> items, ParallelJob.Leaf<E> leaf) {
+        checkAccepting();
+        if (items.isEmpty()) return;
+        // 元素需要按下标访问, 不支持随机访问的集合先复制
+        @SuppressWarnings("unchecked")
+        List<? extends E> list = items instanceof List && items instanceof RandomAccess
+                ? (List<? extends E>) items
+                : (List<? extends E>) Arrays.asList(items.toArray());
+        VirtualThreadDispatcher<T> dispatcher = virtualDispatcher;
+        int parallelism = Math.max(1, dispatcher != null ? dispatcher.getConcurrency() : executeThreadList.size());
+        int grain = list.size() / (parallelism * PARALLEL_PIECES_PER_THREAD);
+        new ParallelJob<E>(list, leaf, grain, parallelism, this::fork, this::surplus).invoke();
+    }
+    /**
+     * 将并行作业的一段作为命令交给线程池: 工作窃取模式下在线程池的线程中放入本地队列, 否则直接放入可执行队列
+     * @param piece
+     */
+    private void fork(Runnable piece) {
+        ThreadTask<T> task = new ThreadTask<T>(null, () -> {
+            piece.run();
+            return null;
+        }, ignoreResult, false);
+        completion.begin();
+        ThreadPoolProcHandler handler = bWorkStealing ? currentHandler.get() : null;
+        if (handler != null) {
+            handler.push(task);
+        } else {
+            if (bPriorityScheduling) task.urgency = System.nanoTime();
+            commandCollectionExecute.offer(task);
+            ensureThreads();
+        }
+    }
+    // 排队的命令多于空闲线程的数量
+    private int surplus() {
+        return commandCollectionExecute.size() + localCommandCount.get() + groupCommands.size() + throttle.readySize() - commandCollectionExecute.getIdleWorkers();
+    }
+    /**
+     * 将命令放入等待队列。同一标识的命令尚未被线程取走时, 只替换其命令而不重复排队。
+     * 工作窃取模式下, 命令内部提交的子命令直接放入当前线程的本地队列, 无需 commit()。
+     * @param threadId
+     * @param command
+     * @param callBack 本命令的回调程序, 可以为 null
+     * @param withFuture 是否需要 future
+     * @return 登记命令的 ThreadTask
+     */
+    private ThreadTask<T> enqueue(String threadId, Callable<T> command, ThreadResultCallBack<T> callBack, boolean withFuture) {
+        return enqueue(threadId, command, callBack, withFuture, bPriorityScheduling ? System.nanoTime() : 0);
+    }
+    /**
+     * 将命令放入等待队列, 并指定其紧急程度
+     * @param threadId
+     * @param command
+     * @param callBack
+     * @param withFuture
+     * @param urgency 紧急程度, 以 System.nanoTime() 为刻度, 越小越紧急
+     * @return
+     */
+    private ThreadTask<T> enqueue(String threadId, Callable<T> command, ThreadResultCallBack<T> callBack, boolean withFuture, long urgency) {
+        return enqueue(threadId, command, callBack, withFuture, urgency, null);
+    }
+    /**
+     * 将命令放入等待队列, 并指定其紧急程度与提交者分组。工作窃取模式下放入本地队列的子命令不分组。
+     * @param threadId
+     * @param command
+     * @param callBack
+     * @param withFuture
+     * @param urgency
+     * @param group 组名, 不分组时为 null
+     * @return
+     */
+    private ThreadTask<T> enqueue(String threadId, Callable<T> command, ThreadResultCallBack<T> callBack, boolean withFuture, long urgency, String group) {
+        return enqueue(threadId, command, callBack, withFuture, urgency, group, 0);
+    }
+    /**
+     * 将命令放入等待队列, 并指定其紧急程度、提交者分组与执行时限
+     * @param threadId
+     * @param command
+     * @param callBack
+     * @param withFuture
+     * @param urgency
+     * @param group
+     * @param timeoutNanos 执行时限, 见 {@link ThreadTask#timeoutNanos}
+     * @return
+     */
+    private ThreadTask<T> enqueue(String threadId, Callable<T> command, ThreadResultCallBack<T> callBack, boolean withFuture, long urgency, String group, long timeoutNanos) {
+        checkAccepting();
+        ThreadTask<T> task = null;
+        CommandCoalescer<T> coalescer = this.coalescer;
+        if (coalescer != null && threadId != null) {
+            // 合并模式下总是需要 future, 以便获知命令何时执行完毕
+            task = new ThreadTask<T>(threadId, command, callBack, new CompletableFuture<T>());
+            CompletableFuture<T> pending = coalescer.join(threadId, task.getFuture());
+            if (pending != null) return new ThreadTask<T>(threadId, null, null, pending);
+        } else {
+            task = new ThreadTask<T>(threadId, command, callBack, withFuture);
+        }
+        task.urgency = urgency;
+        task.timeoutNanos = timeoutNanos;
+        journal(task, command, group);
+        ThreadTask<T> indexed = index(task);
+        if (indexed == task) {
+            completion.begin();
+            ThreadPoolProcHandler handler = bWorkStealing ? currentHandler.get() : null;
+            if (handler != null) {
+                handler.push(task);
+            } else if (admit(task)) {
+                if (group != null) task.group = groupCommands.group(group);
+                commandCollectionWait.offer(task);
+                // shutdown() 之后才入队的命令不会再有人 commit()
+                if (bShutdown) commit();
+            }
+        }
+        return indexed;
+    }
+    /**
+     * 将新命令放入等待队列或当前线程的本地队列, 等待队列一次追加整批命令
+     * @param tasks
+     */
+    private void route(List<ThreadTask<T>> tasks) {
+        checkAccepting();
+        completion.begin(tasks.size());
+        ThreadPoolProcHandler handler = bWorkStealing ? currentHandler.get() : null;
+        if (handler != null) {
+            for (ThreadTask<T> task : tasks) handler.push(task);
+        } else if (commandCapacity == null) {
+            commandCollectionWait.offerAll(tasks);
+        } else {
+            // 受容量限制时逐个接纳, 以便阻塞前已接纳的命令可以被 commit()
+            for (int i = 0; i < tasks.size(); i++) {
+                ThreadTask<T> task = tasks.get(i);
+                try {
+                    if (admit(task)) commandCollectionWait.offer(task);
+                } catch (RejectedExecutionException e) {
+                    // 本批其余命令一并撤销
+                    for (int j = i + 1; j < tasks.size(); j++) {
+                        unindex(tasks.get(j));
+                        unjournal(tasks.get(j));
+                    }
+                    finished(tasks.size() - i - 1);
+                    throw e;
+                }
+            }
+        }
+        if (bShutdown) commit();
+    }
+    /**
+     * 按容量限制接纳新命令
+     * @param task 已登记但尚未入队的命令
+     * @return 命令可以入队时返回 true; 命令已由提交线程执行时返回 false
+     * @throws RejectedExecutionException 命令被拒绝, 已撤销其登记
+     */
+    private boolean admit(ThreadTask<T> task) {
+        CommandCapacity capacity = commandCapacity;
+        if (capacity == null) return true;
+        CommandCapacity.Outcome outcome = null;
+        try {
+            // 阻塞前先提交等待队列中的命令, 否则在 commit() 之前不会有位置腾出
+            outcome = capacity.acquire(() -> {
+                if (commandCollectionWait.isEmpty() == false) commit();
+            });
+        } catch (RejectedExecutionException e) {
+            unindex(task);
+            unjournal(task);
+            finished(1);
+            throw e;
+        }
+        switch (outcome) {
+        case CALLER_RUNS:
+            unindex(task);
+            execute(task);
+            return false;
+        case DROP_OLDEST:
+            // 丢弃最早排队的命令(优先级调度模式下为最不紧急的命令), 新命令沿用其位置
+            // 已被取消的命令已交还其位置, 一并移除后继续寻找
+            ThreadTask<T> oldest = null;
+            while ((oldest = commandCollectionExecute.evict()) != null && oldest.isCancelled()) discard(oldest);
+            if (oldest == null) {
+                while ((oldest = commandCollectionWait.poll()) != null && oldest.isCancelled()) discard(oldest);
+            }
+            if (oldest != null) {
+                unindex(oldest);
+                unjournal(oldest);
+                oldest.cancel();
+                if (oldest.serialKey != null) serialCompleted(oldest);
+                finished(1);
+            }
+            if (oldest == null || oldest.unbound() == false) capacity.forceAcquire();
+            break;
+        default:
+            break;
+        }
+        task.bounded = true;
+        return true;
+    }
+    /**
+     * 按线程标识登记命令, 匿名命令无需登记
+     * @param task
+     * @return 登记成功返回 task 本身, 需要入队; 否则返回被替换了命令的原有 ThreadTask
+     */
+    private ThreadTask<T> index(ThreadTask<T> task) {
+        if (task.isAnonymous()) return task;
+        for (;;) {
+            ThreadTask<T> exists = commandIndex.putIfAbsent(task.getId(), task);
+            if (exists == null) return task;
+            if (exists.replace(task)) {
+                // 被替换的命令在日志中的登记已换到 task 上
+                unjournal(task);
+                return exists;
+            }
+            // 原有命令刚被取走, 重新登记
+        }
+    }
+    /**
+     * 持久模式下将可序列化的命令写入日志
+     * @param task 尚未登记与入队的命令
+     * @param command
+     * @param group
+     */
+    private void journal(ThreadTask<T> task, Callable<T> command, String group) {
+        CommandJournal journal = this.journal;
+        if (journal != null && command instanceof Serializable) {
+            task.journalEntry = journal.submit(task.isAnonymous() ? null : task.getId(), group, command);
+        }
+    }
+    /**
+     * 命令已执行完毕、被丢弃、被替换或已交还调用者, 在日志中标记完成
+     * @param task
+     */
+    private void unjournal(ThreadTask<T> task) {
+        CommandJournal.Entry entry = task.journalEntry;
+        CommandJournal journal = this.journal;
+        if (entry != null && journal != null) journal.complete(entry);
+    }
+    /**
+     * 撤销命令的登记
+     * @param task
+     */
+    private void unindex(ThreadTask<T> task) {
+        if (task.isAnonymous() == false) commandIndex.remove(task.getId(), task);
+    }
+    /**
+     * 将处理等待状态的线程推入可执行线程列表。命令分段批量转入, 每段只需一次入队操作。
+     */
+    public synchronized FixedThreadPool<T> commit() {
+        List<ThreadTask<T>> batch = commitBatch;
+        ThreadTask<T> task = null;
+        // 入队时会唤醒等待命令的线程
+        while ((task = commandCollectionWait.poll()) != null) {
+            if (task.group != null) {
+                commitGrouped.add(task);
+                continue;
+            }
+            batch.add(task);
+            if (batch.size() == COMMIT_BATCH_SIZE) {
+                commandCollectionExecute.offerAll(batch);
+                batch.clear();
+            }
+        }
+        commandCollectionExecute.offerAll(batch);
+        batch.clear();
+        if (commitGrouped.isEmpty() == false) {
+            groupCommands.offerAll(commitGrouped);
+            commitGrouped.clear();
+            if (commandCollectionExecute.getIdleWorkers() > 0) wakeup();
+        }
+        ensureThreads();
+        return this;
+    }
+    /**
+     * 同一标识的命令是否尚未被线程取走; 合并模式下正在执行的命令也算在内
+     * @param threadId
+     * @return
+     */
+    public boolean has(String threadId) {
+        CommandCoalescer<T> coalescer = this.coalescer;
+        return commandIndex.containsKey(threadId) || (coalescer != null && coalescer.isInflight(threadId));
+    }
+    /**
+     * 取消该标识的命令: 尚未被线程取走的命令撤销登记、交还所占容量并取消其 future, 轮到它时跳过, 不计入运行指标; 
+     * 正在执行的命令取消其 future 并中断其线程。提交线程以 CALLER_RUNS 策略执行的命令不受影响。
+     * @param threadId
+     * @return 找到排队或正在执行的命令时返回 true
+     */
+    public boolean cancel(String threadId) {
+        ThreadTask<T> queued = commandIndex.remove(threadId);
+        if (queued != null) {
+            queued.cancel();
+            if (queued.unbound()) commandCapacity.release();
+        }
+        if (watchdog.cancel(threadId) == false) return queued != null;
+        // 检查被取消的命令是否卡死
+        watchdog.start();
+        return true;
+    }
+    /**
+     * 设置命令默认的执行时限: 执行超过 timeout 的命令被中断, future 以 TimeoutException 结束。
+     * 中断是协作式的, 中断后一个检查刻度仍未返回的命令视为卡死, 另启线程接替其线程, 卡死的线程在命令返回后退出。
+     * 超时的精度为 {@value ExecutionWatchdog#CHECK_MILLIS} 毫秒。timeout 不大于 0 时不限时。
+     * 以 CALLER_RUNS 策略在提交线程中执行的命令不限时。
+     * @param timeout
+     * @param unit
+     * @return
+     */
+    public FixedThreadPool<T> executionTimeout(long timeout, TimeUnit unit) {
+        executionTimeoutNanos = timeout > 0 ? unit.toNanos(timeout) : 0;
+        if (executionTimeoutNanos > 0) watchdog.start();
+        return this;
+    }
+    /**
+     * 启用持久模式, 段大小与同步周期取默认值(64MB, 10 毫秒)
+     * @param directory 日志目录
+     * @return
+     * @throws IOException
+     * @see #journal(File, int, long, TimeUnit)
+     */
+    public FixedThreadPool<T> journal(File directory) throws IOException {
+        return journal(directory, CommandJournal.DEFAULT_SEGMENT_SIZE, 10, TimeUnit.MILLISECONDS);
+    }
+    /**
+     * 启用持久模式: 此后提交的可序列化(实现 {@link Serializable})的命令在入队前写入 directory 下的预写日志,
+     * 执行完毕、被丢弃、被替换或由 shutdownNow() 交还时标记完成。进程在命令完成之前退出时, 以同一目录启用持久模式的线程池
+     * 在 start() 时按原有的线程标识与分组重新提交这些命令, 因此命令至少执行一次, 应当可以重复执行。
+     * <p>
+     * 只有命令本身被持久化, 回调、future 与执行时限不会恢复; 按键串行、定时与并行拆分的命令不写入日志。
+     * 恢复的命令不受容量限制。close() 不标记尚未执行的命令, 它们在下次启动时恢复; shutdown() 完成后关闭日志。
+     * 写入映射内存的记录在 JVM 崩溃时不会丢失, 操作系统崩溃时至多丢失最近一个同步周期的记录。
+     * 应在提交命令之前调用, 且只能调用一次。
+     * @param directory 日志目录, 不存在时创建
+     * @param segmentSize 段文件的大小, 单个命令序列化后不能超过该大小
+     * @param syncInterval 刷入磁盘的周期
+     * @param unit
+     * @return
+     * @throws IOException 日志无法打开或恢复
+     */
+    public synchronized FixedThreadPool<T> journal(File directory, int segmentSize, long syncInterval, TimeUnit unit) throws IOException {
+        if (journal != null) throw new IllegalStateException("journal already enabled");
+        journal = new CommandJournal(directory, segmentSize, unit.toNanos(syncInterval));
+        if (bThreadAlreadyStart) replay();
+        return this;
+    }
+    /**
+     * 是否等待将命令的注入
+     * @param flag
+     * @return
+     */
+    public synchronized boolean wait(boolean flag) {
+        bWaitForNewCommand = flag;
+        if (flag == false) wakeup();
+        return bWaitForNewCommand;
+    }
+    /**
+     * 是否启用工作窃取模式, 应在 start() 之前设置
+     * @param flag
+     * @return
+     */
+    public synchronized FixedThreadPool<T> workStealing(boolean flag) {
+        bWorkStealing = flag;
+        return this;
+    }
+    /**
+     * 设置线程每次从可执行队列中批量取出的命令数量, 默认为 1。命令短小且数量众多时, 批量取出可以减少队列争用; 
+     * 工作窃取模式下多取出的命令放入本地队列, 仍可被其他线程窃取。
+     * @param size
+     * @return
+     */
+    public synchronized FixedThreadPool<T> dispatchBatch(int size) {
+        dispatchBatchSize = size > 0 ? size : 1;
+        return this;
+    }
+    /**
+     * 启用虚拟线程模式: 每个命令在一个新的虚拟线程中执行, 同时执行的命令数量以信号量限制为 concurrency 个, 
+     * 不再受线程数量的限制, 适用于大量阻塞于 I/O 的命令。concurrency 不大于 0 时关闭该模式。
+     * 应在 start() 之前设置; 该模式下工作窃取与批量取命令不起作用。虚拟线程需要 JDK 21, 低版本退化为每个命令一个平台线程。
+     * @param concurrency
+     * @return
+     */
+    public synchronized FixedThreadPool<T> virtualThreads(int concurrency) {
+        Supplier<ThreadTask<T>> shared = commandCollectionExecute::poll;
+        Supplier<ThreadTask<T>> grouped = () -> groupCommands.poll(shared);
+        virtualDispatcher = concurrency > 0
+                ? new VirtualThreadDispatcher<T>(commandCollectionExecute, () -> pollThrottled(grouped), this::requeue, waitingForCommand, task -> {
+                    taken(task);
+                    // 虚拟线程只执行一个命令, 卡死时无需接替
+                    ExecutionWatchdog<T>.Slot slot = watchdog.register(Thread.currentThread(), null);
+                    try {
+                        execute(task, slot);
+                    } finally {
+                        watchdog.deregister(slot);
+                    }
+                }, concurrency)
+                : null;
+        return this;
+    }
+    /**
+     * 启用命令合并模式: 以同一线程标识提交的命令在排队或执行期间只执行一次, 其后的提交不再替换命令, 
+     * submitAsync 返回同一个 future。应在提交命令之前设置。
+     * @return
+     */
+    public synchronized FixedThreadPool<T> coalesce() {
+        coalescer = new CommandCoalescer<T>(null);
+        return this;
+    }
+    /**
+     * 启用命令合并模式并缓存成功的结果: ttl 内以同一线程标识提交时直接返回已完成的 future, 不再执行。
+     * 最多缓存 maxSize 个结果, 超出时淘汰最早写入的结果。应在提交命令之前设置。
+     * @param maxSize
+     * @param ttl 不大于 0 时结果不过期
+     * @param unit
+     * @return
+     */
+    public synchronized FixedThreadPool<T> coalesce(int maxSize, long ttl, TimeUnit unit) {
+        coalescer = new CommandCoalescer<T>(new ResultCache<T>(maxSize, unit.toNanos(ttl)));
+        return this;
+    }
+    /**
+     * 启用异步批量投递返回值: 执行线程只将返回值放入队列, 由独立的投递线程攒批后交给 sink, 线程池的回调程序不再调用, 
+     * 较慢的回调(如写数据库)不再占用执行线程。每批最多 batchSize 个, 自第一个返回值到达起最多等待 linger 凑批。
+     * 命令自带的回调程序仍在执行线程中调用。sink 为 null 时关闭; 关闭、替换或 close() 时已收到的返回值仍会投递。
+     * @param sink
+     * @param batchSize
+     * @param linger
+     * @param unit
+     * @return
+     */
+    public synchronized FixedThreadPool<T> batchResults(BatchResultCallBack<T> sink, int batchSize, long linger, TimeUnit unit) {
+        ResultDelivery<T> previous = resultDelivery;
+        resultDelivery = sink != null ? new ResultDelivery<T>(sink, batchSize, unit.toNanos(linger), "FixedThreadPool-results") : null;
+        if (previous != null) previous.close();
+        return this;
+    }
+    /**
+     * 异步批量投递模式下, 尚未交给 sink 的返回值数量
+     * @return
+     */
+    public int getPendingResults() {
+        ResultDelivery<T> delivery = resultDelivery;
+        return delivery != null ? delivery.getPending() : 0;
+    }
+    /**
+     * 启用自适应并发: 控制器每个采样周期观察吞吐量与平均执行时间, 以爬山法在 minThreads 与最大线程数量之间调整
+     * 同时执行命令的线程数量, 使吞吐量最大而执行时间不至于失控。CPU 密集的命令收敛于 CPU 数量附近, 阻塞型命令则逐步增加线程。
+     * 多出的线程在取下一个命令前退出, 不打断正在执行的命令。一并启用运行指标, 之后以 metrics(false) 关闭运行指标时
+     * 自适应并发一并关闭; 虚拟线程模式下不起作用。
+     * minThreads 不大于 0 时关闭, 恢复为最大线程数量。
+     * @param minThreads
+     * @param sampleInterval 采样周期, 宜包含足够多的命令, 通常为数百毫秒
+     * @param unit
+     * @return
+     */
+    public synchronized FixedThreadPool<T> adaptiveConcurrency(int minThreads, long sampleInterval, TimeUnit unit) {
+        if (concurrencyController != null) {
+            concurrencyController.stop();
+            concurrencyController = null;
+        }
+        if (minThreads <= 0) {
+            activeThreadLimit = Integer.MAX_VALUE;
+            ensureThreads();
+            return this;
+        }
+        metrics(true);
+        concurrencyController = new ConcurrencyController(metrics, () -> commandCollectionExecute.size() + localCommandCount.get() + groupCommands.size() + throttle.readySize(),
+                limit -> {
+                    activeThreadLimit = limit;
+                    ensureThreads();
+                }, timer(), minThreads, executeThreadList.size(), unit.toNanos(sampleInterval));
+        concurrencyController.start();
+        return this;
+    }
+    /**
+     * 同时执行命令的线程数量上限: 启用自适应并发时为控制器当前给出的数量, 否则为最大线程数量
+     * @return
+     */
+    public int getConcurrencyLimit() {
+        return Math.min(activeThreadLimit, executeThreadList.size());
+    }
+    /**
+     * 启用优先级调度模式: 线程总是从可执行队列中取紧急程度最高的命令。按提交时间减去 优先级 × agingTime 
+     * 或按截止时间排序, 因此低优先级命令每多等待 agingTime 就相当于提升一级, 不会一直饿死。
+     * 应在 start() 之前设置; 工作窃取模式下线程本地队列中的子命令不参与排序。
+     * 容量已满且策略为 {@link OverflowPolicy#DROP_OLDEST} 时, 丢弃可执行队列中最不紧急的命令。
+     * @param agingTime 优先级每差一级相当于的等待时间, 必须大于 0
+     * @param unit
+     * @return
+     * @throws IllegalArgumentException agingTime 不大于 0
+     */
+    public synchronized FixedThreadPool<T> priorityScheduling(long agingTime, TimeUnit unit) {
+        // 不大于 0 时优先级不起作用
+        if (agingTime <= 0) throw new IllegalArgumentException("agingTime must be positive");
+        agingNanos = Math.max(1, unit.toNanos(agingTime));
+        bPriorityScheduling = true;
+        commandCollectionExecute.prioritize();
+        return this;
+    }
+    /**
+     * 限制待执行命令(等待队列与可执行队列合计)的数量, 达到上限时按 policy 处理, BLOCK 策略不限等待时间。
+     * 应在提交命令之前设置。
+     * @param capacity
+     * @param policy
+     * @return
+     */
+    public synchronized FixedThreadPool<T> capacity(int capacity, OverflowPolicy policy) {
+        return capacity(capacity, policy, 0, TimeUnit.NANOSECONDS);
+    }
+    /**
+     * 限制待执行命令(等待队列与可执行队列合计)的数量, 达到上限时按 policy 处理。BLOCK 策略最多等待 timeout, 
+     * 超时后拒绝; 阻塞前会先 commit() 等待队列中的命令, 以免在 commit() 之前永久阻塞。
+     * 工作窃取模式下命令内部提交的子命令不受限制。应在提交命令之前设置。
+     * @param capacity
+     * @param policy
+     * @param timeout 不大于 0 时不限时
+     * @param unit
+     * @return
+     */
+    public synchronized FixedThreadPool<T> capacity(int capacity, OverflowPolicy policy, long timeout, TimeUnit unit) {
+        commandCapacity = new CommandCapacity(capacity, policy, unit.toNanos(timeout));
+        return this;
+    }
+    /**
+     * 达到容量上限后, 某种处理结果发生的次数。BLOCK 为提交线程被阻塞的次数, 阻塞超时或被中断计入 REJECT。
+     * @param outcome
+     * @return
+     */
+    public long getOverflowCount(OverflowPolicy outcome) {
+        CommandCapacity capacity = commandCapacity;
+        return capacity != null ? capacity.getOverflowCount(outcome) : 0;
+    }
+    /**
+     * 启用或关闭运行指标的记录。应在 start() 之前启用, 此后启动的线程才会记录忙闲时间。
+     * 自适应并发依据运行指标调整, 关闭时一并关闭, 恢复为最大线程数量。
+     * @param flag
+     * @return
+     */
+    public synchronized FixedThreadPool<T> metrics(boolean flag) {
+        if (flag == false) {
+            if (concurrencyController != null) adaptiveConcurrency(0, 0, TimeUnit.NANOSECONDS);
+            metrics = null;
+        } else if (metrics == null) {
+            metrics = new PoolMetrics();
+        }
+        return this;
+    }
+    /**
+     * 运行指标的快照: 排队与执行耗时的分布, 完成、失败与拒绝的命令数量, 线程的忙闲时间以及当前队列深度
+     * @return 未启用运行指标时返回 null
+     */
+    public PoolMetricsSnapshot getMetrics() {
+        PoolMetrics metrics = this.metrics;
+        if (metrics == null) return null;
+        return metrics.snapshot(getRemain(), getRunning(), getOverflowCount(OverflowPolicy.REJECT));
+    }
+    /**
+     * 以 JMX 发布运行指标, 尚未启用时一并启用。close() 时注销。
+     * @param name 如 com.liuyang.thread:type=FixedThreadPool,name=orders
+     * @return
+     * @throws JMException
+     */
+    public synchronized ObjectName registerMBean(String name) throws JMException {
+        metrics(true);
+        ObjectName objectName = new ObjectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new ThreadPoolMetrics(this::getMetrics), objectName);
+        metricsName = objectName;
+        return objectName;
+    }
+    /**
+     * 获知还剩余多少命令未执行
+     * @return
+     */
+    public int getRemain() {
+        return commandCollectionExecute.size() + localCommandCount.get() + groupCommands.size() + throttle.size() + serialCommands.getWaiting();
+    }
+    /**
+     * 获知还有多少线程还在执行。正在执行的线程数据不会超过初始设定的线程最大限数。
+     * @return
+     */
+    public int getRunning() {
+        VirtualThreadDispatcher<T> dispatcher = virtualDispatcher;
+        if (dispatcher != null) return dispatcher.getActive();
+        // 线程启动与退出时已计数, 无需逐个检查线程
+        return liveThreadCount.get();
+    }
+    /**
+     * 停止所有线程
+     */
+	public synchronized void stop() {
+        bWaitForNewCommand = false; // 停止等持新的指令
+        bAllThreadTerminal = true; // 终止所有线程过程
+        wakeup();
+        /*for(int i = 0; i < executeThreadList.size(); i++) {
+        }*/
+    }
+    
+    /**
+     * 唤醒所有正在等待命令的线程, 使其重新判断是否继续执行
+     */
+    private void wakeup() {
+        commandCollectionExecute.wakeup();
+    }
+    
+    /**
+     * 命令已被线程取走: 不再参与 has() 判断, 并释放其占用的容量
+     * @param task
+     */
+    private void taken(ThreadTask<T> task) {
+        unindex(task);
+        if (task.unbound()) commandCapacity.release();
+    }
+    
+    /**
+     * 经限流从 poller 取命令, 跳过排队时已被取消的命令
+     * @param poller
+     * @return
+     */
+    private ThreadTask<T> pollThrottled(Supplier<ThreadTask<T>> poller) {
+        ThreadTask<T> task = null;
+        while ((task = throttle.poll(poller)) != null && discarded(task)) {
+            // 继续取下一个
+        }
+        return task;
+    }
+    
+    /**
+     * 取出的命令在排队时已被取消: 丢弃并计为完成。分组命令在取出前已被取消时由分组队列解除分组, 
+     * 仍属于分组的命令已计入组的并发, 照常走执行流程
+     * @param task
+     * @return 已丢弃时返回 true
+     */
+    private boolean discarded(ThreadTask<T> task) {
+        if (task.isCancelled() == false || task.group != null) return false;
+        throttle.complete(task);
+        discard(task);
+        return true;
+    }
+    
+    /**
+     * 丢弃排队时已被取消的命令: 撤销登记, 交还容量, 计为完成
+     * @param task
+     */
+    private void discard(ThreadTask<T> task) {
+        taken(task);
+        unjournal(task);
+        if (task.serialKey != null) serialCompleted(task);
+        finished(1);
+    }
+    
+    /**
+     * 执行命令, 完成其 future 并回调处理返回值
+     * @param task
+     */
+    private void execute(ThreadTask<T> task) {
+        execute(task, null);
+    }
+    
+    /**
+     * 在登记的线程中执行命令, 以便超时与取消时中断
+     * @param task
+     * @param slot 执行线程的登记位, 为 null 时不限时也不能取消
+     */
+    private void execute(ThreadTask<T> task, ExecutionWatchdog<T>.Slot slot) {
+        if (slot != null) slot.begin(task, task.timeoutNanos != 0 ? task.timeoutNanos : executionTimeoutNanos);
+        PoolMetrics metrics = this.metrics;
+        long start = metrics != null || task.group != null ? System.nanoTime() : 0;
+        boolean success = false;
+        try {
+            ResultDelivery<T> delivery = resultDelivery;
+            success = task.execute(delivery != null ? delivery : resultCallBack);
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (slot != null) slot.end();
+            long end = metrics != null || task.group != null ? System.nanoTime() : 0;
+            if (metrics != null) metrics.executed(task, start, end, success);
+            // 组的命令执行完毕后可能不再受并发上限限制
+            if (task.group != null && groupCommands.complete(task, start, end, success)) commandCollectionExecute.signal();
+            if (task.serialKey != null) serialCompleted(task);
+            if (task.throttle != null) throttle.complete(task);
+            unjournal(task);
+            finished(1);
+        }
+    }
+    
+    /**
+     * n 个命令已执行完毕或被丢弃。shutdown() 之后全部命令完成时终止线程。
+     * @param n
+     */
+    private void finished(int n) {
+        if (completion.finish(n) && bShutdown) {
+            stop();
+            watchdog.stop();
+            throttle.stop();
+            // shutdown() 之后限流检查可能重新创建了时间轮。可能持有本对象的锁, 不等待走时线程退出
+            TimerWheel timer = detachTimer();
+            if (timer != null) timer.halt();
+            CommandJournal journal = this.journal;
+            if (journal != null) journal.close();
+        }
+    }
+    
+    /**
+     * 线程上被中止的命令卡死: 该线程不再计入存活线程, 其位置可以启动新线程接替, 自身在命令返回后退出
+     * @param handler
+     */
+    private void abandon(ThreadPoolProcHandler handler) {
+        handler.bAbandoned = true;
+        abandonedThreads.add(handler.tread);
+        liveThreadCount.decrementAndGet();
+        ensureThreads();
+    }
+    
+    // shutdown() 之后拒绝新命令
+    private void checkAccepting() {
+        if (bShutdown) throw new RejectedExecutionException("FixedThreadPool has been shut down");
+    }
+    
+    /**
+     * 已取出而未执行的命令交还其来源: 已取得限流许可的命令放回就绪队列并保留许可, 
+     * 分组命令放回其组的队首(不计入组的并发), 其余放回可执行队列
+     * @param task
+     */
+    private void requeue(ThreadTask<T> task) {
+        if (task.throttle != null) {
+            throttle.requeue(task);
+        } else if (task.group != null) {
+            groupCommands.requeue(task);
+            commandCollectionExecute.signal();
+        } else {
+            commandCollectionExecute.offer(task);
+        }
+    }
+    
+    /**
+     * 虚拟线程模式下只需启动一个调度线程
+     */
+    private void startVirtualDispatcher() {
+        if (virtualDispatchThread == null || virtualDispatchThread.isAlive() == false) {
+            virtualDispatchThread = new Thread(virtualDispatcher);
+            virtualDispatchThread.start();
+        }
+    }
+    
+	public void close() {
+        // 先在锁外停止时间轮: 停止时要等走时线程退出, 而到期的定时命令会进入本对象的锁; 已到期的命令随后一并清除。
+        // 限流先停止, 时间轮上未到期的检查不再登记
+        throttle.stop();
+        stopTimer(detachTimer());
+        synchronized (this) {
+            this.stop();
+            watchdog.stop();
+            // 尚未执行的命令留在日志中, 下次启动时恢复
+            if (journal != null) journal.close();
+            ThreadTask<T> task = null;
+            while ((task = commandCollectionWait.poll()) != null) task.cancel();
+            commandCollectionExecute.clear();
+            commandIndex.clear();
+            for (ThreadPoolProcHandler handler : executeHandlerList) {
+                localCommandCount.addAndGet(-handler.clear());
+            }
+            if (commandCapacity != null) commandCapacity.clear();
+            serialCommands.clear();
+            groupCommands.clear();
+            throttle.clear();
+            if (coalescer != null) coalescer.clear();
+            if (metricsName != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+                } catch (JMException e) {
+                    e.printStackTrace();
+                }
+                metricsName = null;
+            }
+            completion.reset();
+            if (resultDelivery != null) {
+                resultDelivery.close();
+                resultDelivery = null;
+            }
+            executeThreadList.clear();
+            abandonedThreads.clear();
+        }
+	}
+	
+    /**
+     * 取下时间轮, 此后的定时命令不再登记到它上面。应在锁外以 {@link #stopTimer(TimerWheel)} 停止:
+     * 停止时要等走时线程退出, 而走时线程中到期的命令会进入本对象的锁。
+     * @return 没有时间轮时返回 null
+     */
+    private synchronized TimerWheel detachTimer() {
+        TimerWheel timer = timerWheel;
+        timerWheel = null;
+        return timer;
+    }
+    
+    /**
+     * 停止时间轮, 并取消尚未到期的定时命令。未到期的限流检查立即执行, 需要时登记到新的时间轮上, 
+     * 以免 shutdown() 之后因限流而等待的命令不再就绪。不能持有本对象的锁调用。
+     * @param timer 可以为 null
+     */
+    private void stopTimer(TimerWheel timer) {
+        if (timer == null) return;
+        for (Runnable scheduled : timer.stop()) {
+            if (scheduled instanceof ScheduledCommand) {
+                ((ScheduledCommand<?>) scheduled).cancel(false);
+            } else if (scheduled instanceof CommandThrottle<?>.Rule) {
+                scheduled.run();
+            }
+        }
+    }
+    
+    /**
+     * 平稳关闭: 不再接受新命令(提交时抛出 RejectedExecutionException), 取消尚未到期的定时命令, 
+     * 提交等待队列中的命令, 已提交的命令(包括按键串行排队的命令)全部执行完毕后线程退出。不等待, 需要时调用 awaitTermination()。
+     */
+    public void shutdown() {
+        TimerWheel timer = null;
+        synchronized (this) {
+            if (bShutdown) return;
+            bShutdown = true;
+            timer = detachTimer();
+        }
+        // 时间轮停止之后不会再有到期的命令, 此时判断是否已全部执行完毕
+        stopTimer(timer);
+        synchronized (this) {
+            commit();
+            if (completion.get() == 0) stop();
+        }
+    }
+    
+    /**
+     * 立即关闭: 不再接受新命令, 取出所有尚未开始执行的命令并取消其 future, 中断正在执行命令的线程。
+     * 虚拟线程模式下只中断调度线程, 正在执行的虚拟线程不受影响。
+     * @return 尚未开始执行的命令, 先已 commit() 的(分组排队的在后), 后未 commit() 的, 最后是按键串行排队的
+     */
+    public List<Callable<T>> shutdownNow() {
+        TimerWheel timer = null;
+        List<Callable<T>> commands = null;
+        synchronized (this) {
+            bShutdown = true;
+            timer = detachTimer();
+        }
+        // 先停止时间轮, 已到期的命令随后一并取出; 限流先停止, 未到期的检查不再登记
+        throttle.stop();
+        stopTimer(timer);
+        synchronized (this) {
+            stop();
+            watchdog.stop();
+            List<ThreadTask<T>> unstarted = new ArrayList<ThreadTask<T>>();
+            commandCollectionExecute.drainTo(unstarted, Integer.MAX_VALUE);
+            for (ThreadPoolProcHandler handler : executeHandlerList) {
+                localCommandCount.addAndGet(-handler.drainTo(unstarted));
+            }
+            groupCommands.drainTo(unstarted);
+            throttle.drainTo(unstarted);
+            ThreadTask<T> task = null;
+            while ((task = commandCollectionWait.poll()) != null) unstarted.add(task);
+            serialCommands.drainTo(unstarted);
+            commandIndex.clear();
+            if (commandCapacity != null) commandCapacity.clear();
+            if (coalescer != null) coalescer.clear();
+            commands = new ArrayList<Callable<T>>(unstarted.size());
+            for (ThreadTask<T> each : unstarted) {
+                Callable<T> command = each.take();
+                unjournal(each);
+                each.cancel();
+                if (command != null) commands.add(command);
+            }
+            for (Thread thread : executeThreadList) {
+                if (thread != null) thread.interrupt();
+            }
+            if (virtualDispatchThread != null) virtualDispatchThread.interrupt();
+            finished(unstarted.size());
+        }
+        return commands;
+    }
+    
+    /**
+     * 是否已 shutdown() 或 shutdownNow()
+     * @return
+     */
+    public boolean isShutdown() {
+        return bShutdown;
+    }
+    
+    /**
+     * 等待线程池静止: 先 commit(), 再等待所有已提交的命令(包括按键串行排队与工作窃取模式下的子命令)执行完毕。
+     * 等待期间不占用 CPU, 最后一个命令完成时立即返回。尚未到期的定时命令不计在内。
+     * @param timeout
+     * @param unit
+     * @return 超时返回 false
+     * @throws InterruptedException
+     */
+    public boolean awaitQuiescence(long timeout, TimeUnit unit) throws InterruptedException {
+        commit();
+        return completion.await(unit.toNanos(timeout));
+    }
+    
+    /**
+     * shutdown() 之后, 等待所有命令执行完毕且所有线程退出
+     * @param timeout
+     * @param unit
+     * @return 超时返回 false
+     * @throws InterruptedException
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (completion.await(unit.toNanos(timeout)) == false) return false;
+        List<Thread> threads = new ArrayList<Thread>();
+        synchronized (this) {
+            for (Thread thread : executeThreadList) {
+                if (thread != null) threads.add(thread);
+            }
+            if (virtualDispatchThread != null) threads.add(virtualDispatchThread);
+        }
+        for (Thread thread : threads) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return thread.isAlive() == false;
+            TimeUnit.NANOSECONDS.timedJoin(thread, remaining);
+            if (thread.isAlive()) return false;
+        }
+        return true;
+    }
+    
+	/**
+     * 所有线程开启
+     */
+    public synchronized void start() {
+    	synchronized(this) {
+            bAllThreadTerminal = false; // 所有线程过程可以启动
+            bThreadAlreadyStart = true;
+            if (virtualDispatcher != null) {
+                startVirtualDispatcher();
+            } else {
+                ensureThreads();
+            }
+            replay();
+    	}
+    }
+    
+    /**
+     * 重新提交日志中恢复的尚未完成的命令, 沿用其原有的登记
+     */
+    @SuppressWarnings("unchecked")
+    private void replay() {
+        CommandJournal journal = this.journal;
+        if (journal == null) return;
+        List<CommandJournal.Recovered> recovered = journal.takeRecovered();
+        if (recovered.isEmpty()) return;
+        long urgency = bPriorityScheduling ? System.nanoTime() : 0;
+        for (CommandJournal.Recovered each : recovered) {
+            Callable<T> command = null;
+            try {
+                command = (Callable<T>) each.getCommand();
+            } catch (IOException e) {
+                // 类已不存在或不兼容, 无法恢复
+                e.printStackTrace();
+                journal.complete(each.entry);
+                continue;
+            }
+            ThreadTask<T> task = new ThreadTask<T>(each.threadId, command, null, false);
+            task.urgency = urgency;
+            task.journalEntry = each.entry;
+            if (index(task) != task) continue;
+            completion.begin();
+            if (each.group != null) task.group = groupCommands.group(each.group);
+            commandCollectionWait.offer(task);
+        }
+        commit();
+    }
+    
+    /**
+     * 重启停止的线程。线程会随 commit() 按需启动, 通常无需调用。
+     */
+    public synchronized void restart() {
+    	synchronized(this) {
+            if (bThreadAlreadyStart == true && virtualDispatcher != null) {
+                startVirtualDispatcher();
+            } else if (bThreadAlreadyStart == true) {
+                ensureThreads();
+            } else {
+            	//System.out.println("线程池还未开启，请运行start");
+            }
+    	}
+    }
+    
+    /**
+     * 按积压的命令调整线程数量: 至少保持核心线程数量, 可执行的命令多于空闲线程时增加线程, 但不超过最大线程数量
+     */
+    private void ensureThreads() {
+        if (bThreadAlreadyStart == false || bAllThreadTerminal || virtualDispatcher != null) return;
+        int live = liveThreadCount.get();
+        // 按键串行且在等待前一个命令的命令无法并行执行, 不计入积压
+        int backlog = commandCollectionExecute.size() + localCommandCount.get() + groupCommands.size() + throttle.readySize() - commandCollectionExecute.getIdleWorkers();
+        int target = Math.min(activeThreadLimit, Math.max(coreThreadLimit, Math.min(executeThreadList.size(), live + backlog)));
+        if (live < target) startThreads(target);
+    }
+    
+    /**
+     * 在空闲或已停止的位置上启动新线程, 直至存活的线程数量达到 target
+     * @param target
+     */
+    private synchronized void startThreads(int target) {
+        for(int i = 0; i < executeThreadList.size() && liveThreadCount.get() < target; i++) {
+            Thread whichThread = executeThreadList.get(i);
+            // 先从登记中移除: 被接替或已回收的线程在退出前仍 isAlive()
+            if (whichThread == null || abandonedThreads.remove(whichThread) || whichThread.isAlive() == false) {
+                whichThread = new Thread(new Thread(new ThreadPoolProcHandler()));
+                liveThreadCount.incrementAndGet();
+                executeThreadList.set(i, whichThread);
+                //System.out.println("添加新线程：" + whichThread);
+                whichThread.start();
+            }
+        }
+    }
+    /**
+     * 处理多线程命令, 从线程缓冲池中获取命令并执行, 直至缓冲池再无新的命令注入; 
+     * @author liuyang
+     * @version 1.0.0
+     * @date 2017-07-16
+     */
+    private class ThreadPoolProcHandler implements Runnable {
+    	private ThreadTask<T> nextCommand = null;
+        private boolean bContiune = true;
+        /**
+         * 是否已因空闲超时被回收(存活线程数量已扣减)
+         */
+        private boolean bReaped = false;
+        /**
+         * 是否因命令卡死已被接替(存活线程数量已扣减), 由检查超时的线程在登记位的锁内设置
+         */
+        private volatile boolean bAbandoned = false;
+        private Thread tread;
+        /**
+         * 本地命令队列, 存放批量取出的命令以及工作窃取模式下的子命令。本线程在头部存取, 其他线程从尾部窃取。
+         */
+        private final ConcurrentLinkedDeque<ThreadTask<T>> localCommands = new ConcurrentLinkedDeque<ThreadTask<T>>();
+        private final List<ThreadTask<T>> drainedCommands = new ArrayList<ThreadTask<T>>();
+        private final Supplier<ThreadTask<T>> poller = this::pollCommand;
+        private final Supplier<ThreadTask<T>> unthrottledPoller = this::pollUnthrottled;
+        private final Supplier<ThreadTask<T>> sharedPoller = this::pollShared;
+
+        // 子命令放入本地队列, 并唤醒空闲线程前来窃取
+        private void push(ThreadTask<T> task) {
+            localCommandCount.incrementAndGet();
+            localCommands.offerFirst(task);
+            commandCollectionExecute.signal();
+        }
+        
+        // 线程退出时交还未执行的命令; 已 shutdownNow() 时不会再有线程执行, 直接丢弃
+        private void returnCommand(ThreadTask<T> task) {
+            if (bShutdown && bAllThreadTerminal) {
+                task.cancel();
+                finished(1);
+            } else {
+                requeue(task);
+            }
+        }
+        
+        // 取出本地队列中的命令而不取消, 返回取出的命令数量
+        private int drainTo(List<ThreadTask<T>> sink) {
+            int count = 0;
+            ThreadTask<T> task = null;
+            while ((task = localCommands.pollFirst()) != null) {
+                sink.add(task);
+                count++;
+            }
+            return count;
+        }
+        
+        // 清空本地队列并取消其中的命令, 返回清除的命令数量
+        private int clear() {
+            int count = 0;
+            ThreadTask<T> task = null;
+            while ((task = localCommands.pollFirst()) != null) {
+                task.cancel();
+                count++;
+            }
+            return count;
+        }
+        
+        // 先取限流后就绪的命令, 再取其余命令, 跳过受限的命令
+        private ThreadTask<T> pollCommand() {
+            return pollThrottled(unthrottledPoller);
+        }
+        
+        // 依次从本地队列、可执行队列与分组队列(按轮转)及(工作窃取模式下)其他线程的本地队列中取命令
+        private ThreadTask<T> pollUnthrottled() {
+            ThreadTask<T> task = localCommands.pollFirst();
+            if (task != null) {
+                localCommandCount.decrementAndGet();
+                return task;
+            }
+            task = groupCommands.poll(sharedPoller);
+            return task != null || bWorkStealing == false ? task : steal();
+        }
+        
+        // 从可执行队列中取未分组的命令
+        private ThreadTask<T> pollShared() {
+            return dispatchBatchSize > 1 ? pollBatch() : commandCollectionExecute.poll();
+        }
+        
+        // 从可执行队列批量取出命令, 返回第一个, 其余按顺序放入本地队列
+        private ThreadTask<T> pollBatch() {
+            int n = commandCollectionExecute.drainTo(drainedCommands, dispatchBatchSize);
+            if (n == 0) return null;
+            localCommandCount.addAndGet(n - 1);
+            for (int i = 1; i < n; i++) {
+                localCommands.offerLast(drainedCommands.get(i));
+            }
+            ThreadTask<T> task = drainedCommands.get(0);
+            drainedCommands.clear();
+            return task;
+        }
+        
+        // 从随机选定的线程开始, 窃取其本地队列尾部的命令
+        private ThreadTask<T> steal() {
+            Object[] handlers = stealTargets;
+            int n = handlers.length;
+            if (n == 0) return null;
+            int start = ThreadLocalRandom.current().nextInt(n);
+            for (int i = 0; i < n; i++) {
+                @SuppressWarnings("unchecked")
+                ThreadPoolProcHandler victim = (ThreadPoolProcHandler) handlers[(start + i) % n];
+                if (victim == this) continue;
+                ThreadTask<T> task = victim.localCommands.pollLast();
+                if (task != null) {
+                    localCommandCount.decrementAndGet();
+                    return task;
+                }
+            }
+            return null;
+        }
+
+        
+        // 调取下一个命令。需要等待新命令时, 在无命令可执行的情况下阻塞, 直至 commit() 或 stop() 将其唤醒
+        // 超出核心数量的线程只限时等待, 超时后被回收
+        private ThreadTask<T> getNextCommand() {
+            ThreadTask<T> executeCommand = null;
+            while (executeCommand == null) {
+                if (bAllThreadTerminal) return null;
+                if (liveThreadCount.get() > activeThreadLimit && retire()) return null;
+                long timeout = keepAliveNanos > 0 && liveThreadCount.get() > coreThreadLimit ? keepAliveNanos : 0;
+                executeCommand = commandCollectionExecute.take(waitingForCommand, poller, timeout);
+                if (executeCommand == null && (timeout == 0 || waitingForCommand.getAsBoolean() == false || reap())) {
+                    return null;
+                }
+            }
+            taken(executeCommand);
+            return executeCommand;
+        }
+        
+        // 存活线程多于自适应并发控制器给出的上限时退出本线程, 所取的命令仍由其余线程执行
+        private boolean retire() {
+            int live = 0;
+            while ((live = liveThreadCount.get()) > activeThreadLimit) {
+                if (liveThreadCount.compareAndSet(live, live - 1)) return vacate();
+            }
+            return false;
+        }
+        
+        // 存活线程多于核心数量时回收本线程。扣减后若又有命令入队则放弃回收, 以免命令无线程执行。
+        private boolean reap() {
+            int live = 0;
+            while ((live = liveThreadCount.get()) > coreThreadLimit) {
+                if (liveThreadCount.compareAndSet(live, live - 1)) {
+                    if (commandCollectionExecute.isEmpty() == false || groupCommands.isEmpty() == false || throttle.readySize() > 0) {
+                        liveThreadCount.incrementAndGet();
+                        return false;
+                    }
+                    return vacate();
+                }
+            }
+            return false;
+        }
+        
+        // 已不计入存活线程, 但退出前仍 isAlive(): 登记为可接替, 并补查扣减之后入队的命令, 以免 startThreads() 跳过本线程的位置
+        private boolean vacate() {
+            bReaped = true;
+            abandonedThreads.add(tread);
+            ensureThreads();
+            return true;
+        }
+        @Override
+        public synchronized void run() {
             
             thread_running_number++;
+            tread = Thread.currentThread();
+            ExecutionWatchdog<T>.Slot slot = watchdog.register(tread, () -> abandon(this));
+            currentHandler.set(this);
+            synchronized (executeHandlerList) {
+                executeHandlerList.add(this);
+                stealTargets = executeHandlerList.toArray();
+            }
+            // 记录本线程等待命令与执行命令的时间
+            PoolMetrics metrics = FixedThreadPool.this.metrics;
+            PoolMetrics.Worker times = metrics != null ? metrics.register(Thread.currentThread().getName()) : null;
+            long mark = times != null ? System.nanoTime() : 0;
             //System.out.println("线程正在运行：" + Thread.currentThread());
             //if (thread_running_number == 1) System.out.println("[" + now() + "] FixedThreadPool.noties: all threads will be execute.");
             // 当没有可执行的命令时, 退出该线程;
             while (bContiune == true) {
             	// 判断是否可以获取命令
+                // 需要等待命令时, getNextCommand() 会阻塞至有命令可执行或线程被终止, 因此取不到命令即可退出。
                 bContiune = (nextCommand = getNextCommand()) != null;
-                // 判断是否要等待命令。如果需要等待，则 bContiune=true。
-                bContiune = bWaitForNewCommand ? bWaitForNewCommand : bContiune;
+                if (times != null) {
+                    long now = System.nanoTime();
+                    times.idle(now - mark);
+                    mark = now;
+                }
                 // 判断是否终止执行(优先级最高)。如果终止执行，则 bContiune=false。
                 bContiune = bAllThreadTerminal ? false : bContiune;
                 if (bContiune == true && nextCommand != null) {
                 	try {
-                        if (nextCommand.size() > 0) {
-                            Entry<String, Callable<T>> next = nextCommand.entrySet().iterator().next();
-                            T result = null;
-                            if (next.getValue() != null) {
-                                result = next.getValue().call();
-                                // 回调处理返回值
-                                if(resultCallBack != null) {
-                                    resultCallBack.callback(next.getKey(), result);
-                                }
-                            }
-                            nextCommand.clear();
-                            nextCommand = null;
-                            next = null;
-                            result = null;
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
+                        execute(nextCommand, slot);
                     } finally {
-                    	thread_running_number--;
-                        if (nextCommand != null) {
-                            nextCommand.clear();
-                            nextCommand = null;
+                        nextCommand = null;
+                        if (times != null) {
+                            long now = System.nanoTime();
+                            times.busy(now - mark);
+                            mark = now;
                         }
                         /*try {
                         	//Thread.currentThread().join();
@@ -341,13 +1960,35 @@ public class FixedThreadPool<T> {
                             e.printStackTrace();
                         }*/
                     }
+                    // 已被接替的线程执行完卡死的命令后退出
+                    if (bAbandoned) break;
                 } else {
+                    // 取得命令后线程池被终止, 将命令交还可执行队列, 以便重启后继续执行
+                    if (nextCommand != null) {
+                        nextCommand.bounded = false; // 所占容量已在取走时释放
+                        returnCommand(nextCommand);
+                    }
                 	//System.out.println("线程结束：" + Thread.currentThread());
                 	
                 	//if (thread_running_number <= 0) System.out.println("[" + now() + "] FixedThreadPool.noties: all threads has been finished.");
                 	break;
                 }
             }
+            // 线程退出前, 将本地队列中剩余的命令交还可执行队列
+            synchronized (executeHandlerList) {
+                executeHandlerList.remove(this);
+                stealTargets = executeHandlerList.toArray();
+            }
+            ThreadTask<T> task = null;
+            while ((task = localCommands.pollLast()) != null) {
+                localCommandCount.decrementAndGet();
+                returnCommand(task);
+            }
+            currentHandler.remove();
+            watchdog.deregister(slot);
+            if (times != null) metrics.retire(times);
+            if (bReaped == false && bAbandoned == false) liveThreadCount.decrementAndGet();
+            thread_running_number--;
         }
         
     }
@@ -0,0 +1,254 @@
+package com.liuyang.thread;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 按提交者分组的命令队列, 以加权赤字轮转(deficit round-robin)在各组之间分配线程
+ * <p>
+ * 每组一个队列, 有命令可取且未达到并发上限的组排在轮转列表中。轮到某组时其额度增加权重, 每取出一个命令消耗一个额度,
+ * 额度用完或队列取空后轮到下一组, 因此积压大量命令的组只能按权重分得线程, 其他组的命令至多等待一轮。
+ * 未分组的命令(可执行队列中的命令)合为一组参与轮转, 权重为 1。
+ * 达到并发上限的组暂时移出轮转列表, 其命令执行完毕后再加入。轮转状态以本对象加锁保护, 没有分组命令排队时不加锁。
+ * @author liuyang
+ * @param <T>
+ */
+class GroupCommandQueues<T> {
+    private final ConcurrentHashMap<String, Group> groups = new ConcurrentHashMap<String, Group>();
+    /**
+     * 轮转列表, 队首为当前轮到的组
+     */
+    private final ArrayDeque<Group> active = new ArrayDeque<Group>();
+    /**
+     * 未分组的命令, 始终留在轮转列表中
+     */
+    private final Group shared = new Group(null);
+    /**
+     * 各组队列中的命令总数
+     */
+    private final AtomicInteger queued = new AtomicInteger();
+
+    GroupCommandQueues() {
+        shared.active = true;
+        active.offer(shared);
+    }
+
+    /**
+     * 取得组, 不存在时以权重 1、不限并发创建
+     * @param name
+     * @return
+     */
+    Group group(String name) {
+        Group group = groups.get(name);
+        return group != null ? group : groups.computeIfAbsent(name, Group::new);
+    }
+
+    /**
+     * 设置组的权重与并发上限
+     * @param name
+     * @param weight 每轮可取的命令数量
+     * @param maxConcurrency 同时执行的命令数量上限, 不大于 0 时不限制
+     */
+    synchronized void configure(String name, int weight, int maxConcurrency) {
+        if (weight < 1) throw new IllegalArgumentException("weight must be positive");
+        Group group = group(name);
+        group.weight = weight;
+        group.maxConcurrency = maxConcurrency > 0 ? maxConcurrency : Integer.MAX_VALUE;
+        activate(group);
+    }
+
+    /**
+     * 命令批量加入各自组的队列
+     * @param tasks 已设置 {@link ThreadTask#group} 的命令
+     */
+    synchronized void offerAll(List<ThreadTask<T>> tasks) {
+        for (ThreadTask<T> task : tasks) {
+            task.group.queue.offer(task);
+            activate(task.group);
+        }
+        queued.addAndGet(tasks.size());
+    }
+
+    /**
+     * 按轮转取出下一个命令
+     * @param sharedPoller 取未分组命令的方式
+     * @return 没有可取的命令时返回 null
+     */
+    ThreadTask<T> poll(Supplier<ThreadTask<T>> sharedPoller) {
+        if (queued.get() == 0) return sharedPoller.get();
+        synchronized (this) {
+            // 每组至多检查一次
+            for (int i = active.size(); i > 0; i--) {
+                Group group = active.peekFirst();
+                if (group.deficit == 0) group.deficit = group.weight;
+                ThreadTask<T> task = group == shared ? sharedPoller.get() : group.queue.poll();
+                if (task == null) {
+                    // 未分组的一组没有命令时轮到下一组; 其他组只在清空队列后才会如此, 移出轮转列表
+                    active.pollFirst();
+                    group.deficit = 0;
+                    if (group == shared) {
+                        active.offerLast(group);
+                    } else {
+                        group.active = false;
+                    }
+                    continue;
+                }
+                if (task.isCancelled()) {
+                    // 排队时已被取消的命令不消耗额度也不计入并发, 解除分组后由调用者丢弃
+                    if (group != shared) {
+                        queued.decrementAndGet();
+                        task.group = null;
+                    }
+                    return task;
+                }
+                group.deficit--;
+                if (group != shared) {
+                    queued.decrementAndGet();
+                    group.running++;
+                    if (group.queue.isEmpty() || group.running >= group.maxConcurrency) {
+                        active.pollFirst();
+                        group.active = false;
+                        group.deficit = 0;
+                        return task;
+                    }
+                }
+                if (group.deficit == 0) active.offerLast(active.pollFirst());
+                return task;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 分组命令已执行完毕, 记录运行指标
+     * @param task
+     * @param start 开始执行的时间
+     * @param end 执行完毕的时间
+     * @param success
+     * @return 该组因此恢复轮转时返回 true, 应唤醒空闲线程
+     */
+    boolean complete(ThreadTask<T> task, long start, long end, boolean success) {
+        Group group = task.group;
+        group.metrics.executed(task, start, end, success);
+        synchronized (this) {
+            group.running--;
+            return activate(group);
+        }
+    }
+
+    /**
+     * 已取出而未执行的分组命令放回其组的队首
+     * @param task
+     */
+    synchronized void requeue(ThreadTask<T> task) {
+        Group group = task.group;
+        group.running--;
+        group.queue.offerFirst(task);
+        queued.incrementAndGet();
+        activate(group);
+    }
+
+    // 有命令可取且未达到并发上限的组加入轮转列表
+    private boolean activate(Group group) {
+        if (group.active || group.queue.isEmpty() || group.running >= group.maxConcurrency) return false;
+        group.active = true;
+        group.deficit = 0;
+        active.offerLast(group);
+        return true;
+    }
+
+    /**
+     * 各组队列中的命令总数
+     * @return
+     */
+    int size() {
+        return queued.get();
+    }
+
+    boolean isEmpty() {
+        return queued.get() == 0;
+    }
+
+    /**
+     * 各组运行指标的快照, 按组名排列。线程的忙闲时间不分组, 为 0。
+     * @return
+     */
+    synchronized Map<String, PoolMetricsSnapshot> snapshot() {
+        Map<String, PoolMetricsSnapshot> snapshots = new LinkedHashMap<String, PoolMetricsSnapshot>();
+        for (String name : new TreeSet<String>(groups.keySet())) {
+            Group group = groups.get(name);
+            snapshots.put(name, group.metrics.snapshot(group.queue.size(), group.running, 0));
+        }
+        return Collections.unmodifiableMap(snapshots);
+    }
+
+    /**
+     * 清空所有队列, 取出排队的命令而不取消
+     * @param sink 接收排队的命令
+     * @return 取出的命令数量
+     */
+    synchronized int drainTo(Collection<? super ThreadTask<T>> sink) {
+        int n = 0;
+        for (Group group : groups.values()) {
+            ThreadTask<T> task = null;
+            while ((task = group.queue.pollFirst()) != null) {
+                sink.add(task);
+                n++;
+            }
+        }
+        queued.addAndGet(-n);
+        return n;
+    }
+
+    /**
+     * 清空所有队列, 并取消排队的命令
+     */
+    synchronized void clear() {
+        for (Group group : groups.values()) {
+            ThreadTask<T> task = null;
+            while ((task = group.queue.pollFirst()) != null) {
+                queued.decrementAndGet();
+                task.cancel();
+            }
+        }
+    }
+
+    /**
+     * 一组命令, 除 metrics 外均由外层对象加锁访问
+     */
+    final class Group {
+        private final String name;
+        private final ArrayDeque<ThreadTask<T>> queue = new ArrayDeque<ThreadTask<T>>();
+        private final PoolMetrics metrics = new PoolMetrics();
+        private int weight = 1;
+        private int maxConcurrency = Integer.MAX_VALUE;
+        /**
+         * 本轮剩余的额度
+         */
+        private int deficit = 0;
+        /**
+         * 已取出而未执行完毕的命令数量
+         */
+        private int running = 0;
+        /**
+         * 是否在轮转列表中
+         */
+        private boolean active = false;
+
+        private Group(String name) {
+            this.name = name;
+        }
+
+        String getName() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.liuyang.thread;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 耗时直方图
+ * <p>
+ * 与 HdrHistogram 相同的对数-线性分桶: 每个 2 的幂区间再等分为 {@value #SUB_BUCKETS} 个桶, 相对误差不超过 1/{@value #SUB_BUCKETS}。
+ * 记录只需一次原子加法, 不加锁; 读取时复制各桶计数, 与并发的记录之间只保证近似一致。
+ * @author liuyang
+ */
+class LatencyHistogram {
+    private final static int SUB_BITS = 4;
+    final static int SUB_BUCKETS = 1 << SUB_BITS;
+    /**
+     * 小于该值的耗时精确计数
+     */
+    private final static long LINEAR_LIMIT = SUB_BUCKETS << 1;
+    final static int BUCKET_COUNT = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 记录一次耗时
+     * @param nanos
+     */
+    void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.getAndIncrement(indexOf(nanos));
+        total.add(nanos);
+        long current = 0;
+        while (nanos > (current = max.get()) && max.compareAndSet(current, nanos) == false);
+    }
+
+    /**
+     * 复制各桶计数
+     * @return
+     */
+    long[] copyCounts() {
+        long[] copy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    long getTotal() {
+        return total.sum();
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    static int indexOf(long value) {
+        if (value < LINEAR_LIMIT) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * 桶内的最大值
+     * @param index
+     * @return
+     */
+    static long highestValueOf(int index) {
+        if (index < LINEAR_LIMIT) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,185 @@
+package com.liuyang.thread;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 有界无锁多生产者/多消费者环形队列
+ * <p>
+ * 基于数组实现, 每个槽位带有一个序号: 生产者与消费者各自通过 CAS 抢占位置,
+ * 再以序号的 volatile 写发布/回收槽位, 入队与出队均不需要加锁。容量为 2 的幂。
+ * @author liuyang
+ * @param <E>
+ */
+public final class MpmcRingQueue<E> {
+    private final Object[] buffer;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    /**
+     * 下一个入队位置
+     */
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * 下一个出队位置
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * 初始化环形队列, 容量会向上取整为 2 的幂
+     * @param capacity
+     */
+    public MpmcRingQueue(int capacity) {
+        if (capacity < 2) capacity = 2;
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.buffer = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * 入队, 队列已满时立即返回 false
+     * @param e
+     * @return
+     */
+    public boolean offer(E e) {
+        if (e == null) throw new NullPointerException();
+        long pos = tail.get();
+        for (;;) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    buffer[index] = e;
+                    sequences.set(index, pos + 1); // 发布槽位
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false; // 已满
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * 出队, 队列为空时立即返回 null
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long pos = head.get();
+        for (;;) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E e = (E) buffer[index];
+                    buffer[index] = null;
+                    sequences.set(index, pos + mask + 1); // 回收槽位
+                    return e;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null; // 为空
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    /**
+     * 批量入队。以一次 CAS 抢占连续的空闲槽位, 再逐个发布。
+     * @param items
+     * @param from 起始下标
+     * @param count 最多入队的数量
+     * @return 实际入队的数量, 队列已满时可能小于 count
+     * @throws NullPointerException 本次可能入队的元素中有 null 时, 不入队任何元素
+     */
+    public int offerAll(List<? extends E> items, int from, int count) {
+        if (count <= 0) return 0;
+        // 抢占槽位之前检查, 抢占后抛出异常会留下永远不发布的槽位。一次至多抢占整个队列
+        count = Math.min(count, buffer.length);
+        for (int i = from, end = from + count; i < end; i++) {
+            if (items.get(i) == null) throw new NullPointerException();
+        }
+        long pos = tail.get();
+        for (;;) {
+            // 统计从 pos 开始连续空闲的槽位
+            int n = 0;
+            while (n < count && sequences.get((int) (pos + n) & mask) == pos + n) n++;
+            if (n == 0) {
+                if (sequences.get((int) pos & mask) < pos) return 0; // 已满
+                pos = tail.get();
+                continue;
+            }
+            if (tail.compareAndSet(pos, pos + n)) {
+                for (int i = 0; i < n; i++) {
+                    int index = (int) (pos + i) & mask;
+                    buffer[index] = items.get(from + i);
+                    sequences.set(index, pos + i + 1);
+                }
+                return n;
+            }
+            pos = tail.get();
+        }
+    }
+
+    /**
+     * 批量出队。以一次 CAS 抢占连续的已发布槽位, 再逐个取出并回收。
+     * @param sink 接收元素的集合
+     * @param max 最多出队的数量
+     * @return 实际出队的数量
+     */
+    @SuppressWarnings("unchecked")
+    public int drainTo(Collection<? super E> sink, int max) {
+        if (max <= 0) return 0;
+        long pos = head.get();
+        for (;;) {
+            // 统计从 pos 开始连续已发布的槽位
+            int n = 0;
+            while (n < max && sequences.get((int) (pos + n) & mask) == pos + n + 1) n++;
+            if (n == 0) {
+                if (sequences.get((int) pos & mask) < pos + 1) return 0; // 为空
+                pos = head.get();
+                continue;
+            }
+            if (head.compareAndSet(pos, pos + n)) {
+                for (int i = 0; i < n; i++) {
+                    int index = (int) (pos + i) & mask;
+                    sink.add((E) buffer[index]);
+                    buffer[index] = null;
+                    sequences.set(index, pos + i + mask + 1);
+                }
+                return n;
+            }
+            pos = head.get();
+        }
+    }
+
+    /**
+     * 近似的元素数量
+     * @return
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return size < 0 ? 0 : (int) Math.min(size, buffer.length);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        while (poll() != null);
+    }
+}
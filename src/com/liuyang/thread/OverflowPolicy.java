@@ -0,0 +1,25 @@
+package com.liuyang.thread;
+
+/**
+ * 待执行命令达到容量上限时的处理策略
+ * @author liuyang
+ */
+public enum OverflowPolicy {
+    /**
+     * 阻塞提交命令的线程, 直至有空位或等待超时(超时后拒绝)
+     */
+    BLOCK,
+    /**
+     * 由提交命令的线程直接执行该命令
+     */
+    CALLER_RUNS,
+    /**
+     * 丢弃最早排队的命令(取消其 future), 接纳新命令。优先级调度模式下丢弃最不紧急的命令,
+     * 即按当前排序最晚才会执行的命令。
+     */
+    DROP_OLDEST,
+    /**
+     * 拒绝新命令, 抛出 RejectedExecutionException
+     */
+    REJECT
+}
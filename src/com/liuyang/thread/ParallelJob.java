@@ -0,0 +1,132 @@
+package com.liuyang.thread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+/**
+ * 并行处理一组元素的作业
+ * <p>
+ * 按 fork/join 的方式自适应切分: 处理一段元素前, 只要这段仍大于最小粒度且线程池中的积压不多, 就将后一半作为新命令交给线程池,
+ * 自己继续处理前一半。线程空闲时积压少, 切分得细, 便于其他线程分担; 线程都在忙时积压多, 不再切分, 整段在当前线程中处理,
+ * 因此调度开销按段而非按元素计。发起作业的线程也处理元素, 处理完自己的一段后, 收回并处理自己交出而尚未被取走的段,
+ * 最后等待其余的段完成。在线程池的线程中发起作业也不会因所有线程都在等待而死锁。
+ * @author liuyang
+ * @param <E>
+ */
+class ParallelJob<E> {
+    /**
+     * 处理 [from, to) 之间的元素
+     * @param <E>
+     */
+    interface Leaf<E> {
+        void apply(List<? extends E> items, int from, int to);
+    }
+
+    private final List<? extends E> items;
+    private final Leaf<E> leaf;
+    private final int grain;
+    private final int maxSurplus;
+    private final Consumer<Runnable> forker;
+    private final IntSupplier surplus;
+    /**
+     * 尚未完成的段, 发起作业的一段也计算在内
+     */
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    private final Thread caller = Thread.currentThread();
+    /**
+     * 发起作业的线程交出的段, 只由该线程访问
+     */
+    private final List<Piece> callerForks = new ArrayList<Piece>();
+
+    /**
+     * @param items 支持随机访问的元素列表
+     * @param leaf 处理一段元素
+     * @param grain 最小粒度, 不大于该数量的段不再切分
+     * @param maxSurplus 线程池积压的命令达到该数量时不再切分
+     * @param forker 将一段交给线程池
+     * @param surplus 线程池当前积压的命令数量(排队的命令减去空闲的线程)
+     */
+    ParallelJob(List<? extends E> items, Leaf<E> leaf, int grain, int maxSurplus, Consumer<Runnable> forker, IntSupplier surplus) {
+        this.items = items;
+        this.leaf = leaf;
+        this.grain = Math.max(1, grain);
+        this.maxSurplus = maxSurplus;
+        this.forker = forker;
+        this.surplus = surplus;
+    }
+
+    /**
+     * 在当前线程中执行作业, 直至所有元素处理完毕。任何一段抛出异常时, 尚未开始的段不再处理, 异常在此重新抛出。
+     */
+    void invoke() {
+        compute(0, items.size());
+        // 收回自己交出而尚未被取走的段
+        while (callerForks.isEmpty() == false) {
+            callerForks.remove(callerForks.size() - 1).run();
+        }
+        await();
+        Throwable e = failure.get();
+        if (e instanceof Error) throw (Error) e;
+        if (e != null) throw (RuntimeException) e;
+    }
+
+    private void compute(int from, int to) {
+        try {
+            while (to - from > grain && surplus.getAsInt() < maxSurplus) {
+                int middle = (from + to) >>> 1;
+                Piece right = new Piece(middle, to);
+                pending.incrementAndGet();
+                if (Thread.currentThread() == caller) callerForks.add(right);
+                forker.accept(right);
+                to = middle;
+            }
+            if (failure.get() == null) leaf.apply(items, from, to);
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            if (pending.decrementAndGet() == 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    // 等待其余的段完成, 期间的中断在返回前恢复
+    private synchronized void await() {
+        boolean interrupted = false;
+        while (pending.get() != 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * 交给线程池的一段, 由线程池的线程或收回它的发起线程执行, 只执行一次
+     */
+    private class Piece extends AtomicBoolean implements Runnable {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+
+        Piece(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public void run() {
+            if (compareAndSet(false, true)) compute(from, to);
+        }
+    }
+}
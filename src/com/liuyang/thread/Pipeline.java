@@ -0,0 +1,234 @@
+package com.liuyang.thread;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 多级流水线, 如 解析 → 转换 → 写入
+ * <p>
+ * 每一级是一个有自己线程数量的 SimpleThreadPool, 级与级之间以容量有限的指令队列相连(BLOCK 策略): 下一级的队列满时,
+ * 上一级的线程阻塞于提交, 上一级的队列随之积满, 直至 submit() 的调用者被阻塞, 反压由此逐级传到源头。
+ * 短小的级可以 fuse() 到前一级, 在前一级的线程中紧接着执行, 省去一次入队与线程切换。
+ * 每一级都记录运行指标, getBottleneck() 给出扣除反压阻塞后利用率最高的一级, 即应当增加线程的一级。
+ * <p>
+ * 线程数量多于一个的级不保持元素的顺序; 某一级返回 null 或抛出异常时丢弃该元素, 异常计入该级的失败数量。
+ * Pipeline 本身不可变, then() 与 fuse() 返回新的 Pipeline, start() 之后才创建线程。
+ * @author liuyang
+ * @param <I> 流水线的输入
+ * @param <O> 目前最后一级的输出
+ */
+public final class Pipeline<I, O> {
+    private final List<Stage> stages;
+
+    private Pipeline(List<Stage> stages) {
+        this.stages = stages;
+    }
+
+    /**
+     * 流水线的第一级
+     * @param name 级的名称, 用于运行指标
+     * @param workers 线程数量
+     * @param queueSize 本级指令队列的容量, 满时 submit() 阻塞
+     * @param function 处理一个元素
+     * @return
+     */
+    public static <I, O> Pipeline<I, O> first(String name, int workers, int queueSize, Function<? super I, ? extends O> function) {
+        List<Stage> stages = new ArrayList<Stage>();
+        stages.add(new Stage(name, workers, queueSize, cast(function)));
+        return new Pipeline<I, O>(stages);
+    }
+
+    /**
+     * 追加一级, 有自己的线程与指令队列
+     * @param name
+     * @param workers
+     * @param queueSize 本级指令队列的容量, 满时上一级的线程阻塞
+     * @param function
+     * @return
+     */
+    public <R> Pipeline<I, R> then(String name, int workers, int queueSize, Function<? super O, ? extends R> function) {
+        List<Stage> stages = new ArrayList<Stage>(this.stages);
+        stages.add(new Stage(name, workers, queueSize, cast(function)));
+        return new Pipeline<I, R>(stages);
+    }
+
+    /**
+     * 追加一级并与前一级融合: 在前一级的线程中紧接着执行, 运行指标与前一级合并, 名称以 + 相连
+     * @param name
+     * @param function
+     * @return
+     */
+    public <R> Pipeline<I, R> fuse(String name, Function<? super O, ? extends R> function) {
+        List<Stage> stages = new ArrayList<Stage>(this.stages);
+        Stage last = stages.remove(stages.size() - 1);
+        final Function<Object, Object> before = last.function;
+        final Function<Object, Object> after = cast(function);
+        stages.add(new Stage(last.name + "+" + name, last.workers, last.queueSize, item -> {
+            Object middle = before.apply(item);
+            return middle != null ? after.apply(middle) : null;
+        }));
+        return new Pipeline<I, R>(stages);
+    }
+
+    /**
+     * 启动各级的线程, 最后一级的输出交给 sink。sink 在最后一级的线程中调用。
+     * @param sink
+     * @return
+     */
+    public Running<I> start(Consumer<? super O> sink) {
+        @SuppressWarnings("unchecked")
+        Consumer<Object> output = (Consumer<Object>) sink;
+        return new Running<I>(stages, output);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> cast(Function<?, ?> function) {
+        return (Function<Object, Object>) function;
+    }
+
+    private final static class Stage {
+        private final String name;
+        private final int workers;
+        private final int queueSize;
+        private final Function<Object, Object> function;
+
+        Stage(String name, int workers, int queueSize, Function<Object, Object> function) {
+            if (workers < 1) throw new IllegalArgumentException("workers must be positive");
+            if (queueSize < 1) throw new IllegalArgumentException("queueSize must be positive");
+            this.name = name;
+            this.workers = workers;
+            this.queueSize = queueSize;
+            this.function = function;
+        }
+    }
+
+    /**
+     * 运行中的流水线
+     * @param <I>
+     */
+    public final static class Running<I> {
+        private final List<String> names = new ArrayList<String>();
+        private final List<SimpleThreadPool<Object>> pools = new ArrayList<SimpleThreadPool<Object>>();
+        /**
+         * 每一级的线程阻塞于向下一级提交的时间
+         */
+        private final List<LongAdder> blocked = new ArrayList<LongAdder>();
+        private final Function<Object, Object> head;
+
+        private Running(List<Stage> stages, Consumer<Object> sink) {
+            // 自后向前创建, 每一级的回调程序将输出提交给下一级
+            SimpleThreadPool<Object> next = null;
+            Function<Object, Object> nextFunction = null;
+            for (int i = stages.size() - 1; i >= 0; i--) {
+                Stage stage = stages.get(i);
+                final SimpleThreadPool<Object> downstream = next;
+                final Function<Object, Object> downstreamFunction = nextFunction;
+                final LongAdder blockedNanos = new LongAdder();
+                ThreadResultCallBack<Object> forward = downstream == null
+                        ? (threadId, result) -> {
+                            if (result != null) sink.accept(result);
+                        }
+                        : (threadId, result) -> {
+                            if (result == null) return;
+                            long start = System.nanoTime();
+                            downstream.submit(() -> downstreamFunction.apply(result));
+                            blockedNanos.add(System.nanoTime() - start);
+                        };
+                SimpleThreadPool<Object> pool = new SimpleThreadPool<Object>(stage.workers, forward);
+                pool.capacity(stage.queueSize, OverflowPolicy.BLOCK);
+                pool.metrics(true);
+                pool.waitFroCommand(true);
+                pools.add(0, pool);
+                names.add(0, stage.name);
+                blocked.add(0, blockedNanos);
+                next = pool;
+                nextFunction = stage.function;
+            }
+            head = nextFunction;
+            for (SimpleThreadPool<Object> pool : pools) pool.start();
+        }
+
+        /**
+         * 送入一个元素, 第一级的队列满时阻塞
+         * @param item
+         * @throws java.util.concurrent.RejectedExecutionException 已 finish() 或 shutdownNow()
+         */
+        public void submit(final I item) {
+            pools.get(0).submit(() -> head.apply(item));
+        }
+
+        /**
+         * 不再接受新元素, 自第一级起逐级等待已送入的元素处理完毕并停止线程
+         * @param timeout
+         * @param unit
+         * @return 超时返回 false, 此时仍有级在运行
+         * @throws InterruptedException
+         */
+        public boolean finish(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            for (SimpleThreadPool<Object> pool : pools) {
+                pool.shutdown();
+                if (pool.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) == false) return false;
+            }
+            return true;
+        }
+
+        /**
+         * 立即停止各级, 丢弃尚未处理的元素
+         */
+        public void shutdownNow() {
+            for (SimpleThreadPool<Object> pool : pools) pool.shutdownNow();
+        }
+
+        /**
+         * 各级的运行指标, 按级的顺序排列。吞吐量见 {@link PoolMetricsSnapshot#getThroughput()},
+         * 队列深度见 {@link PoolMetricsSnapshot#getQueueDepth()}。
+         * @return
+         */
+        public Map<String, PoolMetricsSnapshot> getStageMetrics() {
+            Map<String, PoolMetricsSnapshot> metrics = new LinkedHashMap<String, PoolMetricsSnapshot>();
+            for (int i = 0; i < pools.size(); i++) {
+                metrics.put(names.get(i), pools.get(i).getMetrics());
+            }
+            return Collections.unmodifiableMap(metrics);
+        }
+
+        /**
+         * 各级线程真正用于处理元素的时间占比, 扣除了因反压阻塞于向下一级提交的时间, 按级的顺序排列
+         * @return
+         */
+        public Map<String, Double> getStageUtilization() {
+            Map<String, Double> utilization = new LinkedHashMap<String, Double>();
+            for (int i = 0; i < pools.size(); i++) {
+                PoolMetricsSnapshot metrics = pools.get(i).getMetrics();
+                long total = metrics.getBusyNanos() + metrics.getIdleNanos();
+                long working = Math.max(0, metrics.getBusyNanos() - blocked.get(i).sum());
+                utilization.put(names.get(i), total > 0 ? (double) working / total : 0);
+            }
+            return Collections.unmodifiableMap(utilization);
+        }
+
+        /**
+         * 瓶颈级: 扣除反压阻塞后利用率最高的一级。其线程几乎一直在忙, 上游因它而阻塞, 下游因它而空闲, 应当增加它的线程。
+         * @return
+         */
+        public String getBottleneck() {
+            String bottleneck = null;
+            double highest = -1;
+            for (Map.Entry<String, Double> entry : getStageUtilization().entrySet()) {
+                if (entry.getValue() > highest) {
+                    highest = entry.getValue();
+                    bottleneck = entry.getKey();
+                }
+            }
+            return bottleneck;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.liuyang.thread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 线程池的运行指标
+ * <p>
+ * 记录每个命令的排队时间与执行时间, 执行完成与失败的数量, 以及每个线程忙碌与空闲的时间。
+ * 计数使用 LongAdder, 线程的忙闲时间只由线程自己写入, 记录过程均不加锁。
+ * @author liuyang
+ */
+class PoolMetrics {
+    private final long startTime = System.nanoTime();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram execution = new LatencyHistogram();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final CopyOnWriteArrayList<Worker> workers = new CopyOnWriteArrayList<Worker>();
+    /**
+     * 已退出线程的忙闲时间
+     */
+    private final LongAdder retiredBusy = new LongAdder();
+    private final LongAdder retiredIdle = new LongAdder();
+
+    /**
+     * 记录一个命令的执行
+     * @param task
+     * @param start 开始执行的时间
+     * @param end 执行完毕的时间
+     * @param success 执行时是否未抛出异常
+     */
+    void executed(ThreadTask<?> task, long start, long end, boolean success) {
+        queueWait.record(start - task.submitTime);
+        execution.record(end - start);
+        if (success) {
+            completed.increment();
+        } else {
+            failed.increment();
+        }
+    }
+
+    /**
+     * 登记一个线程, 线程退出时应调用 {@link #retire(Worker)}
+     * @param name
+     * @return
+     */
+    Worker register(String name) {
+        Worker worker = new Worker(name);
+        workers.add(worker);
+        return worker;
+    }
+
+    void retire(Worker worker) {
+        workers.remove(worker);
+        retiredBusy.add(worker.busyNanos);
+        retiredIdle.add(worker.idleNanos);
+    }
+
+    /**
+     * 执行完毕的命令数量, 包括抛出异常的
+     * @return
+     */
+    long getFinished() {
+        return completed.sum() + failed.sum();
+    }
+
+    /**
+     * 所有命令执行时间的总和(纳秒)
+     * @return
+     */
+    long getExecutionNanos() {
+        return execution.getTotal();
+    }
+
+    /**
+     * 生成快照
+     * @param queueDepth 当前排队的命令数量
+     * @param running 正在执行的线程数量
+     * @param rejected 被拒绝的命令数量
+     * @return
+     */
+    PoolMetricsSnapshot snapshot(int queueDepth, int running, long rejected) {
+        long busy = retiredBusy.sum();
+        long idle = retiredIdle.sum();
+        List<PoolMetricsSnapshot.WorkerTime> times = new ArrayList<PoolMetricsSnapshot.WorkerTime>();
+        for (Worker worker : workers) {
+            times.add(new PoolMetricsSnapshot.WorkerTime(worker.name, worker.busyNanos, worker.idleNanos, worker.executed));
+            busy += worker.busyNanos;
+            idle += worker.idleNanos;
+        }
+        return new PoolMetricsSnapshot(System.nanoTime() - startTime, queueDepth, running,
+                completed.sum(), failed.sum(), rejected,
+                new PoolMetricsSnapshot.Latency(queueWait), new PoolMetricsSnapshot.Latency(execution),
+                busy, idle, times);
+    }
+
+    /**
+     * 单个线程的忙闲时间, 只由该线程写入
+     */
+    final static class Worker {
+        private final String name;
+        private volatile long busyNanos = 0;
+        private volatile long idleNanos = 0;
+        private volatile long executed = 0;
+
+        private Worker(String name) {
+            this.name = name;
+        }
+
+        void idle(long nanos) {
+            idleNanos += nanos;
+        }
+
+        void busy(long nanos) {
+            busyNanos += nanos;
+            executed++;
+        }
+    }
+}
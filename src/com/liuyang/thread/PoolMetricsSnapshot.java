@@ -0,0 +1,242 @@
+package com.liuyang.thread;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 线程池运行指标的快照, 生成后不再改变。耗时均以纳秒计。
+ * @author liuyang
+ */
+public final class PoolMetricsSnapshot {
+    private final long uptimeNanos;
+    private final int queueDepth;
+    private final int running;
+    private final long completed;
+    private final long failed;
+    private final long rejected;
+    private final Latency queueWait;
+    private final Latency execution;
+    private final long busyNanos;
+    private final long idleNanos;
+    private final List<WorkerTime> workers;
+
+    PoolMetricsSnapshot(long uptimeNanos, int queueDepth, int running, long completed, long failed, long rejected,
+            Latency queueWait, Latency execution, long busyNanos, long idleNanos, List<WorkerTime> workers) {
+        this.uptimeNanos = uptimeNanos;
+        this.queueDepth = queueDepth;
+        this.running = running;
+        this.completed = completed;
+        this.failed = failed;
+        this.rejected = rejected;
+        this.queueWait = queueWait;
+        this.execution = execution;
+        this.busyNanos = busyNanos;
+        this.idleNanos = idleNanos;
+        this.workers = Collections.unmodifiableList(workers);
+    }
+
+    /**
+     * 开始记录以来经过的时间
+     * @return
+     */
+    public long getUptimeNanos() {
+        return uptimeNanos;
+    }
+
+    /**
+     * 排队等待执行的命令数量
+     * @return
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * 正在执行命令的线程数量
+     * @return
+     */
+    public int getRunning() {
+        return running;
+    }
+
+    /**
+     * 执行完毕的命令数量
+     * @return
+     */
+    public long getCompleted() {
+        return completed;
+    }
+
+    /**
+     * 执行时抛出异常的命令数量
+     * @return
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * 因容量限制被拒绝的命令数量
+     * @return
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * 每秒执行的命令数量, 按开始记录以来的平均值计算
+     * @return
+     */
+    public double getThroughput() {
+        return uptimeNanos > 0 ? (completed + failed) * (double) TimeUnit.SECONDS.toNanos(1) / uptimeNanos : 0;
+    }
+
+    /**
+     * 命令从提交到开始执行的时间
+     * @return
+     */
+    public Latency getQueueWait() {
+        return queueWait;
+    }
+
+    /**
+     * 命令的执行时间
+     * @return
+     */
+    public Latency getExecution() {
+        return execution;
+    }
+
+    /**
+     * 所有线程(含已退出的)执行命令的时间合计
+     * @return
+     */
+    public long getBusyNanos() {
+        return busyNanos;
+    }
+
+    /**
+     * 所有线程(含已退出的)等待命令的时间合计。线程正在进行中的等待在取得下一个命令时才计入。
+     * @return
+     */
+    public long getIdleNanos() {
+        return idleNanos;
+    }
+
+    /**
+     * 线程忙碌时间所占的比例
+     * @return
+     */
+    public double getUtilization() {
+        long total = busyNanos + idleNanos;
+        return total > 0 ? (double) busyNanos / total : 0;
+    }
+
+    /**
+     * 存活线程各自的忙闲时间, 虚拟线程模式下为空
+     * @return
+     */
+    public List<WorkerTime> getWorkers() {
+        return workers;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("queue=%d, running=%d, completed=%d, failed=%d, rejected=%d, throughput=%.1f/s, utilization=%.2f, wait={%s}, execution={%s}",
+                queueDepth, running, completed, failed, rejected, getThroughput(), getUtilization(), queueWait, execution);
+    }
+
+    /**
+     * 耗时分布
+     */
+    public final static class Latency {
+        private final long[] counts;
+        private final long count;
+        private final long total;
+        private final long max;
+
+        Latency(LatencyHistogram histogram) {
+            this.counts = histogram.copyCounts();
+            long count = 0;
+            for (long n : counts) {
+                count += n;
+            }
+            this.count = count;
+            this.total = histogram.getTotal();
+            this.max = histogram.getMax();
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count > 0 ? (double) total / count : 0;
+        }
+
+        /**
+         * 百分位数, 误差不超过 1/{@value LatencyHistogram#SUB_BUCKETS}
+         * @param percentile 0 至 100
+         * @return
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count);
+            if (rank < 1) rank = 1;
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(LatencyHistogram.highestValueOf(i), max);
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d, mean=%.0fns, p50=%dns, p99=%dns, max=%dns",
+                    count, getMean(), getPercentile(50), getPercentile(99), max);
+        }
+    }
+
+    /**
+     * 单个线程的忙闲时间
+     */
+    public final static class WorkerTime {
+        private final String name;
+        private final long busyNanos;
+        private final long idleNanos;
+        private final long executed;
+
+        WorkerTime(String name, long busyNanos, long idleNanos, long executed) {
+            this.name = name;
+            this.busyNanos = busyNanos;
+            this.idleNanos = idleNanos;
+            this.executed = executed;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getBusyNanos() {
+            return busyNanos;
+        }
+
+        public long getIdleNanos() {
+            return idleNanos;
+        }
+
+        /**
+         * 该线程执行的命令数量
+         * @return
+         */
+        public long getExecuted() {
+            return executed;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.liuyang.thread;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按线程标识缓存已完成的执行结果
+ * <p>
+ * 结果以已完成的 future 保存, 超过存活时间后失效; 数量超过上限时按写入顺序淘汰最早的结果。
+ * 读写均不加锁, 失效的结果在读取或淘汰时移除。
+ * @author liuyang
+ * @param <T>
+ */
+class ResultCache<T> {
+    private final ConcurrentHashMap<String, Entry<T>> entries = new ConcurrentHashMap<String, Entry<T>>();
+    /**
+     * 写入顺序, 用于按数量淘汰
+     */
+    private final ConcurrentLinkedQueue<Entry<T>> order = new ConcurrentLinkedQueue<Entry<T>>();
+    private final AtomicInteger orderSize = new AtomicInteger();
+    private final int maxSize;
+    private final long ttlNanos;
+
+    /**
+     * @param maxSize 最多缓存的结果数量
+     * @param ttlNanos 结果的存活时间(纳秒), 不大于 0 时不过期
+     */
+    ResultCache(int maxSize, long ttlNanos) {
+        this.maxSize = Math.max(1, maxSize);
+        this.ttlNanos = ttlNanos;
+    }
+
+    /**
+     * 取出未失效的结果
+     * @param id
+     * @return 没有或已失效时返回 null
+     */
+    CompletableFuture<T> get(String id) {
+        Entry<T> entry = entries.get(id);
+        if (entry == null) return null;
+        if (ttlNanos > 0 && System.nanoTime() - entry.expireAt > 0) {
+            entries.remove(id, entry);
+            return null;
+        }
+        return entry.result;
+    }
+
+    /**
+     * 缓存已完成的结果, 超过数量上限时淘汰最早写入的结果
+     * @param id
+     * @param result
+     */
+    void put(String id, CompletableFuture<T> result) {
+        Entry<T> entry = new Entry<T>(id, result, System.nanoTime() + ttlNanos);
+        entries.put(id, entry);
+        order.offer(entry);
+        // 每个缓存的结果在写入顺序队列中都有记录, 限制队列长度即可限制缓存数量
+        orderSize.incrementAndGet();
+        Entry<T> eldest = null;
+        while (orderSize.get() > maxSize && (eldest = order.poll()) != null) {
+            orderSize.decrementAndGet();
+            entries.remove(eldest.id, eldest);
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    void clear() {
+        entries.clear();
+        order.clear();
+        orderSize.set(0);
+    }
+
+    private final static class Entry<T> {
+        final String id;
+        final CompletableFuture<T> result;
+        final long expireAt;
+
+        Entry(String id, CompletableFuture<T> result, long expireAt) {
+            this.id = id;
+            this.result = result;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.liuyang.thread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 异步批量投递命令的返回值
+ * <p>
+ * 作为线程池的回调程序, 执行线程只将返回值放入队列即返回; 唯一的投递线程攒够 batchSize 个返回值, 
+ * 或自第一个返回值到达起等待 linger 之后, 将整批交给 {@link BatchResultCallBack}。
+ * 回调程序较慢时返回值在队列中积压, 但不再拖慢线程池。close() 在队列末尾放入结束标记, 投递线程交出剩余的返回值再退出。
+ * @author liuyang
+ * @param <T>
+ */
+class ResultDelivery<T> implements ThreadResultCallBack<T>, Runnable {
+    private final BatchResultCallBack<T> sink;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final LinkedBlockingQueue<ThreadResult<T>> results = new LinkedBlockingQueue<ThreadResult<T>>();
+    /**
+     * close() 放入的结束标记, 投递线程取到后交出剩余的返回值再退出
+     */
+    private final ThreadResult<T> end = new ThreadResult<T>(null, null);
+    private final Thread worker;
+    private volatile boolean closed = false;
+    /**
+     * 投递线程已取到结束标记
+     */
+    private volatile boolean ended = false;
+    /**
+     * 投递线程已退出, 之后到达的返回值由调用线程投递
+     */
+    private volatile boolean finished = false;
+
+    /**
+     * @param sink
+     * @param batchSize 每批最多的返回值数量
+     * @param lingerNanos 凑批的最长等待时间, 不大于 0 时有多少投递多少
+     * @param name 投递线程的名称
+     */
+    ResultDelivery(BatchResultCallBack<T> sink, int batchSize, long lingerNanos, String name) {
+        this.sink = sink;
+        this.batchSize = Math.max(1, batchSize);
+        this.lingerNanos = Math.max(0, lingerNanos);
+        this.worker = new Thread(this, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    @Override
+    public void callback(String threadId, T result) {
+        results.offer(new ThreadResult<T>(threadId, result));
+        // 关闭前读到本对象的执行线程可能在投递线程退出之后才放入返回值, 由其自行投递
+        if (finished) {
+            synchronized (this) {
+                drain(new ArrayList<ThreadResult<T>>(batchSize));
+            }
+        }
+    }
+
+    /**
+     * 尚未投递的返回值数量
+     * @return
+     */
+    int getPending() {
+        int pending = results.size();
+        return closed && ended == false ? Math.max(0, pending - 1) : pending;
+    }
+
+    /**
+     * 停止投递线程, 已收到的返回值仍会投递。不中断投递线程, 正在执行的 sink 回调不受影响。
+     * 投递线程退出后才到达的返回值由执行线程直接投递。
+     */
+    void close() {
+        if (closed) return;
+        closed = true;
+        results.offer(end);
+    }
+
+    @Override
+    public void run() {
+        List<ThreadResult<T>> batch = new ArrayList<ThreadResult<T>>(batchSize);
+        while (true) {
+            try {
+                ThreadResult<T> first = results.take();
+                if (first != end) {
+                    batch.add(first);
+                    collect(batch);
+                } else {
+                    ended = true;
+                }
+            } catch (InterruptedException e) {
+                // 不响应中断, 只以结束标记退出
+            }
+            if (ended) break;
+            deliver(batch);
+        }
+        synchronized (this) {
+            deliver(batch);
+            drain(batch);
+            finished = true;
+            // 读到标记之前放入、上面未取到的返回值; 之后放入的由执行线程自行投递
+            drain(batch);
+        }
+    }
+
+    // 交出队列中的全部返回值
+    private void drain(List<ThreadResult<T>> batch) {
+        while (results.drainTo(batch, batchSize) > 0) {
+            deliver(batch);
+        }
+    }
+
+    // 在 linger 时间内凑满一批, 取到结束标记时停止
+    private void collect(List<ThreadResult<T>> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < batchSize) {
+            ThreadResult<T> next = results.poll();
+            if (next == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) break;
+                next = results.poll(remaining, TimeUnit.NANOSECONDS);
+                if (next == null) break;
+            }
+            if (next == end) {
+                ended = true;
+                break;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void deliver(List<ThreadResult<T>> batch) {
+        if (batch.isEmpty()) return;
+        try {
+            sink.callback(new ArrayList<ThreadResult<T>>(batch));
+        } catch (Throwable e) {
+            e.printStackTrace();
+        } finally {
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.liuyang.thread;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 定时或周期执行的命令, 同时也是其 future
+ * <p>
+ * 命令登记在 {@link TimerWheel} 上, 到期时才交给线程池的线程执行, 等待期间不占用线程。
+ * 周期命令每次执行完毕后再次登记, 同一命令不会并发执行; 抛出异常或被取消后不再执行。
+ * 单次命令的 future 以返回值完成, 周期命令的 future 只在取消或异常时完成, 每次的返回值交给线程池的回调程序。
+ * @author liuyang
+ * @param <T>
+ */
+class ScheduledCommand<T> extends CompletableFuture<T> implements ScheduledFuture<T>, Runnable, Callable<T> {
+    private final String id;
+    private final Callable<T> command;
+    /**
+     * 执行周期(纳秒): 大于 0 为固定频率, 小于 0 为固定间隔, 0 为只执行一次
+     */
+    private final long period;
+    private final TimerWheel wheel;
+    private final Consumer<ThreadTask<T>> dispatcher;
+    /**
+     * 下次执行的时间, 以 System.nanoTime() 为刻度
+     */
+    private volatile long time;
+    private volatile TimerWheel.Timeout timeout = null;
+    /**
+     * 最近一次交给线程池的命令
+     */
+    private volatile ThreadTask<T> dispatched = null;
+
+    /**
+     * @param id 线程标识
+     * @param command
+     * @param delayNanos 首次执行的延迟时间(纳秒)
+     * @param period 执行周期(纳秒), 见 {@link #period}
+     * @param wheel 时间轮
+     * @param dispatcher 将到期的命令交给线程池
+     */
+    ScheduledCommand(String id, Callable<T> command, long delayNanos, long period, TimerWheel wheel, Consumer<ThreadTask<T>> dispatcher) {
+        this.id = id;
+        this.command = command;
+        this.period = period;
+        this.wheel = wheel;
+        this.dispatcher = dispatcher;
+        this.time = System.nanoTime() + delayNanos;
+    }
+
+    /**
+     * 按下次执行的时间登记到时间轮, 时间轮已停止时取消本命令
+     */
+    void schedule() {
+        try {
+            TimerWheel.Timeout registered = wheel.newTimeout(this, time - System.nanoTime());
+            timeout = registered;
+            // 登记期间被取消
+            if (isDone()) registered.cancel();
+        } catch (RejectedExecutionException e) {
+            cancel(false);
+        }
+    }
+
+    /**
+     * 到期, 由走时线程调用: 将命令交给线程池
+     */
+    @Override
+    public void run() {
+        if (isDone()) return;
+        ThreadTask<T> task = period == 0
+                ? new ThreadTask<T>(id, command, null, this)
+                : new ThreadTask<T>(id, this);
+        dispatched = task;
+        dispatcher.accept(task);
+    }
+
+    /**
+     * 执行一次周期命令, 由线程池的线程调用。执行完毕后计算下次执行的时间并再次登记。
+     */
+    @Override
+    public T call() throws Exception {
+        T result = null;
+        try {
+            result = command.call();
+        } catch (Throwable e) {
+            completeExceptionally(e);
+            throw e;
+        }
+        if (isDone() == false) {
+            time = period > 0 ? time + period : System.nanoTime() - period;
+            schedule();
+        }
+        return result;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        // 已完成时不再取消交出的命令: 单次命令的 ThreadTask 以本对象为 future, 其 cancel() 会回到这里,
+        // 而 CompletableFuture.cancel() 对已取消的 future 仍返回 true
+        if (isDone()) return isCancelled();
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            TimerWheel.Timeout registered = timeout;
+            if (registered != null) registered.cancel();
+            ThreadTask<T> task = dispatched;
+            if (task != null) task.cancel();
+        }
+        return cancelled;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(time - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+        if (other == this) return 0;
+        long diff = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+        return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+    }
+}
@@ -0,0 +1,105 @@
+package com.liuyang.thread;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按键串行的命令队列
+ * <p>
+ * 每个键一个队列, 同一时刻只有队首的命令交给线程池, 执行完毕后才放出下一个, 因此同一键的命令严格按提交顺序执行,
+ * 不同键的命令仍可并行。队列在键的最后一个命令执行完毕时移除, 入队与出队均在 ConcurrentHashMap 的桶锁内完成。
+ * @author liuyang
+ * @param <T>
+ */
+class SerialCommandQueues<T> {
+    private final ConcurrentHashMap<String, ArrayDeque<ThreadTask<T>>> queues = new ConcurrentHashMap<String, ArrayDeque<ThreadTask<T>>>();
+    /**
+     * 在队列中等待前一个命令执行完毕的命令数量
+     */
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * 命令加入键的队列
+     * @param task 已设置 {@link ThreadTask#serialKey} 的命令
+     * @return 该键没有正在排队或执行的命令时返回 task, 应立即交给线程池; 否则返回 null
+     */
+    ThreadTask<T> offer(ThreadTask<T> task) {
+        boolean[] head = new boolean[1];
+        queues.compute(task.serialKey, (key, queue) -> {
+            if (queue == null) queue = new ArrayDeque<ThreadTask<T>>();
+            queue.offer(task);
+            head[0] = queue.size() == 1;
+            if (head[0] == false) waiting.incrementAndGet();
+            return queue;
+        });
+        return head[0] ? task : null;
+    }
+
+    /**
+     * 键的队首命令已执行完毕或被丢弃
+     * @param task
+     * @return 同一键的下一个命令, 应交给线程池; 没有时返回 null
+     */
+    ThreadTask<T> complete(ThreadTask<T> task) {
+        Object[] next = new Object[1];
+        queues.computeIfPresent(task.serialKey, (key, queue) -> {
+            if (queue.peekFirst() != task) return queue;
+            queue.pollFirst();
+            next[0] = queue.peekFirst();
+            if (next[0] != null) waiting.decrementAndGet();
+            return queue.isEmpty() ? null : queue;
+        });
+        @SuppressWarnings("unchecked")
+        ThreadTask<T> nextTask = (ThreadTask<T>) next[0];
+        return nextTask;
+    }
+
+    /**
+     * 等待前一个命令执行完毕的命令数量
+     * @return
+     */
+    int getWaiting() {
+        return waiting.get();
+    }
+
+    /**
+     * 清空所有队列, 取出等待中的命令而不取消
+     * @param sink 接收等待中的命令
+     * @return 取出的命令数量
+     */
+    int drainTo(Collection<? super ThreadTask<T>> sink) {
+        int n = 0;
+        for (String key : queues.keySet()) {
+            ArrayDeque<ThreadTask<T>> queue = queues.remove(key);
+            if (queue == null) continue;
+            // 队首命令已交给线程池
+            queue.pollFirst();
+            ThreadTask<T> task = null;
+            while ((task = queue.pollFirst()) != null) {
+                waiting.decrementAndGet();
+                sink.add(task);
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * 清空所有队列, 并取消等待中的命令
+     */
+    void clear() {
+        for (String key : queues.keySet()) {
+            ArrayDeque<ThreadTask<T>> queue = queues.remove(key);
+            if (queue == null) continue;
+            // 队首命令已交给线程池, 由线程池负责取消
+            queue.pollFirst();
+            ThreadTask<T> task = null;
+            while ((task = queue.pollFirst()) != null) {
+                waiting.decrementAndGet();
+                task.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.liuyang.thread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+
+/**
+ * 分片线程池: 由若干相互独立的 FixedThreadPool 组成, 各有自己的队列、commit() 的锁与线程
+ * <p>
+ * 单个 FixedThreadPool 的提交与取命令集中于同一组队列, 生产者与线程越多争用越重; 分片后每个分片只承担一部分生产者与线程,
+ * 提交与调度的吞吐量可以随分片数量增长。命名的命令按线程标识的哈希固定分到一个分片, 同一标识的命令总在同一分片中排队与替换,
+ * 相关的数据也总由同一组线程处理; 匿名的命令由每个提交线程各自轮流分配, 不争用共享的计数。
+ * 轮到的分片积压远多于随机另选的一个分片时改投后者(两次选择), 积压因此不会集中于个别分片; 命名的命令为保持替换语义不改投。
+ * <p>
+ * commit() 只提交自上次 commit() 以来有新命令的分片。分片的其他功能(分组、限流、超时等)以 {@link #shard(int)} 逐个设置,
+ * 或以 {@link #forEachShard(Consumer)} 统一设置。
+ * @author liuyang
+ * @param <T>
+ */
+public class ShardedThreadPool<T> {
+    /**
+     * 轮到的分片积压超过另一分片的倍数时改投
+     */
+    private final static int REBALANCE_RATIO = 2;
+
+    private final FixedThreadPool<T>[] shards;
+    /**
+     * 各分片自上次 commit() 以来是否有新命令, 1 表示有
+     */
+    private final AtomicIntegerArray dirty;
+    /**
+     * 积压的差距小于该数量时不改投, 以免为少量命令打乱轮转
+     */
+    private final int rebalanceSlack;
+    /**
+     * 每个提交线程各自的轮转位置, 初值随机以免各线程从同一分片开始
+     */
+    private final ThreadLocal<int[]> cursor = ThreadLocal.withInitial(() -> new int[] { ThreadLocalRandom.current().nextInt() });
+
+    /**
+     * @param shardCount 分片数量
+     * @param threadsPerShard 每个分片的线程数量
+     */
+    public ShardedThreadPool(int shardCount, int threadsPerShard) {
+        this(shardCount, threadsPerShard, null);
+    }
+
+    /**
+     * @param shardCount 分片数量
+     * @param threadsPerShard 每个分片的线程数量
+     * @param callback 所有分片共用的结果回调, 可以为 null
+     */
+    public ShardedThreadPool(int shardCount, int threadsPerShard, ThreadResultCallBack<T> callback) {
+        if (shardCount < 1) throw new IllegalArgumentException("shardCount must be positive");
+        shards = newShards(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new FixedThreadPool<T>(threadsPerShard, callback);
+        }
+        dirty = new AtomicIntegerArray(shardCount);
+        rebalanceSlack = Math.max(1, threadsPerShard);
+    }
+
+    /**
+     * 泛型数组只能以原始类型创建
+     * @param length
+     * @return
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static <T> FixedThreadPool<T>[] newShards(int length) {
+        return (FixedThreadPool<T>[]) new FixedThreadPool[length];
+    }
+
+    /**
+     * 提交匿名线程命令, 需要 commit() 之后才会执行
+     * @param command
+     * @return
+     */
+    public ShardedThreadPool<T> submit(Callable<T> command) {
+        int index = next();
+        shards[index].submit(command);
+        touch(index);
+        return this;
+    }
+
+    /**
+     * 提交线程命令, 分到 threadId 的哈希所对应的分片, 需要 commit() 之后才会执行
+     * @param threadId
+     * @param command
+     * @return
+     */
+    public ShardedThreadPool<T> submit(String threadId, Callable<T> command) {
+        int index = indexOf(threadId);
+        shards[index].submit(threadId, command);
+        touch(index);
+        return this;
+    }
+
+    /**
+     * 提交线程命令, 以 callBack 接收结果
+     * @param threadId
+     * @param command
+     * @param callBack
+     * @return
+     */
+    public ShardedThreadPool<T> submit(String threadId, Callable<T> command, ThreadResultCallBack<T> callBack) {
+        int index = indexOf(threadId);
+        shards[index].submit(threadId, command, callBack);
+        touch(index);
+        return this;
+    }
+
+    /**
+     * 提交匿名线程命令, 返回代表其执行结果的 future
+     * @param command
+     * @return
+     */
+    public CompletableFuture<T> submitAsync(Callable<T> command) {
+        int index = next();
+        CompletableFuture<T> future = shards[index].submitAsync(command);
+        touch(index);
+        return future;
+    }
+
+    /**
+     * 提交线程命令, 返回代表其执行结果的 future
+     * @param threadId
+     * @param command
+     * @return
+     */
+    public CompletableFuture<T> submitAsync(String threadId, Callable<T> command) {
+        int index = indexOf(threadId);
+        CompletableFuture<T> future = shards[index].submitAsync(threadId, command);
+        touch(index);
+        return future;
+    }
+
+    /**
+     * 提交自上次 commit() 以来有新命令的分片。先清除标记再提交, 提交期间新到的命令会重新设置标记, 不会遗漏。
+     * @return
+     */
+    public ShardedThreadPool<T> commit() {
+        for (int i = 0; i < shards.length; i++) {
+            if (dirty.get(i) != 0) {
+                dirty.set(i, 0);
+                shards[i].commit();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 该标识的命令是否尚未执行完毕
+     * @param threadId
+     * @return
+     */
+    public boolean has(String threadId) {
+        return shards[indexOf(threadId)].has(threadId);
+    }
+
+    /**
+     * 取消该标识的命令
+     * @param threadId
+     * @return
+     * @see FixedThreadPool#cancel(String)
+     */
+    public boolean cancel(String threadId) {
+        return shards[indexOf(threadId)].cancel(threadId);
+    }
+
+    /**
+     * 命名的命令所在的分片
+     * @param threadId
+     * @return
+     */
+    public int indexOf(String threadId) {
+        int h = threadId.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), shards.length);
+    }
+
+    /**
+     * @param index
+     * @return 第 index 个分片
+     */
+    public FixedThreadPool<T> shard(int index) {
+        return shards[index];
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * 对每个分片执行同样的设置, 如 {@code pool.forEachShard(shard -> shard.metrics(true))}
+     * @param action
+     * @return
+     */
+    public ShardedThreadPool<T> forEachShard(Consumer<? super FixedThreadPool<T>> action) {
+        for (FixedThreadPool<T> shard : shards) action.accept(shard);
+        return this;
+    }
+
+    /**
+     * 是否等待将命令的注入
+     * @param flag
+     * @return
+     */
+    public ShardedThreadPool<T> wait(boolean flag) {
+        for (FixedThreadPool<T> shard : shards) shard.wait(flag);
+        return this;
+    }
+
+    public void start() {
+        for (FixedThreadPool<T> shard : shards) shard.start();
+    }
+
+    /**
+     * 各分片剩余未执行的命令数量之和
+     * @return
+     */
+    public int getRemain() {
+        int remain = 0;
+        for (FixedThreadPool<T> shard : shards) remain += shard.getRemain();
+        return remain;
+    }
+
+    /**
+     * 各分片剩余未执行的命令数量
+     * @return
+     */
+    public int[] getShardRemains() {
+        int[] remains = new int[shards.length];
+        for (int i = 0; i < shards.length; i++) remains[i] = shards[i].getRemain();
+        return remains;
+    }
+
+    /**
+     * 关闭所有分片, 已提交的命令执行完毕后线程退出
+     * @see FixedThreadPool#shutdown()
+     */
+    public void shutdown() {
+        for (FixedThreadPool<T> shard : shards) shard.shutdown();
+    }
+
+    /**
+     * 立即关闭所有分片
+     * @return 各分片尚未开始执行的命令, 按分片顺序排列
+     * @see FixedThreadPool#shutdownNow()
+     */
+    public List<Callable<T>> shutdownNow() {
+        List<Callable<T>> unstarted = new ArrayList<Callable<T>>();
+        for (FixedThreadPool<T> shard : shards) unstarted.addAll(shard.shutdownNow());
+        return unstarted;
+    }
+
+    public boolean isShutdown() {
+        return shards[0].isShutdown();
+    }
+
+    /**
+     * 等待所有分片终止
+     * @param timeout
+     * @param unit
+     * @return 全部分片在时限内终止时返回 true
+     * @throws InterruptedException
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (FixedThreadPool<T> shard : shards) {
+            if (shard.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS) == false) return false;
+        }
+        return true;
+    }
+
+    public void close() {
+        for (FixedThreadPool<T> shard : shards) shard.close();
+    }
+
+    // 标记分片有新命令, 已标记时只读不写, 以免多个提交线程反复写同一缓存行
+    private void touch(int index) {
+        if (dirty.get(index) == 0) dirty.set(index, 1);
+    }
+
+    // 匿名命令的分片: 本线程轮到的分片积压过多时改投随机另选的分片
+    private int next() {
+        int n = shards.length;
+        if (n == 1) return 0;
+        int[] position = cursor.get();
+        int index = Math.floorMod(position[0]++, n);
+        int other = (index + 1 + ThreadLocalRandom.current().nextInt(n - 1)) % n;
+        int backlog = shards[index].getRemain();
+        if (backlog < rebalanceSlack) return index;
+        int otherBacklog = shards[other].getRemain();
+        return backlog > otherBacklog * REBALANCE_RATIO + rebalanceSlack ? other : index;
+    }
+}
@@ -4,13 +4,25 @@
 package com.liuyang.thread;
 
 import java.lang.Thread.State;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * 简易线程池
@@ -25,14 +37,46 @@ public class SimpleThreadPool<T> {
 	//private static int HAD_THREADPOOL_NUMBER = 0;
 	
 	private int limit, useableNum = 0;
-	private int waitDelay = 100;
+	/**核心线程数量, 空闲时不会被回收**/
+	private int coreLimit = 0;
+	/**超出核心数量的线程空闲多久(纳秒)后被回收, 0 表示不回收**/
+	private long keepAliveNanos = 0;
+	/**存活的线程数量**/
+	private final AtomicInteger liveThreads = new AtomicInteger();
+	/**已被回收但尚未退出的线程, 其位置可以启动新线程**/
+	private final Set<Thread> reapedThreads = ConcurrentHashMap.newKeySet();
+	private volatile boolean bThreadStarted = false;
 	private ThreadResultCallBack<T> callback;
 	private Thread[] threads = null;
 	private int[] arrayThreadId = null;
 	private List<ThreadPoolHandler> handler = null;
-	private Map<String, Callable<T>> commands = new LinkedHashMap<String, Callable<T>>();
-	private boolean bWaitForCommand = false;
-	private boolean bThreadTerminal = false;
+	private CommandQueue<T> commands = new CommandQueue<T>();
+	/**尚未被线程取走的指令, 同一标识再次提交时替换指令**/
+	private ConcurrentHashMap<String, ThreadTask<T>> commandIndex = new ConcurrentHashMap<String, ThreadTask<T>>();
+	private volatile boolean bWaitForCommand = false;
+	private volatile boolean bThreadTerminal = false;
+	private final BooleanSupplier waitingForCommand = () -> bWaitForCommand && bThreadTerminal == false;
+	/**虚拟线程模式下的调度程序及其线程**/
+	private VirtualThreadDispatcher<T> virtualDispatcher = null;
+	private Thread virtualDispatchThread = null;
+	/**待执行指令的容量限制, 为 null 时不限制**/
+	private volatile CommandCapacity commandCapacity = null;
+	/**定时指令的时间轮, 首次登记定时指令时创建**/
+	private TimerWheel timerWheel = null;
+	/**按键串行执行的指令**/
+	private final SerialCommandQueues<T> serialCommands = new SerialCommandQueues<T>();
+	/**合并同一标识的指令, 未启用时为 null**/
+	private volatile CommandCoalescer<T> coalescer = null;
+	/**运行指标, 未启用时为 null**/
+	private volatile PoolMetrics metrics = null;
+	/**以 JMX 发布运行指标的名称, 未发布时为 null**/
+	private ObjectName metricsName = null;
+	/**异步批量投递返回值, 启用时取代 callback, 未启用时为 null**/
+	private volatile ResultDelivery<T> resultDelivery = null;
+	/**是否已 shutdown(), 此后不再接受新指令**/
+	private volatile boolean bShutdown = false;
+	/**未完成指令的计数, 用于等待线程池静止**/
+	private final CompletionTracker completion = new CompletionTracker();
 	
 	/**
 	 * 简易线程池初始化
@@ -42,13 +86,10 @@ public class SimpleThreadPool<T> {
 	public SimpleThreadPool(int limit, ThreadResultCallBack<T> callback) {
 		//int remains = (MAX_THREADPOOL_NUMBER - HAD_THREADPOOL_NUMBER);
     	this.limit = limit; //remains > limit ? limit : remains;
+    	this.coreLimit = limit;
     	this.handler = new ArrayList<ThreadPoolHandler>();
-    	this.callback = callback != null ? callback : new ThreadResultCallBack<T>() {
-			@Override
-			public void callback(String threadId, T result) {
-				
-			};
-    	};
+    	// 未指定回调程序时不回调, 匿名指令也就无需生成线程标识
+    	this.callback = callback;
     	// 初始化线程池
     	this.threads = new Thread[this.limit];
     	for(int i = 0; i < this.limit; i++) {
@@ -66,20 +107,35 @@ public class SimpleThreadPool<T> {
     	this(limit, null);
     }
     
+	/**
+	 * 简易线程池初始化。待执行的指令多于空闲线程时逐步增加线程至 limit 个, 
+	 * 超出核心数量的线程空闲 keepAliveTime 后被回收, 线程按需启动, 无需调用 restart()。
+	 * @param coreLimit 核心线程数量
+	 * @param limit 线程池最大线程数量
+	 * @param keepAliveTime 超出核心数量的线程的空闲时限
+	 * @param unit
+	 * @param callback 线程池程序回调处理接口
+	 */
+    public SimpleThreadPool(int coreLimit, int limit, long keepAliveTime, TimeUnit unit, ThreadResultCallBack<T> callback) {
+    	this(limit, callback);
+    	this.coreLimit = Math.max(0, Math.min(coreLimit, limit));
+    	this.keepAliveNanos = unit.toNanos(keepAliveTime);
+    }
+    
     protected void finalize() {
     	//handler.clear();
     	commands.clear();
+    	commandIndex.clear();
     	limit = 0;
     	callback = null;
     	//handler = null;
     	commands = null;
+    	commandIndex = null;
     	arrayThreadId = null;
     }
     
     public int getRemainCommands() {
-    	synchronized(commands) {
-    		return commands.size();
-    	}
+    	return commands.size() + serialCommands.getWaiting();
     }
     
     /**
@@ -87,18 +143,439 @@ public class SimpleThreadPool<T> {
      * @param threadId
      * @param command
      */
-    public synchronized void submit(String threadId, Callable<T> command) {
-    	synchronized(commands) {
-    		commands.put(threadId, command);
+    public void submit(String threadId, Callable<T> command) {
+    	enqueue(threadId, command, false);
+    }
+    
+    public void submit(Callable<T> command) {
+        enqueue(null, command, false);
+    }
+    
+    /**
+     * 提交线程指令实例, 返回代表其执行结果的 future
+     * @param threadId
+     * @param command
+     * @return
+     */
+    public CompletableFuture<T> submitAsync(String threadId, Callable<T> command) {
+    	return enqueue(threadId, command, true).getFuture();
+    }
+    
+    public CompletableFuture<T> submitAsync(Callable<T> command) {
+        return enqueue(null, command, true).getFuture();
+    }
+    
+    /**
+     * 延迟 delay 后执行线程指令。指令登记在时间轮上, 到期时才放入指令队列, 等待期间不占用线程。
+     * @param threadId
+     * @param command
+     * @param delay
+     * @param unit
+     * @return
+     */
+    public ScheduledFuture<T> schedule(String threadId, Callable<T> command, long delay, TimeUnit unit) {
+    	return schedule(threadId, command, unit.toNanos(delay), 0);
+    }
+    
+    public ScheduledFuture<T> schedule(Callable<T> command, long delay, TimeUnit unit) {
+        return schedule(null, command, unit.toNanos(delay), 0);
+    }
+    
+    /**
+     * 以固定频率周期执行线程指令, 执行时间超过周期时下一次紧接着执行。指令抛出异常或 future 被取消后不再执行。
+     * @param threadId
+     * @param command
+     * @param initialDelay
+     * @param period
+     * @param unit
+     * @return
+     */
+    public ScheduledFuture<T> scheduleAtFixedRate(String threadId, Callable<T> command, long initialDelay, long period, TimeUnit unit) {
+    	if (period <= 0) throw new IllegalArgumentException("period must be positive");
+    	return schedule(threadId, command, unit.toNanos(initialDelay), unit.toNanos(period));
+    }
+    
+    /**
+     * 以固定间隔周期执行线程指令: 每次执行完毕后再等待 delay 执行下一次
+     * @param threadId
+     * @param command
+     * @param initialDelay
+     * @param delay
+     * @param unit
+     * @return
+     */
+    public ScheduledFuture<T> scheduleWithFixedDelay(String threadId, Callable<T> command, long initialDelay, long delay, TimeUnit unit) {
+    	if (delay <= 0) throw new IllegalArgumentException("delay must be positive");
+    	return schedule(threadId, command, unit.toNanos(initialDelay), -unit.toNanos(delay));
+    }
+    
+    private ScheduledFuture<T> schedule(String threadId, Callable<T> command, long delayNanos, long period) {
+    	checkAccepting();
+    	ScheduledCommand<T> scheduled = new ScheduledCommand<T>(threadId, command, delayNanos, period, timer(), task -> {
+    		completion.begin();
+    		// 先计入未完成的指令再检查: shutdown() 之后、时间轮停止之前到期的指令不再执行
+    		if (bShutdown) {
+    			task.cancel();
+    			finished(1);
+    			return;
+    		}
+    		commands.offer(task);
+    		ensureThreads();
+    	});
+    	scheduled.schedule();
+    	return scheduled;
+    }
+    
+    private synchronized TimerWheel timer() {
+    	if (timerWheel == null) timerWheel = new TimerWheel("SimpleThreadPool-timer");
+    	return timerWheel;
+    }
+    
+    /**
+     * 启用指令合并模式: 以同一线程标识提交的指令在排队或执行期间只执行一次, submitAsync 返回同一个 future。
+     * 应在提交指令之前设置。
+     */
+    public synchronized void coalesce() {
+    	coalescer = new CommandCoalescer<T>(null);
+    }
+    
+    /**
+     * 启用指令合并模式并缓存成功的结果, ttl 内以同一线程标识提交时直接返回结果。最多缓存 maxSize 个, 超出时淘汰最早写入的结果。
+     * @param maxSize
+     * @param ttl 不大于 0 时结果不过期
+     * @param unit
+     */
+    public synchronized void coalesce(int maxSize, long ttl, TimeUnit unit) {
+    	coalescer = new CommandCoalescer<T>(new ResultCache<T>(maxSize, unit.toNanos(ttl)));
+    }
+    
+    /**
+     * 按键串行提交线程指令: 同一 key 的指令严格按提交顺序逐个执行, 不同 key 的指令并行执行。
+     * 同一 key 的指令不会相互替换, 也不受容量限制。
+     * @param key
+     * @param command
+     */
+    public void submitSerial(String key, Callable<T> command) {
+    	enqueueSerial(key, command, false);
+    }
+    
+    public CompletableFuture<T> submitSerialAsync(String key, Callable<T> command) {
+    	return enqueueSerial(key, command, true).getFuture();
+    }
+    
+    private ThreadTask<T> enqueueSerial(String key, Callable<T> command, boolean withFuture) {
+    	checkAccepting();
+    	ThreadTask<T> task = new ThreadTask<T>(key, command, null, withFuture);
+    	task.serialKey = key;
+    	completion.begin();
+    	if (serialCommands.offer(task) != null) {
+    		commands.offer(task);
+    		ensureThreads();
+    	}
+    	return task;
+    }
+    
+    /**
+     * 按键串行的指令执行完毕或被丢弃, 放出同一键的下一个指令
+     * @param task
+     */
+    private void serialCompleted(ThreadTask<T> task) {
+    	ThreadTask<T> next = serialCommands.complete(task);
+    	if (next != null) commands.offer(next);
+    }
+    
+    /**
+     * 批量提交线程指令实例, 整批指令只需一次入队操作
+     * @param commands
+     */
+    public void submitAll(Collection<? extends Callable<T>> commands) {
+    	List<ThreadTask<T>> tasks = new ArrayList<ThreadTask<T>>(commands.size());
+    	for (Callable<T> command : commands) {
+    		// 匿名指令不会重复, 无需登记
+    		tasks.add(new ThreadTask<T>(null, command, null, false));
+    	}
+    	offerAll(tasks);
+    }
+    
+    /**
+     * 批量提交线程指令实例, 以 Map 的键作为线程标识
+     * @param commands
+     */
+    public void submitAll(Map<String, ? extends Callable<T>> commands) {
+    	if (coalescer != null) {
+    		// 合并模式下逐个登记
+    		for (Entry<String, ? extends Callable<T>> entry : commands.entrySet()) {
+    			enqueue(entry.getKey(), entry.getValue(), false);
+    		}
+    		return;
+    	}
+    	List<ThreadTask<T>> tasks = new ArrayList<ThreadTask<T>>(commands.size());
+    	for (Entry<String, ? extends Callable<T>> entry : commands.entrySet()) {
+    		ThreadTask<T> task = new ThreadTask<T>(entry.getKey(), entry.getValue(), null, false);
+    		if (index(task) == task) tasks.add(task);
+    	}
+    	offerAll(tasks);
+    }
+    
+    /**
+     * 新登记的指令批量入队。受容量限制时逐个接纳, 被拒绝时撤销本批其余指令。
+     * @param tasks
+     */
+    private void offerAll(List<ThreadTask<T>> tasks) {
+    	checkAccepting();
+    	completion.begin(tasks.size());
+    	if (commandCapacity == null) {
+    		commands.offerAll(tasks);
+    	} else {
+    		for (int i = 0; i < tasks.size(); i++) {
+    			ThreadTask<T> task = tasks.get(i);
+    			try {
+    				if (admit(task)) commands.offer(task);
+    			} catch (RejectedExecutionException e) {
+    				for (int j = i + 1; j < tasks.size(); j++) {
+    					unindex(tasks.get(j));
+    				}
+    				finished(tasks.size() - i - 1);
+    				ensureThreads();
+    				throw e;
+    			}
+    		}
+    	}
+    	ensureThreads();
+    }
+    
+    /**
+     * 指令入队并唤醒一个等待指令的线程。同一标识的指令尚未被取走时只替换指令。
+     * @param threadId
+     * @param command
+     * @param withFuture
+     * @return
+     */
+    private ThreadTask<T> enqueue(String threadId, Callable<T> command, boolean withFuture) {
+    	checkAccepting();
+    	ThreadTask<T> task = null;
+    	CommandCoalescer<T> coalescer = this.coalescer;
+    	if (coalescer != null && threadId != null) {
+    		task = new ThreadTask<T>(threadId, command, null, new CompletableFuture<T>());
+    		CompletableFuture<T> pending = coalescer.join(threadId, task.getFuture());
+    		if (pending != null) return new ThreadTask<T>(threadId, null, null, pending);
+    	} else {
+    		task = new ThreadTask<T>(threadId, command, null, withFuture);
+    	}
+    	ThreadTask<T> indexed = index(task);
+    	if (indexed == task) {
+    		completion.begin();
+    		if (admit(task)) {
+    			commands.offer(task);
+    			ensureThreads();
+    		}
     	}
+    	return indexed;
     }
     
-    public synchronized void submit(Callable<T> command) {
-        synchronized(commands) {
-            long timeMillis = System.currentTimeMillis();
-            long timeNanos = System.nanoTime();
-            commands.put(timeMillis + "_" + timeNanos, command);
-        }
+    /**
+     * 按容量限制接纳新指令
+     * @param task 已登记但尚未入队的指令
+     * @return 指令可以入队时返回 true; 指令已由提交线程执行时返回 false
+     * @throws RejectedExecutionException 指令被拒绝, 已撤销其登记
+     */
+    private boolean admit(ThreadTask<T> task) {
+    	CommandCapacity capacity = commandCapacity;
+    	if (capacity == null) return true;
+    	CommandCapacity.Outcome outcome = null;
+    	try {
+    		outcome = capacity.acquire(null);
+    	} catch (RejectedExecutionException e) {
+    		unindex(task);
+    		finished(1);
+    		throw e;
+    	}
+    	switch (outcome) {
+    	case CALLER_RUNS:
+    		unindex(task);
+    		execute(task);
+    		return false;
+    	case DROP_OLDEST:
+    		// 丢弃最早排队的指令, 新指令沿用其位置
+    		ThreadTask<T> oldest = commands.poll();
+    		if (oldest != null) {
+    			unindex(oldest);
+    			oldest.cancel();
+    			if (oldest.serialKey != null) serialCompleted(oldest);
+    			finished(1);
+    		}
+    		if (oldest == null || oldest.bounded == false) capacity.forceAcquire();
+    		break;
+    	default:
+    		break;
+    	}
+    	task.bounded = true;
+    	return true;
+    }
+    
+    /**
+     * 指令已被线程取走: 撤销登记, 并释放其占用的容量
+     * @param task
+     */
+    private void taken(ThreadTask<T> task) {
+    	unindex(task);
+    	if (task.bounded) commandCapacity.release();
+    }
+    
+    /**
+     * 执行指令, 完成其 future 并回调处理返回值
+     * @param task
+     */
+    private void execute(ThreadTask<T> task) {
+    	PoolMetrics metrics = this.metrics;
+    	long start = metrics != null ? System.nanoTime() : 0;
+    	boolean success = false;
+    	try {
+    		ResultDelivery<T> delivery = resultDelivery;
+    		success = task.execute(delivery != null ? delivery : callback);
+    	} catch (Exception e) {
+    		e.printStackTrace();
+    	} finally {
+    		if (metrics != null) metrics.executed(task, start, System.nanoTime(), success);
+    		if (task.serialKey != null) serialCompleted(task);
+    		finished(1);
+    	}
+    }
+    
+    /**
+     * n 个指令已执行完毕或被丢弃。shutdown() 之后全部指令完成时终止线程。
+     * @param n
+     */
+    private void finished(int n) {
+    	if (completion.finish(n) && bShutdown) stop();
+    }
+    
+    // shutdown() 之后拒绝新指令
+    private void checkAccepting() {
+    	if (bShutdown) throw new RejectedExecutionException("SimpleThreadPool has been shut down");
+    }
+    
+    /**
+     * 启用或关闭运行指标的记录, 应在 start() 之前启用
+     * @param flag
+     */
+    public synchronized void metrics(boolean flag) {
+    	if (flag == false) {
+    		metrics = null;
+    	} else if (metrics == null) {
+    		metrics = new PoolMetrics();
+    	}
+    }
+    
+    /**
+     * 运行指标的快照
+     * @return 未启用运行指标时返回 null
+     */
+    public PoolMetricsSnapshot getMetrics() {
+    	PoolMetrics metrics = this.metrics;
+    	if (metrics == null) return null;
+    	VirtualThreadDispatcher<T> dispatcher = virtualDispatcher;
+    	int running = dispatcher != null ? dispatcher.getActive() : liveThreads.get();
+    	return metrics.snapshot(getRemainCommands(), running, getOverflowCount(OverflowPolicy.REJECT));
+    }
+    
+    /**
+     * 以 JMX 发布运行指标, 尚未启用时一并启用。stop() 或 shutdownNow() 时注销。
+     * @param name 如 com.liuyang.thread:type=SimpleThreadPool,name=orders
+     * @return
+     * @throws JMException
+     */
+    public synchronized ObjectName registerMBean(String name) throws JMException {
+    	metrics(true);
+    	ObjectName objectName = new ObjectName(name);
+    	ManagementFactory.getPlatformMBeanServer().registerMBean(new ThreadPoolMetrics(this::getMetrics), objectName);
+    	metricsName = objectName;
+    	return objectName;
+    }
+    
+    /**
+     * 注销以 JMX 发布的运行指标
+     */
+    private synchronized void unregisterMBean() {
+    	if (metricsName == null) return;
+    	try {
+    		ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+    	} catch (JMException e) {
+    		e.printStackTrace();
+    	}
+    	metricsName = null;
+    }
+    
+    /**
+     * 启用异步批量投递返回值: 执行线程只将返回值放入队列, 由独立的投递线程攒批后交给 sink, 线程池的回调程序不再调用。
+     * 每批最多 batchSize 个, 自第一个返回值到达起最多等待 linger 凑批; 指令自带的回调程序仍在执行线程中调用。
+     * sink 为 null 时关闭, 关闭或替换时已收到的返回值仍会投递。
+     * @param sink
+     * @param batchSize
+     * @param linger
+     * @param unit
+     */
+    public synchronized void batchResults(BatchResultCallBack<T> sink, int batchSize, long linger, TimeUnit unit) {
+    	ResultDelivery<T> previous = resultDelivery;
+    	resultDelivery = sink != null ? new ResultDelivery<T>(sink, batchSize, unit.toNanos(linger), "SimpleThreadPool-results") : null;
+    	if (previous != null) previous.close();
+    }
+    
+    /**
+     * 异步批量投递模式下, 尚未交给 sink 的返回值数量
+     * @return
+     */
+    public int getPendingResults() {
+    	ResultDelivery<T> delivery = resultDelivery;
+    	return delivery != null ? delivery.getPending() : 0;
+    }
+    
+    /**
+     * 限制待执行指令的数量, 达到上限时按 policy 处理。BLOCK 策略最多等待 timeout, 超时后拒绝, timeout 不大于 0 时不限时。
+     * 应在提交指令之前设置。
+     * @param capacity
+     * @param policy
+     * @param timeout
+     * @param unit
+     */
+    public synchronized void capacity(int capacity, OverflowPolicy policy, long timeout, TimeUnit unit) {
+    	commandCapacity = new CommandCapacity(capacity, policy, unit.toNanos(timeout));
+    }
+    
+    public synchronized void capacity(int capacity, OverflowPolicy policy) {
+    	capacity(capacity, policy, 0, TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * 达到容量上限后, 某种处理结果发生的次数。BLOCK 为提交线程被阻塞的次数, 阻塞超时或被中断计入 REJECT。
+     * @param outcome
+     * @return
+     */
+    public long getOverflowCount(OverflowPolicy outcome) {
+    	CommandCapacity capacity = commandCapacity;
+    	return capacity != null ? capacity.getOverflowCount(outcome) : 0;
+    }
+    
+    /**
+     * 按线程标识登记指令, 匿名指令无需登记
+     * @param task
+     * @return 登记成功返回 task 本身, 需要入队; 否则返回被替换了指令的原有 ThreadTask
+     */
+    private ThreadTask<T> index(ThreadTask<T> task) {
+    	if (task.isAnonymous()) return task;
+    	for (;;) {
+    		ThreadTask<T> exists = commandIndex.putIfAbsent(task.getId(), task);
+    		if (exists == null) return task;
+    		if (exists.replace(task)) return exists;
+    	}
+    }
+    
+    /**
+     * 撤销指令的登记
+     * @param task
+     */
+    private void unindex(ThreadTask<T> task) {
+    	if (task.isAnonymous() == false) commandIndex.remove(task.getId(), task);
     }
     
     private Thread createThread(int i) {
@@ -109,6 +586,28 @@ public class SimpleThreadPool<T> {
 		return newThread;
     }
     
+    /**
+     * 启用虚拟线程模式: 每个指令在一个新的虚拟线程中执行, 同时执行的指令数量以信号量限制为 concurrency 个, 
+     * 而不是 limit 个线程。concurrency 不大于 0 时关闭该模式, 应在 start() 之前设置。
+     * 虚拟线程需要 JDK 21, 低版本退化为每个指令一个平台线程。
+     * @param concurrency
+     */
+    public synchronized void virtualThreads(int concurrency) {
+    	virtualDispatcher = concurrency > 0
+    			? new VirtualThreadDispatcher<T>(commands, waitingForCommand, task -> {
+    				taken(task);
+    				execute(task);
+    			}, concurrency)
+    			: null;
+    }
+    
+    private void startVirtualDispatcher() {
+    	if (virtualDispatchThread == null || virtualDispatchThread.isAlive() == false) {
+    		virtualDispatchThread = new Thread(virtualDispatcher);
+    		virtualDispatchThread.start();
+    	}
+    }
+    
     public synchronized void start() {
     	/*synchronized(DEF_THREADPOOLS) {
         	bThreadTerminal = false; 
@@ -120,9 +619,12 @@ public class SimpleThreadPool<T> {
         	}
     	}*/
 
-    	for(int i = 0; i < this.limit; i++) {
-    		if (threads[i] == null) threads[i] = createThread(i);
+    	bThreadStarted = true;
+    	if (virtualDispatcher != null) {
+    		startVirtualDispatcher();
+    		return;
     	}
+    	ensureThreads();
     }
     
     public synchronized void restart() {
@@ -138,53 +640,181 @@ public class SimpleThreadPool<T> {
         	}
     	}*/
     	bThreadTerminal = false; 
-    	for(int i = 0; i < this.limit; i++) {
-    		if (threads[i] == null) {
-    			threads[i] = createThread(i);
-    		} else if (threads[i].isAlive() == false) {
+    	bThreadStarted = true;
+    	if (virtualDispatcher != null) {
+    		startVirtualDispatcher();
+    		return;
+    	}
+    	ensureThreads();
+    }
+    
+    /**
+     * 按待执行的指令调整线程数量: 至少保持核心线程数量, 指令多于空闲线程时增加线程, 但不超过 limit
+     */
+    private void ensureThreads() {
+    	if (bThreadStarted == false || bThreadTerminal || virtualDispatcher != null) return;
+    	int live = liveThreads.get();
+    	int target = Math.max(coreLimit, Math.min(limit, live + commands.size() - commands.getIdleWorkers()));
+    	if (live < target) startThreads(target);
+    }
+    
+    private synchronized void startThreads(int target) {
+    	for(int i = 0; i < this.limit && liveThreads.get() < target; i++) {
+    		if (threads[i] == null || threads[i].isAlive() == false || reapedThreads.remove(threads[i])) {
+    			liveThreads.incrementAndGet();
     			threads[i] = createThread(i);
     		}
     	}
     }
     
+    /**
+     * 终止所有线程, 并注销以 JMX 发布的运行指标
+     */
     public void stop() {
     	bThreadTerminal = true;
+    	wakeup();
+    	unregisterMBean();
     }
     
-    public void waitFroCommand(boolean flag) {
-    	bWaitForCommand = flag;
+    /**
+     * 取下时间轮, 此后的定时指令不再登记到它上面。应在锁外以 {@link #stopTimer(TimerWheel)} 停止:
+     * 停止时等待走时线程退出, 而到期的定时指令会进入本对象的锁启动线程
+     * @return 未创建时返回 null
+     */
+    private synchronized TimerWheel detachTimer() {
+    	TimerWheel timer = timerWheel;
+    	timerWheel = null;
+    	return timer;
     }
     
-    private class Node<K, V> {
-    	private K key;
-    	private V value;
-    	
-
-    	public Node(K key, V value) {
-    		this.key = key;
-    		this.value = value;
+    /**
+     * 停止时间轮, 并取消尚未到期的定时指令
+     * @param timer
+     */
+    private void stopTimer(TimerWheel timer) {
+    	if (timer == null) return;
+    	for (Runnable scheduled : timer.stop()) {
+    		if (scheduled instanceof ScheduledCommand) ((ScheduledCommand<?>) scheduled).cancel(false);
     	}
-    	
-    	protected void finalize() {
-    		key = null;
-    		value = null;
+    }
+    
+    /**
+     * 平稳关闭: 不再接受新指令, 取消尚未到期的定时指令, 已提交的指令全部执行完毕后线程退出。不等待, 需要时调用 awaitTermination()。
+     */
+    public void shutdown() {
+    	TimerWheel timer = null;
+    	synchronized (this) {
+    		if (bShutdown) return;
+    		bShutdown = true;
+    		timer = detachTimer();
     	}
-    	
-    	public K getKey() {
-    		return key;
+    	// 时间轮停止之后不会再有到期的指令, 此时判断是否已全部执行完毕
+    	stopTimer(timer);
+    	synchronized (this) {
+    		if (completion.get() == 0) stop();
     	}
-    	
-    	public V getValue() {
-    		return value;
+    }
+    
+    /**
+     * 立即关闭: 不再接受新指令, 取出所有尚未开始执行的指令并取消其 future, 中断正在执行指令的线程
+     * @return 尚未开始执行的指令, 按键串行排队的在后
+     */
+    public List<Callable<T>> shutdownNow() {
+    	TimerWheel timer = null;
+    	List<Callable<T>> result = null;
+    	synchronized (this) {
+    		bShutdown = true;
+    		timer = detachTimer();
     	}
+    	// 先停止时间轮, 已到期的指令随后一并取出
+    	stopTimer(timer);
+    	synchronized (this) {
+    		stop();
+    		List<ThreadTask<T>> unstarted = new ArrayList<ThreadTask<T>>();
+    		commands.drainTo(unstarted, Integer.MAX_VALUE);
+    		serialCommands.drainTo(unstarted);
+    		commandIndex.clear();
+    		if (commandCapacity != null) commandCapacity.clear();
+    		if (coalescer != null) coalescer.clear();
+    		result = new ArrayList<Callable<T>>(unstarted.size());
+    		for (ThreadTask<T> task : unstarted) {
+    			Callable<T> command = task.take();
+    			task.cancel();
+    			if (command != null) result.add(command);
+    		}
+    		for (Thread thread : threads) {
+    			if (thread != null) thread.interrupt();
+    		}
+    		if (virtualDispatchThread != null) virtualDispatchThread.interrupt();
+    		finished(unstarted.size());
+    	}
+    	return result;
+    }
+    
+    public boolean isShutdown() {
+    	return bShutdown;
+    }
+    
+    /**
+     * 等待线程池静止: 所有已提交的指令(包括按键串行排队的指令)执行完毕, 等待期间不占用 CPU。尚未到期的定时指令不计在内。
+     * @param timeout
+     * @param unit
+     * @return 超时返回 false
+     * @throws InterruptedException
+     */
+    public boolean awaitQuiescence(long timeout, TimeUnit unit) throws InterruptedException {
+    	return completion.await(unit.toNanos(timeout));
+    }
+    
+    /**
+     * shutdown() 之后, 等待所有指令执行完毕且所有线程退出
+     * @param timeout
+     * @param unit
+     * @return 超时返回 false
+     * @throws InterruptedException
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    	long deadline = System.nanoTime() + unit.toNanos(timeout);
+    	if (completion.await(unit.toNanos(timeout)) == false) return false;
+    	List<Thread> alive = new ArrayList<Thread>();
+    	synchronized (this) {
+    		for (Thread thread : threads) {
+    			if (thread != null) alive.add(thread);
+    		}
+    		if (virtualDispatchThread != null) alive.add(virtualDispatchThread);
+    	}
+    	for (Thread thread : alive) {
+    		long remaining = deadline - System.nanoTime();
+    		if (remaining <= 0) return thread.isAlive() == false;
+    		TimeUnit.NANOSECONDS.timedJoin(thread, remaining);
+    		if (thread.isAlive()) return false;
+    	}
+    	return true;
+    }
+    
+    public void waitFroCommand(boolean flag) {
+    	bWaitForCommand = flag;
+    	if (flag == false) wakeup();
+    }
+    
+    /**
+     * 唤醒所有等待指令的线程, 使其重新判断是否继续运行
+     */
+    private void wakeup() {
+    	commands.wakeup();
     }
     
     private class ThreadPoolHandler implements Runnable {
     	/**线程轮循开关*/
     	private boolean bContiune = true;
+    	/**是否已因空闲超时被回收**/
+    	private boolean bReaped = false;
     	
     	private int id;
-    	private String runningThreadName = null;
+    	/**取指令的方法, 只创建一次**/
+    	private final Supplier<ThreadTask<T>> poller = commands::poll;
+    	/**正在执行的指令, 线程标识在查询时才生成**/
+    	private volatile ThreadTask<T> running = null;
     	
     	public ThreadPoolHandler(int threadId) {
     		this.id = threadId;
@@ -192,25 +822,44 @@ public class SimpleThreadPool<T> {
 
     	protected void finalize() {
     		id = 0;
-    		runningThreadName = null;
+    		running = null;
     		bContiune = false;
     	}
     	/**
-    	 * 获取可执行程序
+    	 * 获取可执行程序。需要等待指令时, 在无可执行程序的情况下阻塞, 直至 submit() 或 stop() 将其唤醒; 
+    	 * 超出核心数量的线程只限时等待, 超时后被回收
     	 * @return
     	 */
-        private Node<String, Callable<T>> getNextCommand() {
-            synchronized (commands) {
-            	Node<String, Callable<T>> nextCommand = null;
-            	Iterator<Entry<String, Callable<T>>> itor = commands.entrySet().iterator();
-                while(itor.hasNext()) {
-                    Entry<String, Callable<T>> command = itor.next();
-                    nextCommand = new Node<String, Callable<T>> (command.getKey(), command.getValue());
-                    itor.remove();
-                    break;
-                }
-                return nextCommand;
-            }
+        private ThreadTask<T> getNextCommand() {
+        	ThreadTask<T> nextCommand = null;
+        	while (nextCommand == null) {
+        		long timeout = keepAliveNanos > 0 && liveThreads.get() > coreLimit ? keepAliveNanos : 0;
+        		nextCommand = commands.take(waitingForCommand, poller, timeout);
+        		if (nextCommand == null && (timeout == 0 || waitingForCommand.getAsBoolean() == false || reap())) {
+        			return null;
+        		}
+        	}
+        	taken(nextCommand);
+        	return nextCommand;
+        }
+        
+        // 存活线程多于核心数量时回收本线程, 扣减后若又有指令入队则放弃回收
+        private boolean reap() {
+        	int live = 0;
+        	while ((live = liveThreads.get()) > coreLimit) {
+        		if (liveThreads.compareAndSet(live, live - 1)) {
+        			if (commands.isEmpty() == false) {
+        				liveThreads.incrementAndGet();
+        				return false;
+        			}
+        			bReaped = true;
+        			// 退出前本线程仍 isAlive(), 登记其位置可以接替, 并补查扣减之后入队的指令
+        			reapedThreads.add(Thread.currentThread());
+        			ensureThreads();
+        			return true;
+        		}
+        	}
+        	return false;
         }
         
         public synchronized int getId() {
@@ -218,14 +867,23 @@ public class SimpleThreadPool<T> {
         }
         
         public synchronized String getRunningThreadName() {
-        	return runningThreadName;
+        	ThreadTask<T> task = running;
+        	return task != null ? task.getId() : null;
         }
         
 		@Override
 		public synchronized void run() {
+			// 记录本线程等待指令与执行指令的时间
+			PoolMetrics metrics = SimpleThreadPool.this.metrics;
+			PoolMetrics.Worker times = metrics != null ? metrics.register(Thread.currentThread().getName()) : null;
+			long mark = times != null ? System.nanoTime() : 0;
 			while (bContiune == true) {
-				Node<String, Callable<T>> next = getNextCommand();
-				T result = null;
+				ThreadTask<T> next = getNextCommand();
+				if (times != null) {
+					long now = System.nanoTime();
+					times.idle(now - mark);
+					mark = now;
+				}
 				// 判断是否有可执行程序
 				bContiune = next != null;
 				// 判断是否等待
@@ -234,32 +892,30 @@ public class SimpleThreadPool<T> {
 				bContiune = bThreadTerminal ? false : bContiune;
 				if (next != null) {
 					try {
-						runningThreadName = next.getKey();
-	                    if (next.getValue() != null) {
-								result = next.getValue().call();
-	                        // 回调处理返回值
-	                        if(callback != null) callback.callback(next.getKey(), result);
-	                    }
-					} catch (Exception e) {
-						e.printStackTrace();
+						running = next;
+						// 执行指令, 完成其 future 并回调处理返回值
+						execute(next);
 					} finally {
 	                    next = null;
-	                    result = null;
+	                    if (times != null) {
+	                    	long now = System.nanoTime();
+	                    	times.busy(now - mark);
+	                    	mark = now;
+	                    }
 					}
 				} else {
-					// 在无可执行程序的情况下，判断是否需要等待
-					if (bContiune && bWaitForCommand) {
-						try {
-	                        Thread.currentThread();
-	                        Thread.sleep(waitDelay); // 线程修眠100ms
-	                    } catch (InterruptedException e) {
-	                        e.printStackTrace();
-	                    } 
-					}
+					// 需要等待时 getNextCommand() 已阻塞至有指令或线程终止, 取不到指令即退出
+					bContiune = false;
 				}
 			}
 			// 从线程池中移除
-			if (threads != null) threads[id] = null;
+			if (times != null) metrics.retire(times);
+			if (bReaped == false) liveThreads.decrementAndGet();
+			// 回收后其位置可能已启动了新线程
+			synchronized (SimpleThreadPool.this) {
+				if (threads != null && threads[id] == Thread.currentThread()) threads[id] = null;
+				reapedThreads.remove(Thread.currentThread());
+			}
 	    	/*synchronized(DEF_THREADPOOLS) {
 	    		DEF_THREADPOOLS[id] = null;
 	    	}*/
@@ -267,7 +923,7 @@ public class SimpleThreadPool<T> {
 		
 		public synchronized ThreadPoolHandler reset() {
     		id = 0;
-    		runningThreadName = null;
+    		running = null;
     		bContiune = true;
     		return this;
 		}
@@ -0,0 +1,88 @@
+package com.liuyang.thread;
+
+import java.util.function.Supplier;
+
+/**
+ * 以 JMX 发布线程池的运行指标, 每次读取属性时生成新的快照
+ * @author liuyang
+ */
+public class ThreadPoolMetrics implements ThreadPoolMetricsMBean {
+    private final Supplier<PoolMetricsSnapshot> source;
+
+    ThreadPoolMetrics(Supplier<PoolMetricsSnapshot> source) {
+        this.source = source;
+    }
+
+    private PoolMetricsSnapshot snapshot() {
+        return source.get();
+    }
+
+    private static long micros(long nanos) {
+        return nanos / 1000;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return snapshot().getQueueDepth();
+    }
+
+    @Override
+    public int getRunning() {
+        return snapshot().getRunning();
+    }
+
+    @Override
+    public long getCompleted() {
+        return snapshot().getCompleted();
+    }
+
+    @Override
+    public long getFailed() {
+        return snapshot().getFailed();
+    }
+
+    @Override
+    public long getRejected() {
+        return snapshot().getRejected();
+    }
+
+    @Override
+    public double getThroughput() {
+        return snapshot().getThroughput();
+    }
+
+    @Override
+    public double getUtilization() {
+        return snapshot().getUtilization();
+    }
+
+    @Override
+    public double getQueueWaitMeanMicros() {
+        return snapshot().getQueueWait().getMean() / 1000;
+    }
+
+    @Override
+    public long getQueueWaitP99Micros() {
+        return micros(snapshot().getQueueWait().getPercentile(99));
+    }
+
+    @Override
+    public double getExecutionMeanMicros() {
+        return snapshot().getExecution().getMean() / 1000;
+    }
+
+    @Override
+    public long getExecutionP50Micros() {
+        return micros(snapshot().getExecution().getPercentile(50));
+    }
+
+    @Override
+    public long getExecutionP99Micros() {
+        return micros(snapshot().getExecution().getPercentile(99));
+    }
+
+    @Override
+    public long getExecutionMaxMicros() {
+        return micros(snapshot().getExecution().getMax());
+    }
+}
@@ -0,0 +1,33 @@
+package com.liuyang.thread;
+
+/**
+ * 线程池运行指标的 JMX 接口。耗时以微秒计。
+ * @author liuyang
+ */
+public interface ThreadPoolMetricsMBean {
+    int getQueueDepth();
+
+    int getRunning();
+
+    long getCompleted();
+
+    long getFailed();
+
+    long getRejected();
+
+    double getThroughput();
+
+    double getUtilization();
+
+    double getQueueWaitMeanMicros();
+
+    long getQueueWaitP99Micros();
+
+    double getExecutionMeanMicros();
+
+    long getExecutionP50Micros();
+
+    long getExecutionP99Micros();
+
+    long getExecutionMaxMicros();
+}
@@ -0,0 +1,29 @@
+package com.liuyang.thread;
+
+/**
+ * 命令的线程标识与返回值, 交给 {@link BatchResultCallBack}
+ * @author liuyang
+ * @param <T>
+ */
+public final class ThreadResult<T> {
+    private final String threadId;
+    private final T result;
+
+    ThreadResult(String threadId, T result) {
+        this.threadId = threadId;
+        this.result = result;
+    }
+
+    public String getThreadId() {
+        return threadId;
+    }
+
+    public T getResult() {
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return threadId + "=" + result;
+    }
+}
@@ -0,0 +1,244 @@
+package com.liuyang.thread;
+
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 线程池中排队的命令。命令被线程取走之前, 以同一标识再次提交会替换原有命令, 且保持原有的排队位置。
+ * <p>
+ * 命令可以带有自己的返回值回调程序和 future, 二者在命令被取走后不再改变, 执行线程无需加锁即可读取。
+ * <p>
+ * 未指定线程标识的匿名命令不登记索引, 以提交顺序号作为标识, 只在需要交给回调程序时才转为字符串。
+ * @author liuyang
+ * @param <T>
+ */
+class ThreadTask<T> {
+    private final static AtomicLong SEQUENCE = new AtomicLong();
+    /**
+     * 按紧急程度排序, 紧急程度相同时先提交的在前
+     */
+    final static Comparator<ThreadTask<?>> URGENCY_ORDER = new Comparator<ThreadTask<?>>() {
+        @Override
+        public int compare(ThreadTask<?> a, ThreadTask<?> b) {
+            // 以差值比较, 容许 System.nanoTime() 溢出
+            long diff = a.urgency - b.urgency;
+            if (diff != 0) return diff < 0 ? -1 : 1;
+            return Long.compare(a.sequence, b.sequence);
+        }
+    };
+
+    /**
+     * 线程标识, 匿名命令为 null
+     */
+    private final String id;
+    /**
+     * 提交顺序, 全局单调递增, 同时作为匿名命令的标识
+     */
+    final long sequence = SEQUENCE.incrementAndGet();
+    /**
+     * 提交时间, 用于统计排队时间
+     */
+    final long submitTime = System.nanoTime();
+    /**
+     * 优先级调度模式下的紧急程度, 以 System.nanoTime() 为刻度, 越小越紧急。入队之前设置。
+     */
+    long urgency = 0;
+    private Callable<T> command;
+    private ThreadResultCallBack<T> callBack;
+    private CompletableFuture<T> future;
+    private boolean taken = false;
+    /**
+     * 是否占用了容量限制中的位置, 被线程取走或取消时以 {@link #unbound()} 释放。入队之前设置。
+     */
+    boolean bounded = false;
+    /**
+     * 按键串行执行时的键, 不按键串行时为 null。入队之前设置。
+     */
+    String serialKey = null;
+    /**
+     * 所属的提交者分组, 不分组时为 null。入队之前设置, 排队时已被取消的命令取出时清除。
+     */
+    GroupCommandQueues<T>.Group group = null;
+    /**
+     * 执行时限(纳秒): 0 表示采用线程池的默认时限, 小于 0 表示不限时。入队之前设置。
+     */
+    long timeoutNanos = 0;
+    /**
+     * 持久模式下在日志中的登记, 未写入日志时为 null。入队之前设置。
+     */
+    CommandJournal.Entry journalEntry = null;
+    /**
+     * 已取得许可的限流规则, 执行完毕时交还, 不受限流时为 null
+     */
+    CommandThrottle<T>.Rule throttle = null;
+    /**
+     * 执行中是否已因超时或取消被中止
+     */
+    private volatile boolean aborted = false;
+    /**
+     * 排队时是否已被取消, 被取出时应跳过
+     */
+    private volatile boolean cancelled = false;
+    /**
+     * 在 CommandInbox 中的后继, 由 CommandInbox 维护
+     */
+    ThreadTask<T> next = null;
+
+    ThreadTask(String id, Callable<T> command) {
+        this.id = id;
+        this.command = command;
+    }
+
+    ThreadTask(String id, Callable<T> command, ThreadResultCallBack<T> callBack, boolean withFuture) {
+        this.id = id;
+        this.command = command;
+        this.callBack = callBack;
+        this.future = withFuture ? new CompletableFuture<T>() : null;
+    }
+
+    /**
+     * 以指定的 future 接收命令的执行结果
+     * @param id
+     * @param command
+     * @param callBack
+     * @param future 可以为 null
+     */
+    ThreadTask(String id, Callable<T> command, ThreadResultCallBack<T> callBack, CompletableFuture<T> future) {
+        this.id = id;
+        this.command = command;
+        this.callBack = callBack;
+        this.future = future;
+    }
+
+    /**
+     * 线程标识, 匿名命令返回其提交顺序号
+     * @return
+     */
+    String getId() {
+        return id != null ? id : Long.toString(sequence);
+    }
+
+    /**
+     * 是否为未指定线程标识的匿名命令。匿名命令不会重复, 无需登记索引。
+     * @return
+     */
+    boolean isAnonymous() {
+        return id == null;
+    }
+
+    /**
+     * 命令的 future, 未要求 future 时为 null
+     * @return
+     */
+    synchronized CompletableFuture<T> getFuture() {
+        return future;
+    }
+
+    /**
+     * 以同一标识新提交的命令替换尚未被取走的命令。新命令未指定回调程序时保留原有的回调程序, 
+     * 新命令要求 future 而原命令没有时沿用新命令的 future。
+     * @param other 新提交且尚未入队的命令
+     * @return 命令已被线程取走时返回 false
+     */
+    synchronized boolean replace(ThreadTask<T> other) {
+        if (taken) return false;
+        this.command = other.command;
+        if (other.callBack != null) this.callBack = other.callBack;
+        if (other.future != null && this.future == null) this.future = other.future;
+        if (other.timeoutNanos != 0) this.timeoutNanos = other.timeoutNanos;
+        // 交换日志中的登记: 本命令沿用新命令的登记, 原有的登记交给新命令, 由调用者标记完成
+        CommandJournal.Entry entry = this.journalEntry;
+        this.journalEntry = other.journalEntry;
+        other.journalEntry = entry;
+        return true;
+    }
+
+    /**
+     * 取走命令, 此后不能再被替换
+     * @return
+     */
+    synchronized Callable<T> take() {
+        taken = true;
+        return command;
+    }
+
+    /**
+     * 取走并执行命令, 以返回值或异常完成 future, 再回调处理返回值。
+     * 已被中止(超时或取消)的命令即使忽略中断而正常返回, 也不再回调。
+     * @param defaultCallBack 命令未指定回调程序时使用
+     * @return 命令抛出异常、已被中止或在排队时已被取消时返回 false
+     */
+    boolean execute(ThreadResultCallBack<T> defaultCallBack) {
+        Callable<T> command = take();
+        // 在排队时已被取消, future 已取消
+        if (command == null) return false;
+        T result = null;
+        try {
+            result = command.call();
+        } catch (Throwable e) {
+            if (future != null) {
+                future.completeExceptionally(e);
+            } else if (aborted == false) {
+                e.printStackTrace();
+            }
+            if (e instanceof Error) throw (Error) e;
+            return false;
+        }
+        // future 已由 abort() 完成, 结果作废
+        if (aborted) return false;
+        if (future != null) future.complete(result);
+        ThreadResultCallBack<T> handler = callBack != null ? callBack : defaultCallBack;
+        if (handler != null) handler.callback(getId(), result);
+        return true;
+    }
+
+    /**
+     * 中止正在执行的命令: 以 cause 异常完成 future, cause 为 null 时取消 future。命令本身由执行线程的中断结束。
+     * @param cause
+     * @return 已经中止过时返回 false
+     */
+    synchronized boolean abort(Throwable cause) {
+        if (aborted) return false;
+        aborted = true;
+        if (future != null) {
+            if (cause != null) {
+                future.completeExceptionally(cause);
+            } else {
+                future.cancel(true);
+            }
+        }
+        return true;
+    }
+
+    boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * 丢弃尚未执行的命令, 并取消其 future。已在队列中的命令被取出后不再执行。
+     */
+    void cancel() {
+        synchronized (this) {
+            taken = true;
+            command = null;
+            cancelled = true;
+        }
+        if (future != null) future.cancel(false);
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 交还容量限制中的位置
+     * @return 占用了位置且尚未交还时返回 true, 调用者应释放容量
+     */
+    synchronized boolean unbound() {
+        if (bounded == false) return false;
+        bounded = false;
+        return true;
+    }
+}
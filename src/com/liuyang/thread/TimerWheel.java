@@ -0,0 +1,297 @@
+package com.liuyang.thread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 哈希时间轮
+ * <p>
+ * 时间划分为固定长度的刻度, 轮上每个槽位存放到期刻度落在该槽位的定时任务, 超过一圈的任务记录剩余圈数。
+ * 登记任务只需放入无锁队列, 为 O(1); 唯一的走时线程每个刻度将新任务分入槽位, 再执行当前槽位中到期的任务。
+ * 到期任务在走时线程中执行, 只应做将命令交给线程池之类的短小工作。任务最多晚于到期时间一个刻度执行, 不会提前。
+ * @author liuyang
+ */
+class TimerWheel {
+    /**
+     * 默认刻度长度(毫秒)
+     */
+    public final static int DEFAULT_TICK_MILLIS = 10;
+    /**
+     * 默认槽位数量
+     */
+    public final static int DEFAULT_WHEEL_SIZE = 512;
+    /**
+     * 每个刻度最多转入槽位的新任务数量, 以免大量登记时拖延到期任务
+     */
+    private final static int MAX_TRANSFER_PER_TICK = 100000;
+
+    private final static int STATE_INIT = 0;
+    private final static int STATE_STARTED = 1;
+    private final static int STATE_STOPPED = 2;
+    private final static AtomicIntegerFieldUpdater<Timeout> STATUS =
+            AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "status");
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startTime = System.nanoTime();
+    private final ConcurrentLinkedQueue<Timeout> registered = new ConcurrentLinkedQueue<Timeout>();
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+    private final AtomicInteger state = new AtomicInteger(STATE_INIT);
+    private final Thread worker;
+    /**
+     * 停止时尚未到期的任务, 由走时线程在退出前填写
+     */
+    private final List<Runnable> unprocessed = new ArrayList<Runnable>();
+    /**
+     * 已走过的刻度数, 只由走时线程读写
+     */
+    private long tick = 0;
+
+    TimerWheel(String name) {
+        this(DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE, name);
+    }
+
+    /**
+     * @param tickDuration 刻度长度
+     * @param unit
+     * @param wheelSize 槽位数量, 会向上取整为 2 的幂
+     * @param name 走时线程的名称
+     */
+    TimerWheel(long tickDuration, TimeUnit unit, int wheelSize, String name) {
+        if (wheelSize < 2) wheelSize = 2;
+        int size = Integer.highestOneBit(wheelSize - 1) << 1;
+        this.tickNanos = Math.max(1, unit.toNanos(tickDuration));
+        this.wheel = new Bucket[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * 登记定时任务, 首次登记时启动走时线程
+     * @param task 到期时在走时线程中执行
+     * @param delayNanos 延迟时间(纳秒)
+     * @return
+     * @throws RejectedExecutionException 时间轮已停止
+     */
+    Timeout newTimeout(Runnable task, long delayNanos) {
+        if (state.get() == STATE_INIT && state.compareAndSet(STATE_INIT, STATE_STARTED)) {
+            worker.start();
+        }
+        // 限制延迟时间, 以免到期时间溢出
+        long delay = Math.min(Math.max(0, delayNanos), Long.MAX_VALUE / 2);
+        Timeout timeout = new Timeout(task, System.nanoTime() - startTime + delay);
+        registered.offer(timeout);
+        // 登记期间时间轮被停止且任务未被走时线程收走时, 撤销登记
+        if (state.get() == STATE_STOPPED && registered.remove(timeout)) {
+            throw new RejectedExecutionException("timer wheel has been stopped");
+        }
+        return timeout;
+    }
+
+    /**
+     * 停止走时线程而不等待其退出, 尚未到期的任务不再执行。可以在持有到期任务所需的锁时调用。
+     */
+    void halt() {
+        if (state.getAndSet(STATE_STOPPED) == STATE_STARTED) LockSupport.unpark(worker);
+    }
+
+    /**
+     * 停止走时线程, 此后不能再登记任务
+     * @return 尚未到期也未取消的任务
+     */
+    List<Runnable> stop() {
+        int previous = state.getAndSet(STATE_STOPPED);
+        if (previous == STATE_STARTED && Thread.currentThread() != worker) {
+            LockSupport.unpark(worker);
+            boolean interrupted = false;
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            return unprocessed;
+        }
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        if (previous == STATE_INIT) collectRegistered(tasks);
+        return tasks;
+    }
+
+    private void run() {
+        while (state.get() == STATE_STARTED) {
+            if (waitForNextTick() == false) break;
+            removeCancelled();
+            transferRegistered();
+            wheel[(int) tick & mask].expire();
+            tick++;
+        }
+        for (Bucket bucket : wheel) {
+            bucket.drainTo(unprocessed);
+        }
+        collectRegistered(unprocessed);
+    }
+
+    // 休眠至当前刻度结束, 时间轮被停止时返回 false
+    private boolean waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        for (;;) {
+            long sleep = deadline - (System.nanoTime() - startTime);
+            if (sleep <= 0) return true;
+            LockSupport.parkNanos(this, sleep);
+            if (state.get() != STATE_STARTED) return false;
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout = null;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) timeout.bucket.remove(timeout);
+        }
+    }
+
+    // 将新登记的任务分入槽位, 已过期的任务放入当前槽位
+    private void transferRegistered() {
+        for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+            Timeout timeout = registered.poll();
+            if (timeout == null) break;
+            if (timeout.isCancelled()) continue;
+            long calculated = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (calculated - tick) / wheel.length;
+            wheel[(int) (Math.max(calculated, tick) & mask)].add(timeout);
+        }
+    }
+
+    private void collectRegistered(List<Runnable> tasks) {
+        Timeout timeout = null;
+        while ((timeout = registered.poll()) != null) {
+            if (timeout.isCancelled() == false) tasks.add(timeout.task);
+        }
+    }
+
+    /**
+     * 登记在时间轮上的定时任务
+     */
+    final class Timeout {
+        private final static int ST_WAITING = 0;
+        private final static int ST_CANCELLED = 1;
+        private final static int ST_EXPIRED = 2;
+
+        private final Runnable task;
+        /**
+         * 到期时间, 相对于时间轮的启动时间(纳秒)
+         */
+        private final long deadline;
+        /**
+         * 以 STATUS 更新; 不能为 private, JDK 8 上外层类的字段更新器无法访问嵌套类的私有字段
+         */
+        volatile int status = ST_WAITING;
+        // 以下字段只由走时线程读写
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 取消尚未到期的任务, 由走时线程稍后从槽位中移除
+         * @return 任务已到期或已取消时返回 false
+         */
+        boolean cancel() {
+            if (STATUS.compareAndSet(this, ST_WAITING, ST_CANCELLED) == false) return false;
+            cancelled.offer(this);
+            return true;
+        }
+
+        boolean isCancelled() {
+            return status == ST_CANCELLED;
+        }
+
+        private void expire() {
+            if (STATUS.compareAndSet(this, ST_WAITING, ST_EXPIRED) == false) return;
+            try {
+                task.run();
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 槽位, 以双向链表存放任务, 只由走时线程访问
+     */
+    private final static class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.bucket = null;
+            timeout.prev = null;
+            timeout.next = null;
+        }
+
+        // 执行剩余圈数为 0 的任务, 其余任务圈数减一
+        void expire() {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    timeout.expire();
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void drainTo(List<Runnable> tasks) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                if (timeout.isCancelled() == false) tasks.add(timeout.task);
+                timeout = timeout.next;
+            }
+            head = null;
+            tail = null;
+        }
+    }
+}
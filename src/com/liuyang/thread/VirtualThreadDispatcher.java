@@ -0,0 +1,141 @@
+package com.liuyang.thread;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 虚拟线程调度程序
+ * <p>
+ * 从命令队列中取出命令, 每个命令在一个新的虚拟线程中执行, 并发数量由信号量而非线程数量限制。
+ * 适用于大量阻塞于 JDBC、文件等 I/O 的命令。虚拟线程需要 JDK 21 及以上, 低版本 JDK 退化为每个命令一个平台线程。
+ * @author liuyang
+ * @param <T>
+ */
+class VirtualThreadDispatcher<T> implements Runnable {
+    /**
+     * 虚拟线程工厂, 当前 JDK 不支持虚拟线程时为 null
+     */
+    private final static ThreadFactory VIRTUAL_THREAD_FACTORY = createVirtualThreadFactory();
+    /**
+     * 无法创建线程时重试的最短与最长间隔(毫秒), 连续失败时加倍
+     */
+    private final static long RETRY_MIN_MILLIS = 10;
+    private final static long RETRY_MAX_MILLIS = 1000;
+
+    private final CommandQueue<T> commands;
+    private final Supplier<ThreadTask<T>> poller;
+    private final Consumer<ThreadTask<T>> requeue;
+    private final BooleanSupplier waiting;
+    private final Consumer<ThreadTask<T>> executor;
+    private final int concurrency;
+    private final Semaphore permits;
+    private final ThreadFactory factory;
+
+    /**
+     * @param commands 命令队列
+     * @param waiting 无命令时是否继续等待
+     * @param executor 执行命令的方式
+     * @param concurrency 最大并发数量
+     */
+    VirtualThreadDispatcher(CommandQueue<T> commands, BooleanSupplier waiting, Consumer<ThreadTask<T>> executor, int concurrency) {
+        this(commands, commands::poll, commands::offer, waiting, executor, concurrency);
+    }
+
+    /**
+     * @param commands 命令队列
+     * @param poller 取命令的方式, 见 {@link CommandQueue#take(BooleanSupplier, Supplier)}
+     * @param requeue 无法创建线程时交还命令的方式, 应将命令放回 poller 取出它的地方
+     * @param waiting 无命令时是否继续等待
+     * @param executor 执行命令的方式
+     * @param concurrency 最大并发数量
+     */
+    VirtualThreadDispatcher(CommandQueue<T> commands, Supplier<ThreadTask<T>> poller, Consumer<ThreadTask<T>> requeue,
+            BooleanSupplier waiting, Consumer<ThreadTask<T>> executor, int concurrency) {
+        this.commands = commands;
+        this.poller = poller;
+        this.requeue = requeue;
+        this.waiting = waiting;
+        this.executor = executor;
+        this.concurrency = concurrency > 0 ? concurrency : 1;
+        this.permits = new Semaphore(this.concurrency);
+        this.factory = VIRTUAL_THREAD_FACTORY != null ? VIRTUAL_THREAD_FACTORY : new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r);
+            }
+        };
+    }
+
+    // Thread.ofVirtual().factory(), 以反射调用以便在 JDK 21 以下编译和运行
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 最大并发数量
+     * @return
+     */
+    int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * 正在执行的命令数量
+     * @return
+     */
+    int getActive() {
+        return concurrency - permits.availablePermits();
+    }
+
+    @Override
+    public void run() {
+        long retryMillis = RETRY_MIN_MILLIS;
+        for (;;) {
+            // 先取得许可再取命令, 达到并发上限时命令留在队列中
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                break;
+            }
+            final ThreadTask<T> task = commands.take(waiting, poller);
+            if (task == null) {
+                permits.release();
+                break;
+            }
+            try {
+                factory.newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            executor.accept(task);
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                }).start();
+                retryMillis = RETRY_MIN_MILLIS;
+            } catch (Exception | OutOfMemoryError e) {
+                // 无法创建线程时将命令交还其来源, 稍后重试, 调度线程不退出
+                permits.release();
+                requeue.accept(task);
+                e.printStackTrace();
+                try {
+                    Thread.sleep(retryMillis);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                retryMillis = Math.min(retryMillis * 2, RETRY_MAX_MILLIS);
+            }
+        }
+    }
+}
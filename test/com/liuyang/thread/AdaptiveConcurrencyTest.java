@@ -0,0 +1,32 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author liuyang
+ */
+public class AdaptiveConcurrencyTest {
+
+    @Test(timeout = 10000)
+    public void disablingMetricsTurnsOffTheController() {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(64);
+        pool.wait(true);
+        pool.adaptiveConcurrency(1, 50, TimeUnit.MILLISECONDS);
+        pool.start();
+        try {
+            assertTrue(pool.getConcurrencyLimit() <= Runtime.getRuntime().availableProcessors());
+            pool.metrics(false);
+            assertNull(pool.getMetrics());
+            // 控制器已停止, 不再依据过期的运行指标限制线程
+            assertEquals(64, pool.getConcurrencyLimit());
+        } finally {
+            pool.close();
+        }
+    }
+}
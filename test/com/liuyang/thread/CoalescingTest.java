@@ -0,0 +1,128 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author liuyang
+ */
+public class CoalescingTest {
+
+    @Test(timeout = 10000)
+    public void submissionsWhileRunningShareOneExecution() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(2);
+        pool.wait(true);
+        pool.coalesce();
+        pool.start();
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            CompletableFuture<Integer> first = pool.submitAsync("x", () -> {
+                started.countDown();
+                release.await();
+                return runs.incrementAndGet();
+            });
+            pool.commit();
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            // 执行期间的提交不再执行, 共享同一个 future
+            CompletableFuture<Integer> second = pool.submitAsync("x", () -> runs.incrementAndGet());
+            CompletableFuture<Integer> third = pool.submitAsync("x", () -> runs.incrementAndGet());
+            pool.commit();
+            assertSame(first, second);
+            assertSame(first, third);
+            assertTrue(pool.has("x"));
+            release.countDown();
+            assertEquals(Integer.valueOf(1), first.get(5, TimeUnit.SECONDS));
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            assertEquals(1, runs.get());
+            // 没有缓存时完成之后的提交重新执行
+            CompletableFuture<Integer> again = pool.submitAsync("x", () -> runs.incrementAndGet());
+            pool.commit();
+            assertEquals(Integer.valueOf(2), again.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void cachedResultsExpireAfterTheirTtl() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(1);
+        pool.wait(true);
+        pool.coalesce(16, 100, TimeUnit.MILLISECONDS);
+        pool.start();
+        final AtomicInteger runs = new AtomicInteger();
+        try {
+            CompletableFuture<Integer> first = pool.submitAsync("k", () -> runs.incrementAndGet());
+            pool.commit();
+            assertEquals(Integer.valueOf(1), first.get(5, TimeUnit.SECONDS));
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            // 存活时间内直接返回缓存的结果
+            CompletableFuture<Integer> cached = pool.submitAsync("k", () -> runs.incrementAndGet());
+            pool.commit();
+            assertEquals(Integer.valueOf(1), cached.get(5, TimeUnit.SECONDS));
+            assertEquals(1, runs.get());
+            Thread.sleep(200);
+            CompletableFuture<Integer> expired = pool.submitAsync("k", () -> runs.incrementAndGet());
+            pool.commit();
+            assertEquals(Integer.valueOf(2), expired.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void failuresAreNotCached() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(1);
+        pool.wait(true);
+        pool.coalesce(16, 0, TimeUnit.MILLISECONDS);
+        pool.start();
+        final AtomicInteger runs = new AtomicInteger();
+        try {
+            CompletableFuture<Integer> failed = pool.submitAsync("k", () -> {
+                runs.incrementAndGet();
+                throw new IOException("boom");
+            });
+            pool.commit();
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            assertTrue(failed.isCompletedExceptionally());
+            CompletableFuture<Integer> retried = pool.submitAsync("k", () -> runs.incrementAndGet());
+            pool.commit();
+            assertEquals(Integer.valueOf(2), retried.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void cacheEvictsTheOldestEntryWhenFull() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(1);
+        pool.wait(true);
+        pool.coalesce(1, 0, TimeUnit.MILLISECONDS);
+        pool.start();
+        final AtomicInteger runs = new AtomicInteger();
+        try {
+            pool.submitAsync("a", () -> runs.incrementAndGet());
+            pool.commit();
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            pool.submitAsync("b", () -> runs.incrementAndGet());
+            pool.commit();
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            // "a" 已被 "b" 挤出缓存
+            CompletableFuture<Integer> a = pool.submitAsync("a", () -> runs.incrementAndGet());
+            pool.commit();
+            assertEquals(Integer.valueOf(3), a.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.close();
+        }
+    }
+}
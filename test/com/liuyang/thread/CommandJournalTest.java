@@ -0,0 +1,177 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author liuyang
+ */
+public class CommandJournalTest {
+    private final static int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 可序列化的命令, 执行时记下自己的值
+     */
+    static class Record implements Callable<Integer>, Serializable {
+        private static final long serialVersionUID = 1L;
+        static final List<Integer> executed = Collections.synchronizedList(new ArrayList<Integer>());
+        private final int value;
+
+        Record(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public Integer call() {
+            executed.add(value);
+            return value;
+        }
+    }
+
+    private CommandJournal open(File directory) throws IOException {
+        return new CommandJournal(directory, SEGMENT_SIZE, TimeUnit.MILLISECONDS.toNanos(10));
+    }
+
+    private List<Integer> values(List<CommandJournal.Recovered> recovered) throws IOException {
+        List<Integer> values = new ArrayList<Integer>();
+        for (CommandJournal.Recovered each : recovered) values.add(((Record) each.getCommand()).value);
+        return values;
+    }
+
+    @Test
+    public void unfinishedCommandsAreRecoveredInOrder() throws IOException {
+        File directory = folder.newFolder();
+        CommandJournal journal = open(directory);
+        CommandJournal.Entry first = journal.submit("a", "g", new Record(1));
+        journal.submit(null, null, new Record(2));
+        journal.complete(first);
+        journal.submit("c", null, new Record(3));
+        journal.close();
+
+        journal = open(directory);
+        List<CommandJournal.Recovered> recovered = journal.takeRecovered();
+        assertEquals(Arrays.asList(2, 3), values(recovered));
+        assertNull(recovered.get(0).threadId);
+        assertEquals("c", recovered.get(1).threadId);
+        assertTrue(journal.takeRecovered().isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void completeInLaterSegmentIsHonoured() throws IOException {
+        File directory = folder.newFolder();
+        CommandJournal journal = open(directory);
+        CommandJournal.Entry first = journal.submit("first", null, new Record(0));
+        // 写满若干段, 使 COMPLETE 落在 SUBMIT 之后的段中
+        for (int i = 1; i <= 100; i++) journal.submit("k" + i, null, new Record(i));
+        assertTrue(directory.list().length > 1);
+        journal.complete(first);
+        journal.close();
+
+        journal = open(directory);
+        List<Integer> recovered = values(journal.takeRecovered());
+        assertEquals(100, recovered.size());
+        assertEquals(Integer.valueOf(1), recovered.get(0));
+        journal.close();
+    }
+
+    @Test
+    public void fullyCompletedSegmentsAreDeleted() throws IOException {
+        File directory = folder.newFolder();
+        CommandJournal journal = open(directory);
+        List<CommandJournal.Entry> entries = new ArrayList<CommandJournal.Entry>();
+        for (int i = 0; i < 100; i++) entries.add(journal.submit("k" + i, null, new Record(i)));
+        assertTrue(directory.list().length > 1);
+        for (CommandJournal.Entry entry : entries) journal.complete(entry);
+        // 只剩正在写入的段
+        assertEquals(1, directory.list().length);
+        journal.close();
+
+        journal = open(directory);
+        assertTrue(journal.takeRecovered().isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void truncatedRecordEndsTheSegment() throws IOException {
+        File directory = folder.newFolder();
+        CommandJournal journal = open(directory);
+        journal.submit("a", null, new Record(1));
+        journal.submit("b", null, new Record(2));
+        journal.close();
+
+        // 模拟写入第二条记录中途崩溃: 抹去其末尾的字节
+        File segment = directory.listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(8);
+            int first = file.readInt();
+            long second = 8 + 8 + first;
+            file.seek(second);
+            int length = file.readInt();
+            file.seek(second + 8 + length - 4);
+            file.writeInt(0);
+        }
+
+        journal = open(directory);
+        assertEquals(Arrays.asList(1), values(journal.takeRecovered()));
+        // 之后仍可正常追加与恢复
+        journal.submit("c", null, new Record(3));
+        journal.close();
+        journal = open(directory);
+        assertEquals(Arrays.asList(1, 3), values(journal.takeRecovered()));
+        journal.close();
+    }
+
+    @Test(timeout = 10000)
+    public void poolReplaysUnfinishedCommandsOnStart() throws Exception {
+        File directory = folder.newFolder();
+        Record.executed.clear();
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(2);
+        pool.journal(directory, SEGMENT_SIZE, 10, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 5; i++) pool.submit("id" + i, new Record(i));
+        // 同一标识的命令被替换, 只恢复最后一个
+        pool.submit("id0", new Record(100));
+        pool.submit(new Record(5));
+        pool.commit();
+        // 不启动即关闭, 命令留在日志中
+        pool.close();
+        assertTrue(Record.executed.isEmpty());
+
+        FixedThreadPool<Integer> replay = new FixedThreadPool<Integer>(2);
+        replay.journal(directory, SEGMENT_SIZE, 10, TimeUnit.MILLISECONDS);
+        replay.start();
+        replay.shutdown();
+        assertTrue(replay.awaitTermination(5, TimeUnit.SECONDS));
+        List<Integer> executed = new ArrayList<Integer>(Record.executed);
+        Collections.sort(executed);
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 100), executed);
+
+        // 已执行完毕的命令不再恢复
+        Record.executed.clear();
+        FixedThreadPool<Integer> again = new FixedThreadPool<Integer>(1);
+        again.journal(directory, SEGMENT_SIZE, 10, TimeUnit.MILLISECONDS);
+        again.start();
+        again.shutdown();
+        assertTrue(again.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(Record.executed.isEmpty());
+    }
+}
@@ -0,0 +1,116 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author liuyang
+ */
+public class CommandThrottleTest {
+    private final TimerWheel timer = new TimerWheel("test-timer");
+    private final CommandThrottle<Integer> throttle = new CommandThrottle<Integer>(() -> { }, () -> timer);
+    private final ArrayDeque<ThreadTask<Integer>> source = new ArrayDeque<ThreadTask<Integer>>();
+
+    @After
+    public void tearDown() {
+        throttle.stop();
+        timer.stop();
+    }
+
+    private ThreadTask<Integer> task(String id) {
+        return new ThreadTask<Integer>(id, () -> 0, null, null);
+    }
+
+    @Test
+    public void burstThenDefer() {
+        throttle.configure("api.", 0.001, 2, 0);
+        for (int i = 0; i < 3; i++) source.offer(task("api." + i));
+        assertEquals("api.0", throttle.poll(source::poll).getId());
+        assertEquals("api.1", throttle.poll(source::poll).getId());
+        assertNull(throttle.poll(source::poll));
+        assertEquals(1, throttle.deferredSize());
+    }
+
+    @Test
+    public void updatingARuleKeepsItsTokens() {
+        throttle.configure("api.", 0.001, 2, 0);
+        for (int i = 0; i < 4; i++) source.offer(task("api." + i));
+        assertTrue(throttle.poll(source::poll) != null);
+        assertTrue(throttle.poll(source::poll) != null);
+        assertNull(throttle.poll(source::poll));
+        // 只放宽并发上限, 令牌已用完, 等待的命令不应就绪
+        throttle.configure("api.", 0.001, 2, 10);
+        assertEquals(0, throttle.readySize());
+        assertEquals(2, throttle.deferredSize());
+    }
+
+    @Test
+    public void newRuleStartsWithAFullBucket() {
+        throttle.configure("a.", 0.001, 3, 0);
+        throttle.configure("b.", 0.001, 3, 0);
+        for (int i = 0; i < 3; i++) source.offer(task("b." + i));
+        for (int i = 0; i < 3; i++) assertTrue(throttle.poll(source::poll) != null);
+    }
+
+    @Test
+    public void requeuedCommandKeepsItsPermit() {
+        throttle.configure("api.", 0.001, 1, 0);
+        source.offer(task("api.0"));
+        source.offer(task("api.1"));
+        ThreadTask<Integer> first = throttle.poll(source::poll);
+        assertEquals("api.0", first.getId());
+        // 未能执行而交还, 再取时无需新的令牌
+        throttle.requeue(first);
+        assertEquals(1, throttle.readySize());
+        assertTrue(throttle.poll(source::poll) == first);
+        assertNull(throttle.poll(source::poll));
+        assertEquals(1, throttle.deferredSize());
+    }
+
+    @Test
+    public void cancelledCommandTakesNoPermit() {
+        throttle.configure("api.", 0.001, 1, 0);
+        ThreadTask<Integer> first = task("api.0");
+        ThreadTask<Integer> second = task("api.1");
+        source.offer(first);
+        source.offer(second);
+        first.cancel();
+        // 已取消的命令不取许可, 交给调用者丢弃
+        assertEquals("api.0", throttle.poll(source::poll).getId());
+        assertNull(first.throttle);
+        assertEquals("api.1", throttle.poll(source::poll).getId());
+        assertTrue(second.throttle != null);
+    }
+
+    @Test(timeout = 10000)
+    public void poolThrottleUsesThePoolTimerAcrossShutdown() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(2);
+        pool.throttle("api.", 20, 1, 0);
+        pool.start();
+        final AtomicInteger done = new AtomicInteger();
+        try {
+            for (int i = 0; i < 4; i++) {
+                pool.submit("api." + i, () -> done.incrementAndGet());
+            }
+            pool.commit();
+            // 停止时取下的时间轮上未到期的令牌恢复检查应转到新的时间轮上
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(4, done.get());
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                assertFalse(thread.getName().equals("FixedThreadPool-throttle"));
+            }
+        } finally {
+            pool.close();
+        }
+    }
+}
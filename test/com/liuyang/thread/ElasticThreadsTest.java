@@ -0,0 +1,52 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+
+/**
+ * @author liuyang
+ */
+public class ElasticThreadsTest {
+
+    /**
+     * 线程空闲超时被回收、尚未退出时提交的命令, 仍须启动线程执行
+     */
+    @Test(timeout = 60000)
+    public void commandSubmittedWhileThreadIsReapedStillRuns() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(0, 1, 1, TimeUnit.MILLISECONDS);
+        pool.wait(true);
+        pool.start();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                CompletableFuture<Integer> future = pool.submitAsync(() -> 1);
+                pool.commit();
+                assertEquals("round " + i, Integer.valueOf(1), future.get(5, TimeUnit.SECONDS));
+                // 在空闲超时附近提交下一个命令
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(900 + (i % 20) * 10));
+            }
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void simplePoolCommandSubmittedWhileThreadIsReapedStillRuns() throws Exception {
+        SimpleThreadPool<Integer> pool = new SimpleThreadPool<Integer>(0, 1, 1, TimeUnit.MILLISECONDS, null);
+        pool.waitFroCommand(true);
+        pool.start();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                CompletableFuture<Integer> future = pool.submitAsync(() -> 1);
+                assertEquals("round " + i, Integer.valueOf(1), future.get(5, TimeUnit.SECONDS));
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(900 + (i % 20) * 10));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
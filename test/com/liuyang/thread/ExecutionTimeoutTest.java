@@ -0,0 +1,72 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+/**
+ * @author liuyang
+ */
+public class ExecutionTimeoutTest {
+
+    @Test(timeout = 10000)
+    public void abortedCommandThatIgnoresTheInterruptIsNotCalledBack() throws Exception {
+        final List<String> called = new CopyOnWriteArrayList<String>();
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(1, (id, result) -> called.add(id));
+        pool.wait(true);
+        pool.start();
+        try {
+            CompletableFuture<Integer> future = pool.submitAsync("slow", () -> {
+                // 忽略中断, 执行完毕后正常返回
+                long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+                while (System.nanoTime() < end) Thread.interrupted();
+                return 1;
+            }, 20, TimeUnit.MILLISECONDS);
+            pool.commit();
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("expected TimeoutException");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+            }
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            assertTrue(called.isEmpty());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void commandCancelledWhileQueuedIsNotCalledBack() throws Exception {
+        final List<String> called = new CopyOnWriteArrayList<String>();
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(1, (id, result) -> called.add(id));
+        pool.wait(true);
+        pool.start();
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            pool.submit("busy", () -> {
+                release.await();
+                return 0;
+            });
+            pool.submit("queued", () -> 1);
+            pool.commit();
+            assertTrue(pool.cancel("queued"));
+            release.countDown();
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            assertEquals(1, called.size());
+            assertEquals("busy", called.get(0));
+        } finally {
+            pool.close();
+        }
+    }
+}
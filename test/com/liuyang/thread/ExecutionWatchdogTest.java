@@ -0,0 +1,71 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author liuyang
+ */
+public class ExecutionWatchdogTest {
+    private final ExecutionWatchdog<Integer> watchdog = new ExecutionWatchdog<Integer>();
+
+    private ThreadTask<Integer> task(String id) {
+        return new ThreadTask<Integer>(id, () -> 0, null, null);
+    }
+
+    @Test
+    public void abortAfterTheCommandFinishedKeepsLaterInterrupts() {
+        ExecutionWatchdog<Integer>.Slot slot = watchdog.register(Thread.currentThread(), null);
+        try {
+            ThreadTask<Integer> finished = task("a");
+            slot.begin(finished, 0);
+            slot.end();
+            // 超时或取消晚于命令结束
+            assertFalse(slot.abort(finished, null));
+            assertFalse(Thread.currentThread().isInterrupted());
+
+            slot.begin(task("b"), 0);
+            // 其他来源的中断, 例如 shutdownNow()
+            Thread.currentThread().interrupt();
+            slot.end();
+            assertTrue(Thread.interrupted());
+        } finally {
+            Thread.interrupted();
+            watchdog.deregister(slot);
+        }
+    }
+
+    @Test
+    public void abortedCommandDoesNotLeaveTheInterruptBehind() {
+        ExecutionWatchdog<Integer>.Slot slot = watchdog.register(Thread.currentThread(), null);
+        try {
+            ThreadTask<Integer> running = task("a");
+            slot.begin(running, 0);
+            assertTrue(slot.abort(running, null));
+            // 重复中止同一命令不撤回标记
+            assertFalse(slot.abort(running, null));
+            slot.end();
+            assertFalse(Thread.interrupted());
+        } finally {
+            Thread.interrupted();
+            watchdog.deregister(slot);
+        }
+    }
+
+    @Test
+    public void cancelFindsTheRunningCommandById() {
+        ExecutionWatchdog<Integer>.Slot slot = watchdog.register(Thread.currentThread(), null);
+        try {
+            slot.begin(task("job"), 0);
+            assertFalse(watchdog.cancel("other"));
+            assertTrue(watchdog.cancel("job"));
+            slot.end();
+            assertFalse(Thread.interrupted());
+        } finally {
+            Thread.interrupted();
+            watchdog.deregister(slot);
+        }
+    }
+}
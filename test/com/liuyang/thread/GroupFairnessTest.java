@@ -0,0 +1,113 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author liuyang
+ */
+public class GroupFairnessTest {
+
+    @Test(timeout = 10000)
+    public void groupsShareThreadsByWeight() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(1);
+        pool.wait(true);
+        pool.group("heavy", 3, 0);
+        pool.group("light", 1, 0);
+        final List<String> order = new CopyOnWriteArrayList<String>();
+        try {
+            for (int i = 0; i < 40; i++) {
+                pool.submitGrouped("heavy", () -> {
+                    order.add("heavy");
+                    return 0;
+                });
+                pool.submitGrouped("light", () -> {
+                    order.add("light");
+                    return 0;
+                });
+            }
+            pool.commit();
+            pool.start();
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            assertEquals(80, order.size());
+            // 两组都有积压时按 3:1 轮转
+            int heavy = 0;
+            for (String group : order.subList(0, 40)) {
+                if (group.equals("heavy")) heavy++;
+            }
+            assertEquals(30, heavy);
+            assertEquals(40, pool.getGroupMetrics().get("heavy").getCompleted());
+            assertEquals(40, pool.getGroupMetrics().get("light").getCompleted());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void backloggedGroupDoesNotStarveOthers() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(1);
+        pool.wait(true);
+        final List<String> order = new CopyOnWriteArrayList<String>();
+        try {
+            for (int i = 0; i < 100; i++) {
+                pool.submitGrouped("bulk", () -> {
+                    order.add("bulk");
+                    return 0;
+                });
+            }
+            pool.submitGrouped("interactive", () -> {
+                order.add("interactive");
+                return 0;
+            });
+            pool.commit();
+            pool.start();
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            // 权重相同时, 后到的组至多等待一轮
+            assertTrue(order.indexOf("interactive") <= 1);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void groupConcurrencyIsCapped() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(4);
+        pool.wait(true);
+        pool.group("capped", 1, 1);
+        pool.start();
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        final CountDownLatch other = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < 8; i++) {
+                pool.submitGrouped("capped", () -> {
+                    int now = active.incrementAndGet();
+                    peak.accumulateAndGet(now, Math::max);
+                    Thread.sleep(10);
+                    active.decrementAndGet();
+                    return 0;
+                });
+            }
+            // 受限的组占不满线程, 其他命令照常执行
+            pool.submit(() -> {
+                other.countDown();
+                return 0;
+            });
+            pool.commit();
+            assertTrue(other.await(5, TimeUnit.SECONDS));
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            assertEquals(1, peak.get());
+            assertEquals(0, pool.getGroupMetrics().get("capped").getRunning());
+        } finally {
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * @author liuyang
+ */
+public class MBeanRegistrationTest {
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @Test
+    public void simplePoolUnregistersOnStop() throws Exception {
+        SimpleThreadPool<Integer> pool = new SimpleThreadPool<Integer>(1);
+        ObjectName name = pool.registerMBean("com.liuyang.thread:type=SimpleThreadPool,name=stop");
+        assertTrue(server.isRegistered(name));
+        pool.stop();
+        assertFalse(server.isRegistered(name));
+        // 同名可以再次注册
+        SimpleThreadPool<Integer> next = new SimpleThreadPool<Integer>(1);
+        next.registerMBean("com.liuyang.thread:type=SimpleThreadPool,name=stop");
+        next.shutdownNow();
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void fixedPoolUnregistersOnClose() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(1);
+        ObjectName name = pool.registerMBean("com.liuyang.thread:type=FixedThreadPool,name=close");
+        assertTrue(server.isRegistered(name));
+        pool.close();
+        assertFalse(server.isRegistered(name));
+    }
+}
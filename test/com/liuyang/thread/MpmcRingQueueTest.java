@@ -0,0 +1,105 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+/**
+ * @author liuyang
+ */
+public class MpmcRingQueueTest {
+
+    @Test
+    public void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(2, new MpmcRingQueue<Integer>(1).capacity());
+        assertEquals(8, new MpmcRingQueue<Integer>(5).capacity());
+        assertEquals(8, new MpmcRingQueue<Integer>(8).capacity());
+    }
+
+    @Test
+    public void fifoAndFull() {
+        MpmcRingQueue<Integer> queue = new MpmcRingQueue<Integer>(4);
+        for (int i = 0; i < 4; i++) assertTrue(queue.offer(i));
+        assertFalse(queue.offer(4));
+        assertEquals(4, queue.size());
+        for (int i = 0; i < 4; i++) assertEquals(Integer.valueOf(i), queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void offerAllAndDrainToWrapAround() {
+        MpmcRingQueue<Integer> queue = new MpmcRingQueue<Integer>(8);
+        List<Integer> items = Arrays.asList(0, 1, 2, 3, 4, 5);
+        // 先推进位置, 使整段命令跨越数组的末尾
+        for (int round = 0; round < 3; round++) {
+            assertEquals(6, queue.offerAll(items, 0, 6));
+            assertEquals(2, queue.offerAll(items, 0, 6));
+            List<Integer> sink = new ArrayList<Integer>();
+            assertEquals(8, queue.drainTo(sink, 100));
+            assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 0, 1), sink);
+        }
+    }
+
+    @Test
+    public void offerAllRejectsNullWithoutClaimingSlots() {
+        MpmcRingQueue<Integer> queue = new MpmcRingQueue<Integer>(4);
+        try {
+            queue.offerAll(Arrays.asList(0, null, 2), 0, 3);
+            fail("expected NullPointerException");
+        } catch (NullPointerException e) {
+            // 预期
+        }
+        assertEquals(0, queue.size());
+        // 队列仍可正常使用
+        assertEquals(2, queue.offerAll(Arrays.asList(3, 4), 0, 2));
+        assertEquals(Integer.valueOf(3), queue.poll());
+        assertEquals(Integer.valueOf(4), queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test(timeout = 30000)
+    public void concurrentProducersAndConsumersNeitherLoseNorDuplicate() throws InterruptedException {
+        final int producers = 4, consumers = 4, perProducer = 50000;
+        final MpmcRingQueue<Integer> queue = new MpmcRingQueue<Integer>(64);
+        final AtomicIntegerArray seen = new AtomicIntegerArray(producers * perProducer);
+        final CountDownLatch produced = new CountDownLatch(producers);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (queue.offer(base + i) == false) Thread.yield();
+                }
+                produced.countDown();
+            }));
+        }
+        for (int c = 0; c < consumers; c++) {
+            threads.add(new Thread(() -> {
+                for (;;) {
+                    Integer value = queue.poll();
+                    if (value != null) {
+                        seen.incrementAndGet(value);
+                    } else if (produced.getCount() == 0 && queue.isEmpty()) {
+                        return;
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        for (int i = 0; i < seen.length(); i++) assertEquals("value " + i, 1, seen.get(i));
+    }
+}
@@ -0,0 +1,184 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**
+ * @author liuyang
+ */
+public class OverflowPolicyTest {
+
+    @Test(timeout = 10000)
+    public void dropOldestCancelsTheEarliestQueuedCommand() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(1);
+        pool.wait(true);
+        pool.capacity(3, OverflowPolicy.DROP_OLDEST);
+        try {
+            CompletableFuture<Integer> first = pool.submitAsync(() -> 0);
+            CompletableFuture<Integer> second = pool.submitAsync(() -> 1);
+            CompletableFuture<Integer> third = pool.submitAsync(() -> 2);
+            pool.commit();
+            CompletableFuture<Integer> fourth = pool.submitAsync(() -> 3);
+            pool.commit();
+            assertTrue(first.isCancelled());
+            assertEquals(1, pool.getOverflowCount(OverflowPolicy.DROP_OLDEST));
+            pool.start();
+            assertEquals(Integer.valueOf(1), second.get(5, TimeUnit.SECONDS));
+            assertEquals(Integer.valueOf(2), third.get(5, TimeUnit.SECONDS));
+            assertEquals(Integer.valueOf(3), fourth.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void dropOldestCancelsTheLeastUrgentCommandWhenPrioritized() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(1);
+        pool.wait(true);
+        pool.priorityScheduling(1, TimeUnit.SECONDS);
+        pool.capacity(3, OverflowPolicy.DROP_OLDEST);
+        try {
+            CompletableFuture<Integer> urgent = pool.submitAsync("urgent", () -> 0, 5);
+            CompletableFuture<Integer> low = pool.submitAsync("low", () -> 1, 0);
+            CompletableFuture<Integer> middle = pool.submitAsync("middle", () -> 2, 3);
+            pool.commit();
+            CompletableFuture<Integer> high = pool.submitAsync("high", () -> 3, 4);
+            pool.commit();
+            // 最早排队的是最紧急的命令, 丢弃的应是优先级最低的
+            assertTrue(low.isCancelled());
+            assertFalse(urgent.isDone());
+            pool.start();
+            assertEquals(Integer.valueOf(0), urgent.get(5, TimeUnit.SECONDS));
+            assertEquals(Integer.valueOf(2), middle.get(5, TimeUnit.SECONDS));
+            assertEquals(Integer.valueOf(3), high.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void blockRejectsAfterTimeout() {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(1);
+        pool.wait(true);
+        pool.capacity(1, OverflowPolicy.BLOCK, 50, TimeUnit.MILLISECONDS);
+        try {
+            pool.submit(() -> 0);
+            long start = System.nanoTime();
+            try {
+                pool.submit(() -> 1);
+                fail("expected RejectedExecutionException");
+            } catch (RejectedExecutionException e) {
+                assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+            }
+            assertEquals(1, pool.getOverflowCount(OverflowPolicy.BLOCK));
+            assertEquals(1, pool.getOverflowCount(OverflowPolicy.REJECT));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void blockWaitsUntilSpaceIsFreed() throws Exception {
+        final FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(1);
+        pool.wait(true);
+        pool.capacity(1, OverflowPolicy.BLOCK);
+        pool.start();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            CompletableFuture<Integer> running = pool.submitAsync(() -> {
+                started.countDown();
+                release.await();
+                return 0;
+            });
+            pool.commit();
+            started.await();
+            // 唯一的线程被占用, 排队的命令占满容量
+            CompletableFuture<Integer> queued = pool.submitAsync(() -> 1);
+            pool.commit();
+            final CompletableFuture<CompletableFuture<Integer>> blocked = new CompletableFuture<CompletableFuture<Integer>>();
+            Thread submitter = new Thread(() -> {
+                CompletableFuture<Integer> future = pool.submitAsync(() -> 2);
+                pool.commit();
+                blocked.complete(future);
+            });
+            submitter.start();
+            Thread.sleep(50);
+            assertFalse(blocked.isDone());
+            release.countDown();
+            assertEquals(Integer.valueOf(0), running.get(5, TimeUnit.SECONDS));
+            assertEquals(Integer.valueOf(1), queued.get(5, TimeUnit.SECONDS));
+            assertEquals(Integer.valueOf(2), blocked.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS));
+            submitter.join();
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void cancellingAQueuedCommandFreesItsSlot() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(1);
+        pool.wait(true);
+        pool.capacity(2, OverflowPolicy.BLOCK, 50, TimeUnit.MILLISECONDS);
+        final AtomicBoolean ran = new AtomicBoolean();
+        try {
+            CompletableFuture<Integer> a = pool.submitAsync("a", () -> {
+                ran.set(true);
+                return 0;
+            });
+            CompletableFuture<Integer> b = pool.submitAsync("b", () -> 1);
+            pool.commit();
+            assertTrue(pool.cancel("a"));
+            assertTrue(a.isCancelled());
+            // 容量已满, 被取消的命令交还了位置, 新命令不应阻塞或被拒绝
+            CompletableFuture<Integer> c = pool.submitAsync("c", () -> 2);
+            pool.commit();
+            assertEquals(0, pool.getOverflowCount(OverflowPolicy.BLOCK));
+            pool.start();
+            assertEquals(Integer.valueOf(1), b.get(5, TimeUnit.SECONDS));
+            assertEquals(Integer.valueOf(2), c.get(5, TimeUnit.SECONDS));
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            assertFalse(ran.get());
+            // 跳过的命令不计入运行指标, 交还的位置只释放一次
+            pool.submit(() -> 3);
+            pool.submit(() -> 4);
+            pool.commit();
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            assertEquals(0, pool.getOverflowCount(OverflowPolicy.REJECT));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void cancelledGroupedCommandDoesNotHoldTheGroup() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(1);
+        pool.wait(true);
+        pool.group("g", 1, 1);
+        try {
+            pool.submitGrouped("g", "x", () -> 0);
+            CompletableFuture<Integer> y = pool.submitGroupedAsync("g", () -> 1);
+            pool.commit();
+            assertTrue(pool.cancel("x"));
+            pool.start();
+            assertEquals(Integer.valueOf(1), y.get(5, TimeUnit.SECONDS));
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            PoolMetricsSnapshot group = pool.getGroupMetrics().get("g");
+            assertEquals(1, group.getCompleted());
+            assertEquals(0, group.getRunning());
+            assertEquals(0, group.getQueueDepth());
+        } finally {
+            pool.close();
+        }
+    }
+}
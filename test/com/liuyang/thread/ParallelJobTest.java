@@ -0,0 +1,95 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author liuyang
+ */
+public class ParallelJobTest {
+
+    private static List<Integer> range(int n) {
+        List<Integer> items = new ArrayList<Integer>(n);
+        for (int i = 0; i < n; i++) items.add(i);
+        return items;
+    }
+
+    @Test(timeout = 10000)
+    public void parallelMapKeepsElementOrder() {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(4);
+        pool.start();
+        try {
+            List<Long> squares = pool.parallelMap(range(10000), i -> (long) i * i);
+            assertEquals(10000, squares.size());
+            for (int i = 0; i < 10000; i++) assertEquals(Long.valueOf((long) i * i), squares.get(i));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void parallelReduceCombinesPartialResults() {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(4);
+        pool.start();
+        try {
+            long sum = pool.parallelReduce(range(100000), () -> 0L, (a, e) -> a + e, Long::sum);
+            assertEquals(99999L * 100000 / 2, sum);
+            assertEquals(Long.valueOf(0), pool.parallelReduce(Collections.<Integer>emptyList(), () -> 0L, (a, e) -> a + e, Long::sum));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void elementExceptionIsRethrown() {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(4);
+        pool.start();
+        final AtomicInteger processed = new AtomicInteger();
+        try {
+            try {
+                pool.parallelForEach(range(10000), i -> {
+                    if (i == 500) throw new IllegalStateException("bad element");
+                    processed.incrementAndGet();
+                });
+                fail("expected IllegalStateException");
+            } catch (IllegalStateException e) {
+                assertEquals("bad element", e.getMessage());
+            }
+            assertTrue(processed.get() < 10000);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void callsFromInsideAPoolThreadComplete() throws Exception {
+        for (boolean stealing : new boolean[] { false, true }) {
+            final FixedThreadPool<Long> pool = new FixedThreadPool<Long>(2);
+            pool.wait(true);
+            pool.workStealing(stealing);
+            pool.start();
+            try {
+                // 命令本身占用一个线程, 其中的并行作业由调用线程参与处理, 不会因等待自身而卡死
+                CompletableFuture<Long> outer = pool.submitAsync("outer", () -> {
+                    List<Long> mapped = pool.parallelMap(range(5000), i -> (long) i);
+                    return pool.parallelReduce(mapped, () -> 0L, (a, e) -> a + e, Long::sum);
+                });
+                pool.commit();
+                assertEquals("stealing " + stealing, Long.valueOf(4999L * 5000 / 2), outer.get(8, TimeUnit.SECONDS));
+                assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            } finally {
+                pool.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * @author liuyang
+ */
+public class PipelineTest {
+
+    @Test(timeout = 10000)
+    public void itemsFlowThroughEveryStage() throws Exception {
+        final AtomicLong sum = new AtomicLong();
+        final AtomicInteger count = new AtomicInteger();
+        Pipeline.Running<String> running = Pipeline.<String, Integer>first("parse", 2, 4, Integer::parseInt)
+                .then("double", 2, 4, x -> x * 2)
+                .fuse("inc", x -> x + 1)
+                .start(x -> {
+                    sum.addAndGet(x);
+                    count.incrementAndGet();
+                });
+        for (int i = 0; i < 1000; i++) running.submit(String.valueOf(i));
+        assertTrue(running.finish(5, TimeUnit.SECONDS));
+        assertEquals(1000, count.get());
+        // Σ(2i + 1) = 999 × 1000 + 1000
+        assertEquals(999L * 1000 + 1000, sum.get());
+        assertEquals("[parse, double+inc]", running.getStageMetrics().keySet().toString());
+    }
+
+    @Test(timeout = 10000)
+    public void nullResultsAndFailuresDropTheItem() throws Exception {
+        final List<Integer> output = new CopyOnWriteArrayList<Integer>();
+        Pipeline.Running<Integer> running = Pipeline.<Integer, Integer>first("filter", 1, 4, x -> x % 2 == 0 ? x : null)
+                .then("check", 1, 4, x -> {
+                    if (x == 4) throw new IllegalStateException("bad item");
+                    return x;
+                })
+                .start(output::add);
+        for (int i = 0; i < 10; i++) running.submit(i);
+        assertTrue(running.finish(5, TimeUnit.SECONDS));
+        List<Integer> sorted = new ArrayList<Integer>(output);
+        Collections.sort(sorted);
+        assertEquals("[0, 2, 6, 8]", sorted.toString());
+        assertEquals(1, running.getStageMetrics().get("check").getFailed());
+    }
+
+    @Test(timeout = 10000)
+    public void fullDownstreamQueueBlocksTheSubmitter() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger done = new AtomicInteger();
+        final Pipeline.Running<Integer> running = Pipeline.<Integer, Integer>first("fast", 1, 1, x -> x)
+                .then("slow", 1, 1, x -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return x;
+                })
+                .start(x -> done.incrementAndGet());
+        final AtomicInteger submitted = new AtomicInteger();
+        Thread submitter = new Thread(() -> {
+            for (int i = 0; i < 20; i++) {
+                running.submit(i);
+                submitted.incrementAndGet();
+            }
+        });
+        submitter.start();
+        Thread.sleep(200);
+        // 慢的一级卡住时, 反压逐级传到源头: 两级的队列与线程只容纳少数几个元素
+        int accepted = submitted.get();
+        assertTrue("accepted " + accepted, accepted < 20);
+        Thread.sleep(100);
+        assertEquals(accepted, submitted.get());
+        assertTrue(submitter.isAlive());
+        release.countDown();
+        submitter.join(5000);
+        assertEquals(20, submitted.get());
+        assertTrue(running.finish(5, TimeUnit.SECONDS));
+        assertEquals(20, done.get());
+    }
+}
@@ -0,0 +1,54 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author liuyang
+ */
+public class PrioritySchedulingTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void agingTimeMustBePositive() {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(1);
+        try {
+            pool.priorityScheduling(0, TimeUnit.SECONDS);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void extremePrioritiesDoNotOverflow() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(1);
+        pool.wait(true);
+        pool.priorityScheduling(1, TimeUnit.DAYS);
+        final List<String> order = new CopyOnWriteArrayList<String>();
+        try {
+            pool.submit("low", () -> {
+                order.add("low");
+                return 0;
+            }, Integer.MIN_VALUE);
+            pool.submit("middle", () -> {
+                order.add("middle");
+                return 0;
+            }, 0);
+            pool.submit("high", () -> {
+                order.add("high");
+                return 0;
+            }, Integer.MAX_VALUE);
+            pool.commit();
+            pool.start();
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            assertEquals("[high, middle, low]", order.toString());
+        } finally {
+            pool.close();
+        }
+    }
+}
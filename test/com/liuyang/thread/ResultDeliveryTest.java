@@ -0,0 +1,152 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**
+ * @author liuyang
+ */
+public class ResultDeliveryTest {
+
+    @Test(timeout = 10000)
+    public void fullBatchesAreDeliveredWithoutWaitingForLinger() throws Exception {
+        final List<Integer> sizes = new CopyOnWriteArrayList<Integer>();
+        ResultDelivery<Integer> delivery = new ResultDelivery<Integer>(batch -> sizes.add(batch.size()), 3, TimeUnit.SECONDS.toNanos(10), "test-results");
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < 6; i++) delivery.callback("t" + i, i);
+            waitFor(sizes, 2);
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            assertEquals("[3, 3]", sizes.toString());
+        } finally {
+            delivery.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void partialBatchIsDeliveredAfterLinger() throws Exception {
+        final List<List<ThreadResult<Integer>>> batches = new CopyOnWriteArrayList<List<ThreadResult<Integer>>>();
+        ResultDelivery<Integer> delivery = new ResultDelivery<Integer>(batches::add, 100, TimeUnit.MILLISECONDS.toNanos(100), "test-results");
+        try {
+            long start = System.nanoTime();
+            delivery.callback("a", 0);
+            delivery.callback("b", 1);
+            waitFor(batches, 1);
+            // 自第一个返回值到达起等待 linger 凑批
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+            assertEquals("[a=0, b=1]", batches.get(0).toString());
+            assertEquals(0, delivery.getPending());
+        } finally {
+            delivery.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void poolHandsResultsToTheBatchSink() throws Exception {
+        final List<String> delivered = new CopyOnWriteArrayList<String>();
+        final AtomicBoolean onWorker = new AtomicBoolean();
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(2);
+        pool.batchResults(batch -> {
+            if (Thread.currentThread().getName().equals("FixedThreadPool-results") == false) onWorker.set(true);
+            for (ThreadResult<Integer> result : batch) delivered.add(result.getThreadId());
+        }, 8, 20, TimeUnit.MILLISECONDS);
+        pool.start();
+        try {
+            for (int i = 0; i < 20; i++) {
+                final int n = i;
+                pool.submit("t" + i, () -> n);
+            }
+            pool.commit();
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            waitFor(delivered, 20);
+            assertEquals(0, pool.getPendingResults());
+            // 返回值由投递线程交给 sink, 不占用执行线程
+            assertFalse(onWorker.get());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void closeDoesNotInterruptARunningCallback() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        final List<String> delivered = new CopyOnWriteArrayList<String>();
+        ResultDelivery<Integer> delivery = new ResultDelivery<Integer>(batch -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+            for (ThreadResult<Integer> result : batch) delivered.add(result.getThreadId());
+        }, 1, 0, "test-results");
+        delivery.callback("a", 0);
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        delivery.callback("b", 1);
+        delivery.close();
+        Thread.sleep(50);
+        release.countDown();
+        waitFor(delivered, 2);
+        assertFalse(interrupted.get());
+        assertEquals("[a, b]", delivered.toString());
+        assertEquals(0, delivery.getPending());
+    }
+
+    @Test(timeout = 10000)
+    public void resultsArrivingAfterCloseAreStillDelivered() throws Exception {
+        final List<String> delivered = new CopyOnWriteArrayList<String>();
+        ResultDelivery<Integer> delivery = new ResultDelivery<Integer>(batch -> {
+            for (ThreadResult<Integer> result : batch) delivered.add(result.getThreadId());
+        }, 10, TimeUnit.SECONDS.toNanos(1), "test-results");
+        delivery.callback("a", 0);
+        delivery.close();
+        waitFor(delivered, 1);
+        Thread.sleep(50);
+        // 执行线程在关闭前取得投递对象, 投递线程退出后才放入返回值
+        delivery.callback("late", 1);
+        waitFor(delivered, 2);
+        assertEquals("[a, late]", delivered.toString());
+    }
+
+    @Test(timeout = 10000)
+    public void replacedDeliveryStillDeliversLateResults() throws Exception {
+        final List<String> delivered = new CopyOnWriteArrayList<String>();
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(2);
+        pool.batchResults(batch -> {
+            for (ThreadResult<Integer> result : batch) delivered.add(result.getThreadId());
+        }, 100, 10, TimeUnit.MILLISECONDS);
+        pool.start();
+        try {
+            for (int i = 0; i < 50; i++) {
+                final int n = i;
+                pool.submit("t" + i, () -> n);
+                pool.commit();
+                if (i % 10 == 0) {
+                    pool.batchResults(batch -> {
+                        for (ThreadResult<Integer> result : batch) delivered.add(result.getThreadId());
+                    }, 100, 10, TimeUnit.MILLISECONDS);
+                }
+            }
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            waitFor(delivered, 50);
+            assertEquals(50, delivered.size());
+        } finally {
+            pool.close();
+        }
+    }
+
+    static void waitFor(List<?> list, int size) throws InterruptedException {
+        while (list.size() < size) Thread.sleep(5);
+    }
+}
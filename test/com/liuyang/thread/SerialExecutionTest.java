@@ -0,0 +1,112 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author liuyang
+ */
+public class SerialExecutionTest {
+
+    @Test(timeout = 20000)
+    public void commandsOfOneKeyRunInOrderUnderContention() throws Exception {
+        final int keys = 8, perKey = 200;
+        final FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(4);
+        pool.wait(true);
+        pool.start();
+        final List<List<Integer>> executed = new ArrayList<List<Integer>>();
+        final AtomicInteger[] active = new AtomicInteger[keys];
+        final AtomicInteger overlaps = new AtomicInteger();
+        for (int k = 0; k < keys; k++) {
+            executed.add(new CopyOnWriteArrayList<Integer>());
+            active[k] = new AtomicInteger();
+        }
+        try {
+            Thread[] producers = new Thread[keys];
+            for (int k = 0; k < keys; k++) {
+                final int key = k;
+                producers[k] = new Thread(() -> {
+                    for (int i = 0; i < perKey; i++) {
+                        final int n = i;
+                        pool.submitSerial("key" + key, () -> {
+                            if (active[key].incrementAndGet() != 1) overlaps.incrementAndGet();
+                            executed.get(key).add(n);
+                            active[key].decrementAndGet();
+                            return n;
+                        });
+                        if (i % 16 == 0) pool.commit();
+                    }
+                    pool.commit();
+                });
+                producers[k].start();
+            }
+            for (Thread producer : producers) producer.join();
+            assertTrue(pool.awaitQuiescence(10, TimeUnit.SECONDS));
+            assertEquals(0, overlaps.get());
+            for (int k = 0; k < keys; k++) {
+                List<Integer> list = executed.get(k);
+                assertEquals(perKey, list.size());
+                for (int i = 0; i < perKey; i++) assertEquals("key" + k, Integer.valueOf(i), list.get(i));
+            }
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void differentKeysRunInParallel() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(2);
+        pool.wait(true);
+        pool.start();
+        final CountDownLatch a = new CountDownLatch(1);
+        final CountDownLatch b = new CountDownLatch(1);
+        try {
+            // 两个命令相互等待, 只有并行执行才能完成
+            CompletableFuture<Integer> first = pool.submitSerialAsync("a", () -> {
+                a.countDown();
+                return b.await(5, TimeUnit.SECONDS) ? 1 : 0;
+            });
+            CompletableFuture<Integer> second = pool.submitSerialAsync("b", () -> {
+                b.countDown();
+                return a.await(5, TimeUnit.SECONDS) ? 1 : 0;
+            });
+            pool.commit();
+            assertEquals(Integer.valueOf(1), first.get(8, TimeUnit.SECONDS));
+            assertEquals(Integer.valueOf(1), second.get(8, TimeUnit.SECONDS));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void simplePoolKeepsPerKeyOrder() throws Exception {
+        SimpleThreadPool<Integer> pool = new SimpleThreadPool<Integer>(0, 4, 1, TimeUnit.SECONDS, null);
+        pool.waitFroCommand(true);
+        pool.start();
+        final List<Integer> executed = new CopyOnWriteArrayList<Integer>();
+        try {
+            for (int i = 0; i < 200; i++) {
+                final int n = i;
+                pool.submitSerial("key", () -> {
+                    executed.add(n);
+                    return n;
+                });
+            }
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            assertEquals(200, executed.size());
+            for (int i = 0; i < 200; i++) assertEquals(Integer.valueOf(i), executed.get(i));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author liuyang
+ */
+public class ShardedThreadPoolTest {
+
+    @Test(timeout = 10000)
+    public void namedCommandsStayOnTheirShard() throws Exception {
+        ShardedThreadPool<Integer> pool = new ShardedThreadPool<Integer>(4, 1);
+        ShardedThreadPool<Integer> other = new ShardedThreadPool<Integer>(4, 1);
+        pool.wait(true);
+        try {
+            int[] expected = new int[4];
+            for (int i = 0; i < 100; i++) {
+                String id = "id" + i;
+                // 分片只取决于线程标识
+                assertEquals(pool.indexOf(id), other.indexOf(id));
+                expected[pool.indexOf(id)]++;
+                pool.submit(id, () -> 0);
+            }
+            pool.commit();
+            assertArrayEquals(expected, pool.getShardRemains());
+            // 同一标识再次提交时在同一分片中替换, 不重复排队
+            for (int i = 0; i < 100; i++) pool.submit("id" + i, () -> 1);
+            pool.commit();
+            assertArrayEquals(expected, pool.getShardRemains());
+            assertTrue(pool.has("id7"));
+            pool.start();
+            CompletableFuture<Integer> late = pool.submitAsync("id7", () -> 2);
+            pool.commit();
+            assertEquals(Integer.valueOf(2), late.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.close();
+            other.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void anonymousCommandsAvoidABackloggedShard() throws Exception {
+        ShardedThreadPool<Integer> pool = new ShardedThreadPool<Integer>(4, 1);
+        pool.wait(true);
+        pool.start();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger done = new AtomicInteger();
+        try {
+            // 第 0 个分片的线程卡住, 且积压 50 个命令
+            FixedThreadPool<Integer> stalled = pool.shard(0);
+            stalled.submit(() -> {
+                release.await();
+                return 0;
+            });
+            stalled.commit();
+            List<Callable<Integer>> backlog = new ArrayList<Callable<Integer>>();
+            for (int i = 0; i < 50; i++) backlog.add(() -> done.incrementAndGet());
+            stalled.submitAll(backlog);
+            stalled.commit();
+            while (stalled.getRemain() != 50) Thread.sleep(1);
+            for (int i = 0; i < 400; i++) {
+                pool.submit(() -> done.incrementAndGet());
+                pool.commit();
+            }
+            // 单纯轮转时每个分片分到 100 个
+            int routedToStalled = stalled.getRemain() - 50;
+            assertTrue("routed to stalled shard: " + routedToStalled, routedToStalled < 100);
+            release.countDown();
+            for (int i = 0; i < pool.getShardCount(); i++) {
+                assertTrue(pool.shard(i).awaitQuiescence(5, TimeUnit.SECONDS));
+            }
+            assertEquals(450, done.get());
+        } finally {
+            pool.close();
+        }
+    }
+}
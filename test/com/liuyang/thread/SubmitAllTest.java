@@ -0,0 +1,88 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author liuyang
+ */
+public class SubmitAllTest {
+
+    @Test(timeout = 10000)
+    public void submitAllRunsEveryCommandOnlyAfterCommit() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(4);
+        pool.wait(true);
+        pool.start();
+        final AtomicInteger done = new AtomicInteger();
+        try {
+            // 多于一次 commit() 批量转入的数量
+            List<Callable<Integer>> commands = new ArrayList<Callable<Integer>>();
+            for (int i = 0; i < 1000; i++) commands.add(() -> done.incrementAndGet());
+            pool.submitAll(commands);
+            Thread.sleep(50);
+            assertEquals(0, done.get());
+            pool.commit();
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            assertEquals(1000, done.get());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void submitAllByIdIndexesAndReplacesQueuedCommands() throws Exception {
+        final Map<String, Integer> results = new ConcurrentHashMap<String, Integer>();
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(2, 2, 60, TimeUnit.SECONDS, (threadId, result) -> results.put(threadId, result));
+        pool.wait(true);
+        try {
+            Map<String, Callable<Integer>> commands = new LinkedHashMap<String, Callable<Integer>>();
+            for (int i = 0; i < 300; i++) {
+                final int n = i;
+                commands.put("k" + i, () -> n);
+            }
+            pool.submitAll(commands);
+            assertTrue(pool.has("k0"));
+            assertTrue(pool.has("k299"));
+            // 尚未执行的同一标识只替换命令
+            pool.submit("k0", () -> -1);
+            pool.commit();
+            pool.start();
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            assertEquals(300, results.size());
+            assertEquals(Integer.valueOf(-1), results.get("k0"));
+            assertEquals(Integer.valueOf(299), results.get("k299"));
+            assertFalse(pool.has("k0"));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void simplePoolSubmitAllRunsEveryCommand() throws Exception {
+        SimpleThreadPool<Integer> pool = new SimpleThreadPool<Integer>(0, 4, 1, TimeUnit.SECONDS, null);
+        pool.waitFroCommand(true);
+        pool.start();
+        final AtomicInteger done = new AtomicInteger();
+        try {
+            List<Callable<Integer>> commands = new ArrayList<Callable<Integer>>();
+            for (int i = 0; i < 500; i++) commands.add(() -> done.incrementAndGet());
+            pool.submitAll(commands);
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            assertEquals(500, done.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author liuyang
+ */
+public class SubmitAsyncTest {
+
+    @Test(timeout = 10000)
+    public void futureCompletesWithTheResult() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(2);
+        pool.start();
+        try {
+            CompletableFuture<Integer> future = pool.submitAsync("a", () -> 42);
+            pool.commit();
+            assertEquals(Integer.valueOf(42), future.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void futureCompletesExceptionallyWithTheCommandsException() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(2);
+        pool.start();
+        try {
+            CompletableFuture<Integer> future = pool.submitAsync("a", () -> {
+                throw new IOException("boom");
+            });
+            pool.commit();
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("expected ExecutionException");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+                assertEquals("boom", e.getCause().getMessage());
+            }
+            assertTrue(future.isCompletedExceptionally());
+            // 命令失败不影响线程池继续执行
+            CompletableFuture<Integer> next = pool.submitAsync("b", () -> 1);
+            pool.commit();
+            assertEquals(Integer.valueOf(1), next.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void resubmittingAQueuedIdReplacesTheCommandAndKeepsTheFuture() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(1);
+        pool.wait(true);
+        try {
+            CompletableFuture<Integer> first = pool.submitAsync("a", () -> 1);
+            CompletableFuture<Integer> second = pool.submitAsync("a", () -> 2);
+            assertSame(first, second);
+            pool.commit();
+            pool.start();
+            assertEquals(Integer.valueOf(2), first.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.close();
+        }
+    }
+}
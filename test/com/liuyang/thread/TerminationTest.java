@@ -0,0 +1,128 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**
+ * @author liuyang
+ */
+public class TerminationTest {
+
+    @Test(timeout = 10000)
+    public void awaitReturnsFalseUntilCommandsFinish() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(2);
+        pool.wait(true);
+        pool.start();
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            pool.submit(() -> {
+                release.await();
+                return 0;
+            });
+            assertFalse(pool.awaitQuiescence(50, TimeUnit.MILLISECONDS));
+            pool.shutdown();
+            assertTrue(pool.isShutdown());
+            assertFalse(pool.awaitTermination(50, TimeUnit.MILLISECONDS));
+            try {
+                pool.submit(() -> 1);
+                fail("expected RejectedExecutionException");
+            } catch (RejectedExecutionException e) {
+                // shutdown() 之后拒绝新命令
+            }
+            release.countDown();
+            assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+            assertTrue(pool.awaitQuiescence(0, TimeUnit.MILLISECONDS));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void shutdownRunsCommittedAndWaitingCommands() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(2);
+        pool.wait(true);
+        pool.start();
+        try {
+            CompletableFuture<Integer> committed = pool.submitAsync("a", () -> 1);
+            pool.commit();
+            // shutdown() 会提交等待队列中的命令
+            CompletableFuture<Integer> waiting = pool.submitAsync("b", () -> 2);
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(Integer.valueOf(1), committed.get());
+            assertEquals(Integer.valueOf(2), waiting.get());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void shutdownNowReturnsUnstartedCommandsAndInterruptsRunningOnes() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(1);
+        pool.wait(true);
+        pool.start();
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        try {
+            pool.submit("running", () -> {
+                started.countDown();
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+                return 0;
+            });
+            pool.commit();
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Callable<Integer> a = () -> 1;
+            Callable<Integer> b = () -> 2;
+            Callable<Integer> c = () -> 3;
+            CompletableFuture<Integer> first = pool.submitAsync("a", a);
+            pool.submit("b", b);
+            pool.commit();
+            // 尚未 commit() 的命令排在已 commit() 的之后
+            pool.submit("c", c);
+            List<Callable<Integer>> unstarted = pool.shutdownNow();
+            assertEquals(3, unstarted.size());
+            assertSame(a, unstarted.get(0));
+            assertSame(b, unstarted.get(1));
+            assertSame(c, unstarted.get(2));
+            assertTrue(first.isCancelled());
+            assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+            assertTrue(interrupted.get());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void simplePoolAwaitsTermination() throws Exception {
+        SimpleThreadPool<Integer> pool = new SimpleThreadPool<Integer>(0, 2, 1, TimeUnit.SECONDS, null);
+        pool.waitFroCommand(true);
+        pool.start();
+        final CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Integer> blocked = pool.submitAsync(() -> {
+            release.await();
+            return 1;
+        });
+        pool.shutdown();
+        assertFalse(pool.awaitTermination(50, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(1), blocked.get());
+    }
+}
@@ -0,0 +1,139 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * 以 release 8 编译的类运行, 同时检查时间轮在 JDK 8 的访问规则下可以加载
+ * @author liuyang
+ */
+public class TimerWheelTest {
+
+    @Test(timeout = 10000)
+    public void expiresNoEarlierThanItsDelay() throws InterruptedException {
+        TimerWheel timer = new TimerWheel(5, TimeUnit.MILLISECONDS, 8, "test-timer");
+        try {
+            final CountDownLatch fired = new CountDownLatch(1);
+            long start = System.nanoTime();
+            // 超过一圈的延迟
+            timer.newTimeout(fired::countDown, TimeUnit.MILLISECONDS.toNanos(60));
+            fired.await();
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(60));
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void cancelledTimeoutDoesNotRun() throws InterruptedException {
+        TimerWheel timer = new TimerWheel(5, TimeUnit.MILLISECONDS, 8, "test-timer");
+        try {
+            final AtomicInteger runs = new AtomicInteger();
+            TimerWheel.Timeout timeout = timer.newTimeout(runs::incrementAndGet, TimeUnit.MILLISECONDS.toNanos(20));
+            assertTrue(timeout.cancel());
+            assertTrue(timeout.isCancelled());
+            assertFalse(timeout.cancel());
+            final CountDownLatch later = new CountDownLatch(1);
+            timer.newTimeout(later::countDown, TimeUnit.MILLISECONDS.toNanos(40));
+            later.await();
+            assertEquals(0, runs.get());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void stopReturnsPendingTasksAndRejectsNewOnes() {
+        TimerWheel timer = new TimerWheel(5, TimeUnit.MILLISECONDS, 8, "test-timer");
+        Runnable pending = () -> { };
+        timer.newTimeout(pending, TimeUnit.SECONDS.toNanos(60));
+        List<Runnable> unprocessed = timer.stop();
+        assertEquals(1, unprocessed.size());
+        assertTrue(unprocessed.get(0) == pending);
+        try {
+            timer.newTimeout(pending, 0);
+            assertTrue("expected RejectedExecutionException", false);
+        } catch (RejectedExecutionException e) {
+            // 已停止
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void poolSchedulesDelayedAndPeriodicCommands() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(2);
+        pool.wait(true);
+        pool.start();
+        try {
+            ScheduledFuture<Integer> delayed = pool.schedule(() -> 7, 20, TimeUnit.MILLISECONDS);
+            assertEquals(Integer.valueOf(7), delayed.get(5, TimeUnit.SECONDS));
+
+            final CountDownLatch ticks = new CountDownLatch(3);
+            ScheduledFuture<Integer> periodic = pool.scheduleAtFixedRate("tick", () -> {
+                ticks.countDown();
+                return 0;
+            }, 0, 20, TimeUnit.MILLISECONDS);
+            assertTrue(ticks.await(5, TimeUnit.SECONDS));
+            assertTrue(periodic.cancel(false));
+            assertTrue(periodic.isCancelled());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void closeCancelsScheduledCommandWaitingForAThread() throws Exception {
+        FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(1);
+        pool.wait(true);
+        // 未启动线程, 到期的命令留在队列中
+        ScheduledFuture<Integer> future = pool.schedule(() -> 1, 0, TimeUnit.MILLISECONDS);
+        while (pool.getRemain() == 0) Thread.sleep(5);
+        pool.close();
+        assertTrue(future.isCancelled());
+    }
+
+    @Test(timeout = 30000)
+    public void shutdownDoesNotWaitForTimerHoldingThePoolLock() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            // 线程数量可伸缩时, 到期的命令需要进入线程池的锁启动线程
+            final FixedThreadPool<Integer> pool = new FixedThreadPool<Integer>(0, 2, 50, TimeUnit.MILLISECONDS);
+            pool.wait(true);
+            pool.start();
+            pool.scheduleAtFixedRate("tick", () -> 0, 0, 1, TimeUnit.MILLISECONDS);
+            for (int k = 0; k < 20; k++) pool.schedule(() -> 0, k, TimeUnit.MILLISECONDS);
+            Thread.sleep(10);
+            Thread shutdown = new Thread(pool::shutdown);
+            shutdown.start();
+            shutdown.join(5000);
+            assertFalse("shutdown() hung in round " + i, shutdown.isAlive());
+            assertTrue("round " + i, pool.awaitTermination(5, TimeUnit.SECONDS));
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void simplePoolShutdownDoesNotWaitForTimerHoldingThePoolLock() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            final SimpleThreadPool<Integer> pool = new SimpleThreadPool<Integer>(0, 2, 50, TimeUnit.MILLISECONDS, null);
+            pool.waitFroCommand(true);
+            pool.start();
+            pool.scheduleAtFixedRate("tick", () -> 0, 0, 1, TimeUnit.MILLISECONDS);
+            for (int k = 0; k < 20; k++) pool.schedule(() -> 0, k, TimeUnit.MILLISECONDS);
+            Thread.sleep(10);
+            Thread shutdown = new Thread(pool::shutdown);
+            shutdown.start();
+            shutdown.join(5000);
+            assertFalse("shutdown() hung in round " + i, shutdown.isAlive());
+            assertTrue("round " + i, pool.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.liuyang.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author liuyang
+ */
+public class WorkStealingTest {
+
+    @Test(timeout = 10000)
+    public void forkedSubtasksAreStolenByIdleThreads() throws Exception {
+        final FixedThreadPool<String> pool = new FixedThreadPool<String>(2);
+        pool.wait(true);
+        pool.workStealing(true);
+        pool.start();
+        try {
+            CompletableFuture<String> parent = pool.submitAsync("parent", () -> {
+                List<CompletableFuture<String>> children = new ArrayList<CompletableFuture<String>>();
+                for (int i = 0; i < 4; i++) {
+                    // 在线程池的线程中提交, 放入本线程的本地队列, 无需 commit()
+                    children.add(pool.submitAsync("child" + i, () -> Thread.currentThread().getName()));
+                }
+                // 本线程一直阻塞, 子命令只能被另一个线程窃取执行
+                StringBuilder names = new StringBuilder();
+                for (CompletableFuture<String> child : children) {
+                    String name = child.get(5, TimeUnit.SECONDS);
+                    if (name.equals(Thread.currentThread().getName())) return "not stolen";
+                    names.append(name).append(',');
+                }
+                return names.toString();
+            });
+            pool.commit();
+            String result = parent.get(8, TimeUnit.SECONDS);
+            assertFalse(result.equals("not stolen"));
+            assertEquals(4, result.split(",").length);
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void subtasksRunOnTheForkingThreadWhenItIsFree() throws Exception {
+        final FixedThreadPool<String> pool = new FixedThreadPool<String>(1);
+        pool.wait(true);
+        pool.workStealing(true);
+        pool.start();
+        try {
+            final List<CompletableFuture<String>> children = new ArrayList<CompletableFuture<String>>();
+            CompletableFuture<String> parent = pool.submitAsync("parent", () -> {
+                for (int i = 0; i < 3; i++) {
+                    children.add(pool.submitAsync("child" + i, () -> Thread.currentThread().getName()));
+                }
+                return Thread.currentThread().getName();
+            });
+            pool.commit();
+            String name = parent.get(5, TimeUnit.SECONDS);
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            assertEquals(3, children.size());
+            for (CompletableFuture<String> child : children) {
+                assertEquals(name, child.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.close();
+        }
+    }
+}